@@ -10,6 +10,7 @@ import de.exware.nobuto.java.JavaBuilder;
 import de.exware.nobuto.utils.Utilities;
 import subprojects.AbstractSdbgBuild;
 import subprojects.Config;
+import subprojects.SdbgBenchmarksBuild;
 import subprojects.SdbgDebugCoreBuild;
 import subprojects.SdbgDebugUIBuild;
 import subprojects.SdbgFeatureBuild;
@@ -73,6 +74,24 @@ public class Build extends JavaBuilder
         repo.write(new File(Config.UPDATE_SITE));
     }
 
+    /**
+     * Runs the JMH benchmarks of com.github.sdbg.benchmarks against the debug core jar, building
+     * the jar first if there is none in the distribution folder yet.
+     */
+    public void benchmark() throws Exception
+    {
+        SdbgBenchmarksBuild benchmarks = new SdbgBenchmarksBuild();
+        if(benchmarks.findJarInPlugins(new File(benchmarks.getDistributionDir()), "com.github.sdbg.debug.core") == null)
+        {
+            System.out.println("Build Subproject: com.github.sdbg.debug.core");
+            new SdbgDebugCoreBuild().dist();
+        }
+
+        System.out.println("Build Subproject: " + benchmarks.getProjectname());
+        benchmarks.compile();
+        benchmarks.run();
+    }
+
     public void clean() throws IOException
     {
         System.out.println("Cleaning up");
@@ -0,0 +1,100 @@
+package subprojects;
+
+import static de.exware.nobuto.utils.Utilities.verbosePrint;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.exware.nobuto.eclipse.AbstractPluginBuild;
+
+/**
+ * Builds and runs the JMH benchmarks of com.github.sdbg.benchmarks.
+ * <p>
+ * The benchmarks run in a plain JVM. Besides the debug core jar they only need the handful of
+ * Eclipse runtime jars the benchmarked classes link against; no Eclipse installation and no OSGi
+ * framework is involved.
+ */
+public class SdbgBenchmarksBuild extends AbstractPluginBuild
+{
+    private static final String JMH_VERSION = "1.37";
+    private static final String BENCHMARKS_DIR = Config.TMP + "/benchmarks";
+    private static final String CLASSES_DIR = BENCHMARKS_DIR + "/classes";
+
+    public static final String RESULTS = BENCHMARKS_DIR + "/results.json";
+    public static final String BASELINE = BENCHMARKS_DIR + "/baseline.json";
+
+    public SdbgBenchmarksBuild()
+    {
+        super("com.github.sdbg.benchmarks");
+    }
+
+    @Override
+    public void compile() throws Exception
+    {
+        verbosePrint(1, "Downloading resources");
+
+        addSiblingJar("com.github.sdbg.debug.core");
+        addClasspathItem(new File("com.github.sdbg.debug.core/lib/json.jar").getPath());
+
+        addMavenJarToClasspath("org.openjdk.jmh", "jmh-core", JMH_VERSION);
+        addMavenJarToClasspath("org.openjdk.jmh", "jmh-generator-annprocess", JMH_VERSION);
+        addMavenJarToClasspath("net.sf.jopt-simple", "jopt-simple", "5.0.4");
+        addMavenJarToClasspath("org.apache.commons", "commons-math3", "3.6.1");
+
+        addEclipseJarToClasspath("org.eclipse.core.jobs_3.12.0.v20210723-1034.jar");
+        addEclipseJarToClasspath("org.eclipse.core.resources_3.16.0.v20211001-2032.jar");
+        addEclipseJarToClasspath("org.eclipse.core.runtime_3.24.0.v20210910-0750.jar");
+        addEclipseJarToClasspath("org.eclipse.equinox.common_3.15.100.v20211021-1418.jar");
+        addEclipseJarToClasspath("org.eclipse.osgi_3.17.100.v20211104-1730.jar");
+
+        new File(CLASSES_DIR).mkdirs();
+        setOutputFolder(CLASSES_DIR);
+        addClasspathItem(CLASSES_DIR);
+
+        super.compile();
+    }
+
+    /**
+     * Runs the benchmarks and writes the JMH results to {@link #RESULTS}. Additional JMH options,
+     * e.g. a benchmark name filter, can be given in the JMH_ARGS environment variable. If a
+     * {@link #BASELINE} exists, the run fails when a benchmark regressed against it.
+     */
+    public void run() throws Exception
+    {
+        List<String> args = new ArrayList<>(Arrays.asList("-prof", "gc", "-rf", "json", "-rff", RESULTS));
+        String extraArgs = System.getenv("JMH_ARGS");
+        if(extraArgs != null && extraArgs.trim().length() > 0)
+        {
+            args.addAll(Arrays.asList(extraArgs.trim().split("\\s+")));
+        }
+        runJava("org.openjdk.jmh.Main", args.toArray(new String[args.size()]));
+
+        if(new File(BASELINE).exists())
+        {
+            runJava("com.github.sdbg.benchmarks.CompareResults", BASELINE, RESULTS);
+        }
+    }
+
+    @Override
+    protected void writeCompileOptions(List<String> files) throws Exception
+    {
+        super.writeCompileOptions(files);
+
+        // Name the JMH generator explicitly; newer javac versions no longer run processors found
+        // on the classpath on their own.
+        Writer out = new OutputStreamWriter(new FileOutputStream(".compileoptions", true), "UTF-8");
+        try
+        {
+            out.write("-processor\r\norg.openjdk.jmh.generators.BenchmarkProcessor\r\n");
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
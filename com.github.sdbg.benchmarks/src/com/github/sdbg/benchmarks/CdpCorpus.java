@@ -0,0 +1,71 @@
+package com.github.sdbg.benchmarks;
+
+import com.github.sdbg.utilities.Streams;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads corpora of Chrome DevTools protocol messages, as they arrive on the debugger's websocket.
+ * <p>
+ * A corpus is a <code>.jsonl</code> file with one message per line in the benchmarks' corpus
+ * directory. The directory defaults to <code>com.github.sdbg.benchmarks/corpus</code> relative to
+ * the working directory and can be changed with the {@value #CORPUS_DIR_PROPERTY} system property,
+ * e.g. to replay a recording of a real session.
+ */
+public final class CdpCorpus {
+  public static final String CORPUS_DIR_PROPERTY = "sdbg.benchmarks.corpus";
+
+  /**
+   * A GWT SuperDevMode session: the scriptParsed burst of a page load, network and console
+   * traffic, and a stepping session with variable inspection.
+   */
+  public static final String GWT_SESSION = "gwt-session";
+
+  public static List<String> load(String name) throws IOException {
+    File file = new File(getCorpusDir(), name + ".jsonl");
+
+    List<String> messages = new ArrayList<String>();
+
+    for (String line : Streams.loadLinesAndClose(new InputStreamReader(
+        new FileInputStream(file),
+        "UTF-8"))) {
+      if (line.trim().length() > 0) {
+        messages.add(line);
+      }
+    }
+
+    return messages;
+  }
+
+  /**
+   * Returns the messages of the given corpus that are notifications of the given method.
+   */
+  public static List<String> loadNotifications(String name, String method) throws IOException {
+    List<String> messages = new ArrayList<String>();
+
+    String prefix = "{\"method\":\"" + method + "\"";
+
+    for (String message : load(name)) {
+      if (message.startsWith(prefix)) {
+        messages.add(message);
+      }
+    }
+
+    return messages;
+  }
+
+  private static File getCorpusDir() {
+    String dir = System.getProperty(CORPUS_DIR_PROPERTY);
+
+    return new File(dir != null ? dir : "com.github.sdbg.benchmarks/corpus");
+  }
+
+  private CdpCorpus() {
+
+  }
+}
@@ -0,0 +1,145 @@
+package com.github.sdbg.benchmarks;
+
+import com.github.sdbg.utilities.Streams;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compares two JMH result files (<code>-rf json</code>) and exits with a non-zero status if any
+ * benchmark got slower, or allocates more per operation, by more than the given tolerance.
+ * <p>
+ * Usage: <code>CompareResults baseline.json results.json [tolerancePercent]</code>
+ */
+public class CompareResults {
+  private static final double DEFAULT_TOLERANCE = 10.0;
+
+  private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+  private static class Score {
+    final double value;
+    final boolean higherIsBetter;
+    final String unit;
+
+    Score(double value, boolean higherIsBetter, String unit) {
+      this.value = value;
+      this.higherIsBetter = higherIsBetter;
+      this.unit = unit;
+    }
+
+    /**
+     * Returns the change from this score to the given one, in percent.
+     */
+    double changeTo(Score other) {
+      return value == 0 ? 0 : (other.value - value) / Math.abs(value) * 100;
+    }
+
+    /**
+     * Returns how much worse the given score is than this one, in percent.
+     */
+    double regressionOf(Score other) {
+      double change = changeTo(other);
+
+      return higherIsBetter ? -change : change;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("usage: CompareResults <baseline.json> <results.json> [tolerancePercent]");
+      System.exit(2);
+    }
+
+    double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TOLERANCE;
+
+    Map<String, Score> baseline = load(args[0]);
+    Map<String, Score> results = load(args[1]);
+
+    int regressions = 0;
+
+    for (Map.Entry<String, Score> entry : results.entrySet()) {
+      Score before = baseline.get(entry.getKey());
+
+      if (before == null) {
+        continue;
+      }
+
+      Score after = entry.getValue();
+      double regression = before.regressionOf(after);
+
+      String line = String.format(
+          "%-90s %14.3f -> %14.3f %-12s %+7.1f%%",
+          entry.getKey(),
+          before.value,
+          after.value,
+          after.unit,
+          before.changeTo(after));
+
+      if (regression > tolerance) {
+        regressions++;
+        System.out.println("REGRESSION " + line);
+      } else {
+        System.out.println("           " + line);
+      }
+    }
+
+    if (regressions > 0) {
+      System.out.println(regressions + " benchmark(s) regressed by more than " + tolerance + "%");
+      System.exit(1);
+    }
+  }
+
+  private static String getKey(JSONObject result) throws JSONException {
+    StringBuilder key = new StringBuilder(result.getString("benchmark"));
+
+    JSONObject params = result.optJSONObject("params");
+
+    if (params != null) {
+      for (String name : JSONObject.getNames(params)) {
+        key.append(':').append(name).append('=').append(params.get(name));
+      }
+    }
+
+    return key.toString();
+  }
+
+  private static Map<String, Score> load(String path) throws IOException, JSONException {
+    JSONArray results = new JSONArray(Streams.loadAndClose(new InputStreamReader(
+        new FileInputStream(path),
+        "UTF-8")));
+
+    Map<String, Score> scores = new LinkedHashMap<String, Score>();
+
+    for (int i = 0; i < results.length(); i++) {
+      JSONObject result = results.getJSONObject(i);
+      String key = getKey(result);
+
+      JSONObject primary = result.getJSONObject("primaryMetric");
+
+      scores.put(key, new Score(
+          primary.getDouble("score"),
+          "thrpt".equals(result.getString("mode")),
+          primary.getString("scoreUnit")));
+
+      JSONObject secondary = result.optJSONObject("secondaryMetrics");
+
+      if (secondary != null && secondary.has(ALLOCATION_METRIC)) {
+        JSONObject allocation = secondary.getJSONObject(ALLOCATION_METRIC);
+
+        scores.put(key + " (alloc)", new Score(
+            allocation.getDouble("score"),
+            false,
+            allocation.getString("scoreUnit")));
+      }
+    }
+
+    return scores;
+  }
+}
@@ -0,0 +1,243 @@
+package com.github.sdbg.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A minimal RFC 6455 server on the loopback interface that echoes every data frame back to the
+ * client, standing in for the browser's debugger endpoint.
+ * <p>
+ * Replies are sent unmasked and flushed once the client has nothing more in flight, like a browser
+ * answering a burst of requests.
+ */
+public class LoopbackWebSocketServer {
+  private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+  private static final int OPCODE_CLOSE = 0x8;
+  private static final int OPCODE_PING = 0x9;
+  private static final int OPCODE_PONG = 0xA;
+
+  private final ServerSocket serverSocket;
+  private final List<Socket> clients = new CopyOnWriteArrayList<Socket>();
+
+  public LoopbackWebSocketServer() throws IOException {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        acceptClients();
+      }
+    }, "Loopback websocket server");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public void close() throws IOException {
+    serverSocket.close();
+
+    for (Socket client : clients) {
+      client.close();
+    }
+  }
+
+  public URI getUri() {
+    return URI.create("ws://127.0.0.1:" + serverSocket.getLocalPort() + "/devtools/page/benchmark");
+  }
+
+  private void acceptClients() {
+    try {
+      while (true) {
+        final Socket client = serverSocket.accept();
+
+        client.setTcpNoDelay(true);
+        clients.add(client);
+
+        Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              serve(client);
+            } catch (EOFException e) {
+              // The client went away.
+            } catch (SocketException e) {
+              // The client or the server was closed.
+            } catch (IOException e) {
+              e.printStackTrace();
+            } finally {
+              clients.remove(client);
+
+              try {
+                client.close();
+              } catch (IOException e) {
+
+              }
+            }
+          }
+        }, "Loopback websocket connection");
+        thread.setDaemon(true);
+        thread.start();
+      }
+    } catch (IOException e) {
+      // The server was closed.
+    }
+  }
+
+  private String acceptKey(String key) throws IOException {
+    try {
+      MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+
+      return Base64.getEncoder().encodeToString(
+          sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void handshake(DataInputStream in, OutputStream out) throws IOException {
+    String key = null;
+
+    for (String line = readLine(in); line.length() > 0; line = readLine(in)) {
+      int colon = line.indexOf(':');
+
+      if (colon != -1
+          && line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH).equals("sec-websocket-key")) {
+        key = line.substring(colon + 1).trim();
+      }
+    }
+
+    if (key == null) {
+      throw new IOException("not a websocket handshake");
+    }
+
+    String response = "HTTP/1.1 101 Switching Protocols\r\n" + "Upgrade: websocket\r\n"
+        + "Connection: Upgrade\r\n" + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n";
+
+    out.write(response.getBytes(StandardCharsets.US_ASCII));
+    out.flush();
+  }
+
+  private String readLine(DataInputStream in) throws IOException {
+    StringBuilder builder = new StringBuilder();
+
+    while (true) {
+      int c = in.read();
+
+      if (c == -1) {
+        throw new EOFException();
+      } else if (c == '\n') {
+        int length = builder.length();
+
+        if (length > 0 && builder.charAt(length - 1) == '\r') {
+          builder.setLength(length - 1);
+        }
+
+        return builder.toString();
+      } else {
+        builder.append((char) c);
+      }
+    }
+  }
+
+  private void serve(Socket client) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        client.getInputStream(),
+        64 * 1024));
+    OutputStream out = new BufferedOutputStream(client.getOutputStream(), 64 * 1024);
+
+    handshake(in, out);
+
+    byte[] mask = new byte[4];
+    byte[] payload = new byte[64 * 1024];
+
+    while (true) {
+      int b0 = in.readUnsignedByte();
+      int b1 = in.readUnsignedByte();
+      int opcode = b0 & 0x0F;
+      long length = b1 & 0x7F;
+
+      if (length == 126) {
+        length = in.readUnsignedShort();
+      } else if (length == 127) {
+        length = in.readLong();
+      }
+
+      if (length > Integer.MAX_VALUE - 8) {
+        throw new IOException("frame too large: " + length);
+      }
+
+      boolean masked = (b1 & 0x80) != 0;
+
+      if (masked) {
+        in.readFully(mask);
+      }
+
+      if (payload.length < length) {
+        payload = new byte[(int) length];
+      }
+
+      in.readFully(payload, 0, (int) length);
+
+      if (masked) {
+        for (int i = 0; i < length; i++) {
+          payload[i] ^= mask[i & 3];
+        }
+      }
+
+      if (opcode == OPCODE_PING) {
+        writeFrame(out, 0x80 | OPCODE_PONG, payload, (int) length);
+        out.flush();
+        continue;
+      }
+
+      if (opcode == OPCODE_CLOSE) {
+        writeFrame(out, 0x80 | OPCODE_CLOSE, payload, (int) length);
+        out.flush();
+        return;
+      }
+
+      // Echo data and continuation frames as they are, keeping the client's fragmentation.
+      writeFrame(out, b0, payload, (int) length);
+
+      if (in.available() == 0) {
+        out.flush();
+      }
+    }
+  }
+
+  private void writeFrame(OutputStream out, int b0, byte[] payload, int length) throws IOException {
+    out.write(b0);
+
+    if (length < 126) {
+      out.write(length);
+    } else if (length < 65536) {
+      out.write(126);
+      out.write(length >>> 8);
+      out.write(length);
+    } else {
+      out.write(127);
+
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        out.write((int) ((long) length >>> shift));
+      }
+    }
+
+    out.write(payload, 0, length);
+  }
+}
@@ -0,0 +1,226 @@
+package com.github.sdbg.benchmarks;
+
+import com.github.sdbg.debug.core.internal.sourcemaps.VlqDecoder;
+
+import java.util.Random;
+
+/**
+ * Generates source maps with the size and shape of real GWT and Closure output.
+ * <p>
+ * The maps are deterministic for a given shape, so results of different runs are comparable. Next
+ * to the map itself a fixture holds a sample of generated and original positions that are known to
+ * be mapped, for the lookup benchmarks.
+ */
+public final class SyntheticSourceMaps {
+  public static enum Shape {
+    /**
+     * GWT SuperDevMode: thousands of Java sources, roughly one generated statement per line.
+     */
+    GWT(4000, 40000, 1, 24, 12 * 1024 * 1024),
+
+    /**
+     * Closure advanced mode: a few hundred sources, the whole program on a handful of huge lines.
+     */
+    CLOSURE(600, 30000, 150000, 250000, 12 * 1024 * 1024);
+
+    final int sourceCount;
+    final int nameCount;
+    final int minSegmentsPerLine;
+    final int maxSegmentsPerLine;
+    final int mappingsLength;
+
+    private Shape(int sourceCount, int nameCount, int minSegmentsPerLine, int maxSegmentsPerLine,
+        int mappingsLength) {
+      this.sourceCount = sourceCount;
+      this.nameCount = nameCount;
+      this.minSegmentsPerLine = minSegmentsPerLine;
+      this.maxSegmentsPerLine = maxSegmentsPerLine;
+      this.mappingsLength = mappingsLength;
+    }
+  }
+
+  public static final class Fixture {
+    public final Shape shape;
+    public final String json;
+    public final String mappings;
+    public final String[] sources;
+    public final String[] names;
+
+    /**
+     * Mapped positions in the generated file.
+     */
+    public final int[] generatedLines;
+    public final int[] generatedColumns;
+
+    /**
+     * Mapped positions in the original sources.
+     */
+    public final String[] originalFiles;
+    public final int[] originalLines;
+
+    Fixture(Shape shape, String json, String mappings, String[] sources, String[] names,
+        int[] generatedLines, int[] generatedColumns, String[] originalFiles, int[] originalLines) {
+      this.shape = shape;
+      this.json = json;
+      this.mappings = mappings;
+      this.sources = sources;
+      this.names = names;
+      this.generatedLines = generatedLines;
+      this.generatedColumns = generatedColumns;
+      this.originalFiles = originalFiles;
+      this.originalLines = originalLines;
+    }
+
+    public int getSampleCount() {
+      return generatedLines.length;
+    }
+  }
+
+  /**
+   * The number of sampled positions; a power of two so benchmarks can cycle through them by mask.
+   */
+  public static final int SAMPLE_COUNT = 4096;
+
+  public static Fixture create(Shape shape) {
+    Random random = new Random(shape.ordinal() * 31 + 17);
+
+    String[] sources = new String[shape.sourceCount];
+    for (int i = 0; i < sources.length; i++) {
+      sources[i] = "com/example/app/module" + (i % 97) + "/Type" + i + ".java";
+    }
+
+    String[] names = new String[shape.nameCount];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = "member" + i;
+    }
+
+    // Every sampled segment is taken with a probability that makes the sample roughly cover the
+    // whole map; a short sample is topped up below.
+    int expectedSegments = shape.mappingsLength / 7;
+    double sampleRate = Math.min(1.0, (double) SAMPLE_COUNT / expectedSegments);
+
+    int[] generatedLines = new int[SAMPLE_COUNT];
+    int[] generatedColumns = new int[SAMPLE_COUNT];
+    String[] originalFiles = new String[SAMPLE_COUNT];
+    int[] originalLines = new int[SAMPLE_COUNT];
+    int samples = 0;
+
+    StringBuilder mappings = new StringBuilder(shape.mappingsLength + 1024);
+    int[] segment5 = new int[5];
+    int[] segment4 = new int[4];
+
+    int source = 0;
+    int originalLine = 0;
+    int originalColumn = 0;
+    int name = 0;
+
+    for (int line = 0; mappings.length() < shape.mappingsLength; line++) {
+      if (line > 0) {
+        mappings.append(';');
+      }
+
+      int segments = shape.minSegmentsPerLine
+          + random.nextInt(shape.maxSegmentsPerLine - shape.minSegmentsPerLine + 1);
+      int column = 0;
+      int previousColumn = 0;
+
+      for (int i = 0; i < segments; i++) {
+        if (i > 0) {
+          mappings.append(',');
+        }
+
+        column += 1 + random.nextInt(40);
+
+        // Generated code mostly stays within one original source and walks it forwards.
+        int newSource = random.nextInt(10) == 0 ? random.nextInt(sources.length) : source;
+        int newLine = newSource == source ? Math.max(0, originalLine + random.nextInt(9) - 3)
+            : random.nextInt(2000);
+        int newColumn = Math.max(0, originalColumn + random.nextInt(41) - 20);
+
+        int[] values;
+
+        if (random.nextInt(3) == 0) {
+          int newName = random.nextInt(names.length);
+
+          values = segment5;
+          values[4] = newName - name;
+          name = newName;
+        } else {
+          values = segment4;
+        }
+
+        values[0] = column - previousColumn;
+        values[1] = newSource - source;
+        values[2] = newLine - originalLine;
+        values[3] = newColumn - originalColumn;
+
+        mappings.append(VlqDecoder.encode(values));
+
+        previousColumn = column;
+        source = newSource;
+        originalLine = newLine;
+        originalColumn = newColumn;
+
+        if (samples < SAMPLE_COUNT && random.nextDouble() < sampleRate) {
+          generatedLines[samples] = line;
+          generatedColumns[samples] = column;
+          originalFiles[samples] = sources[source];
+          originalLines[samples] = originalLine;
+          samples++;
+        }
+      }
+    }
+
+    // Top up a short sample by repeating what was taken.
+    for (int i = samples; i < SAMPLE_COUNT && samples > 0; i++) {
+      generatedLines[i] = generatedLines[i % samples];
+      generatedColumns[i] = generatedColumns[i % samples];
+      originalFiles[i] = originalFiles[i % samples];
+      originalLines[i] = originalLines[i % samples];
+    }
+
+    String mappingsString = mappings.toString();
+
+    return new Fixture(
+        shape,
+        toJson(shape, sources, names, mappingsString),
+        mappingsString,
+        sources,
+        names,
+        generatedLines,
+        generatedColumns,
+        originalFiles,
+        originalLines);
+  }
+
+  private static void appendStrings(StringBuilder builder, String[] strings) {
+    builder.append('[');
+
+    for (int i = 0; i < strings.length; i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+
+      builder.append('"').append(strings[i]).append('"');
+    }
+
+    builder.append(']');
+  }
+
+  private static String toJson(Shape shape, String[] sources, String[] names, String mappings) {
+    StringBuilder builder = new StringBuilder(mappings.length() + 1024 * 1024);
+
+    builder.append("{\"version\":3,\"file\":\"").append(shape.name().toLowerCase()).append(".js\"");
+    builder.append(",\"sourceRoot\":\"\",\"sources\":");
+    appendStrings(builder, sources);
+    builder.append(",\"names\":");
+    appendStrings(builder, names);
+    builder.append(",\"mappings\":\"").append(mappings).append("\"}");
+
+    return builder.toString();
+  }
+
+  private SyntheticSourceMaps() {
+
+  }
+}
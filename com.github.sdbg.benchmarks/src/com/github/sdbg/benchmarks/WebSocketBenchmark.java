@@ -0,0 +1,131 @@
+package com.github.sdbg.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.roderick.weberknecht.WebSocket;
+import de.roderick.weberknecht.WebSocketEventHandler;
+import de.roderick.weberknecht.WebSocketException;
+import de.roderick.weberknecht.WebSocketMessage;
+
+/**
+ * Framing, masking and decoding through the weberknecht client against a loopback echo server.
+ * <p>
+ * {@link #roundTrip()} reports latency percentiles of a single request; {@link #burst()} reports
+ * throughput when many requests are in flight, e.g. while breakpoints are being set.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebSocketBenchmark {
+  private static final int BURST = 64;
+
+  private static final long TIMEOUT_SECONDS = 10;
+
+  @Param({"256", "65536"})
+  public int messageSize;
+
+  private LoopbackWebSocketServer server;
+  private WebSocket websocket;
+  private String message;
+
+  private final Semaphore echoes = new Semaphore(0);
+
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public void burst() throws Exception {
+    for (int i = 0; i < BURST; i++) {
+      websocket.send(message);
+    }
+
+    awaitEchoes(BURST);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void roundTrip() throws Exception {
+    websocket.send(message);
+
+    awaitEchoes(1);
+  }
+
+  @Setup
+  public void setUp() throws Exception {
+    char[] chars = new char[messageSize];
+
+    // Mostly ASCII with the odd multi-byte character, like WIP traffic.
+    Arrays.fill(chars, 'x');
+    for (int i = 0; i < chars.length; i += 97) {
+      chars[i] = '\u00e9';
+    }
+
+    message = new String(chars);
+
+    server = new LoopbackWebSocketServer();
+
+    websocket = new WebSocket(server.getUri());
+    websocket.setEventHandler(new WebSocketEventHandler() {
+      @Override
+      public void onClose() {
+
+      }
+
+      @Override
+      public void onMessage(WebSocketMessage message) {
+        echoes.release();
+      }
+
+      @Override
+      public void onOpen() {
+
+      }
+
+      @Override
+      public void onPing() {
+
+      }
+
+      @Override
+      public void onPong() {
+
+      }
+    });
+    websocket.connect();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    try {
+      websocket.close();
+    } catch (WebSocketException e) {
+      // The benchmark is over.
+    }
+
+    server.close();
+  }
+
+  private void awaitEchoes(int count) throws Exception {
+    if (!echoes.tryAcquire(count, TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("echo server stopped answering");
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package com.github.sdbg.debug.core.internal.sourcemaps;
+
+import com.github.sdbg.benchmarks.SyntheticSourceMaps;
+import com.github.sdbg.benchmarks.SyntheticSourceMaps.Fixture;
+import com.github.sdbg.benchmarks.SyntheticSourceMaps.Shape;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.Path;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding and lookups on GWT- and Closure-sized source maps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class SourceMapBenchmark {
+  private static final int SEGMENTS = 4096;
+
+  private static final int BREAKPOINTS = 500;
+
+  @Param({"GWT", "CLOSURE"})
+  public Shape shape;
+
+  private Fixture fixture;
+  private SourceMap sourceMap;
+  private SourceMapColumns columns;
+  private String[] segments;
+  private int next;
+
+  @Setup
+  public void setUp() throws Exception {
+    fixture = SyntheticSourceMaps.create(shape);
+    sourceMap = new SourceMap(Path.fromPortableString("/benchmark/" + shape.name().toLowerCase()
+        + ".js.map"), new JSONObject(fixture.json));
+    columns = SourceMapDecoder.decode(fixture.mappings);
+
+    // Take the segments from all over the map; their lengths vary with the deltas they encode.
+    List<String> sample = new ArrayList<String>(SEGMENTS);
+    String[] all = fixture.mappings.split("[;,]");
+
+    for (int i = 0; sample.size() < SEGMENTS; i += all.length / SEGMENTS) {
+      if (all[i % all.length].length() > 0) {
+        sample.add(all[i % all.length]);
+      }
+    }
+
+    segments = sample.toArray(new String[SEGMENTS]);
+  }
+
+  /**
+   * Decoding the whole mappings string, the bulk of opening a source map.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3, time = 5)
+  @Measurement(iterations = 5, time = 5)
+  public Object decodeMappings() {
+    return SourceMapDecoder.decode(fixture.mappings);
+  }
+
+  @Benchmark
+  public SourceMapInfo getMappingFor() {
+    int i = next++ & (SyntheticSourceMaps.SAMPLE_COUNT - 1);
+
+    return sourceMap.getMappingFor(fixture.generatedLines[i], fixture.generatedColumns[i]);
+  }
+
+  @Benchmark
+  public List<SourceMapInfo> getReverseMappingsFor() {
+    int i = next++ & (SyntheticSourceMaps.SAMPLE_COUNT - 1);
+
+    return sourceMap.getReverseMappingsFor(fixture.originalFiles[i], fixture.originalLines[i]);
+  }
+
+  /**
+   * Re-arming breakpoints after a recompile: the reverse index of the new map is built once and
+   * looked up for every breakpoint.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void rearmBreakpoints(Blackhole blackhole) {
+    SourceMapReverseIndex index = new SourceMapReverseIndex(columns, fixture.sources);
+
+    for (int i = 0; i < BREAKPOINTS; i++) {
+      blackhole.consume(index.findRuns(fixture.originalFiles[i], fixture.originalLines[i]));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SEGMENTS)
+  public void vlqDecode(Blackhole blackhole) {
+    for (String segment : segments) {
+      blackhole.consume(VlqDecoder.decode(segment));
+    }
+  }
+}
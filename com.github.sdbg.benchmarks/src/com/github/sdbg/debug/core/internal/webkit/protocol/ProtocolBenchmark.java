@@ -0,0 +1,213 @@
+package com.github.sdbg.debug.core.internal.webkit.protocol;
+
+import com.github.sdbg.benchmarks.CdpCorpus;
+import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitConnection.StreamingNotificationHandler;
+
+import java.net.URI;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.roderick.weberknecht.WebSocketMessage;
+
+/**
+ * Handling of recorded WIP traffic: what the websocket receiver thread spends per message, and
+ * binding the heaviest messages with the pull parser versus an org.json tree.
+ * <p>
+ * Run with <code>-prof gc</code> for the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtocolBenchmark {
+  private static final String[] DOMAINS = {
+      "Console.", "CSS.", "Debugger.", "DOM.", "Network.", "Page.", "Runtime."};
+
+  private String[] session;
+  private CharBuffer[] sessionBuffers;
+  private String[] paused;
+  private String[] properties;
+
+  private WebkitConnection connection;
+
+  @Setup
+  public void setUp() throws Exception {
+    List<String> messages = CdpCorpus.load(CdpCorpus.GWT_SESSION);
+
+    session = messages.toArray(new String[messages.size()]);
+    sessionBuffers = new CharBuffer[session.length];
+
+    for (int i = 0; i < session.length; i++) {
+      // The receiver hands out heap char buffers.
+      sessionBuffers[i] = CharBuffer.wrap(session[i].toCharArray());
+    }
+
+    paused = toArray(CdpCorpus.loadNotifications(CdpCorpus.GWT_SESSION, "Debugger.paused"));
+
+    List<String> getProperties = new ArrayList<String>();
+
+    for (String message : messages) {
+      if (message.startsWith("{\"id\":") && message.contains(",\"result\":{\"result\":[")) {
+        getProperties.add(message);
+      }
+    }
+
+    properties = toArray(getProperties);
+
+    connection = new WebkitConnection(URI.create("ws://127.0.0.1:9222/devtools/page/benchmark"));
+
+    StreamingNotificationHandler sink = new StreamingNotificationHandler() {
+      @Override
+      public void handleNotification(String method, JsonPullParser params) {
+
+      }
+    };
+
+    for (String domain : DOMAINS) {
+      connection.registerStreamingNotificationHandler(domain, sink);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    connection.notifyClosed();
+  }
+
+  /**
+   * Parsing the <code>Debugger.paused</code> call frames with the pull parser.
+   */
+  @Benchmark
+  public void bindPausedPull(Blackhole blackhole) throws JSONException {
+    for (String message : paused) {
+      JsonPullParser parser = new JsonPullParser(message);
+
+      parser.beginObject();
+
+      while (parser.hasNext()) {
+        if (!"params".equals(parser.nextName())) {
+          parser.skipValue();
+          continue;
+        }
+
+        parser.beginObject();
+
+        while (parser.hasNext()) {
+          if ("callFrames".equals(parser.nextName())) {
+            blackhole.consume(WebkitCallFrame.createFrom(parser));
+          } else {
+            parser.skipValue();
+          }
+        }
+
+        parser.endObject();
+      }
+
+      parser.endObject();
+    }
+  }
+
+  /**
+   * Parsing the <code>Debugger.paused</code> call frames by way of an org.json tree.
+   */
+  @Benchmark
+  public void bindPausedTree(Blackhole blackhole) throws JSONException {
+    for (String message : paused) {
+      JSONObject object = new JSONObject(message);
+
+      blackhole.consume(WebkitCallFrame.createFrom(object.getJSONObject("params").getJSONArray(
+          "callFrames")));
+    }
+  }
+
+  /**
+   * Parsing <code>Runtime.getProperties</code> responses with the pull parser.
+   */
+  @Benchmark
+  public void bindPropertiesPull(Blackhole blackhole) throws JSONException {
+    for (String message : properties) {
+      JsonPullParser parser = new JsonPullParser(message);
+
+      parser.beginObject();
+
+      while (parser.hasNext()) {
+        if (!"result".equals(parser.nextName())) {
+          parser.skipValue();
+          continue;
+        }
+
+        parser.beginObject();
+
+        while (parser.hasNext()) {
+          if ("result".equals(parser.nextName())) {
+            blackhole.consume(WebkitPropertyDescriptor.createFrom(parser));
+          } else {
+            parser.skipValue();
+          }
+        }
+
+        parser.endObject();
+      }
+
+      parser.endObject();
+    }
+  }
+
+  /**
+   * Parsing <code>Runtime.getProperties</code> responses by way of an org.json tree.
+   */
+  @Benchmark
+  public void bindPropertiesTree(Blackhole blackhole) throws JSONException {
+    for (String message : properties) {
+      JSONObject object = new JSONObject(message);
+
+      blackhole.consume(WebkitPropertyDescriptor.createFrom(object.getJSONObject("result").getJSONArray(
+          "result")));
+    }
+  }
+
+  /**
+   * The receiver thread's share of a whole session: envelope parsing, response completion and
+   * handing notifications to their domain lanes.
+   */
+  @Benchmark
+  public void processSession() {
+    for (CharBuffer buffer : sessionBuffers) {
+      buffer.rewind();
+
+      connection.processWebSocketMessage(new WebSocketMessage(buffer));
+    }
+  }
+
+  /**
+   * Building a full org.json tree for every message of the session.
+   */
+  @Benchmark
+  public void treeSession(Blackhole blackhole) throws JSONException {
+    for (String message : session) {
+      blackhole.consume(new JSONObject(message));
+    }
+  }
+
+  private static String[] toArray(List<String> list) {
+    return list.toArray(new String[list.size()]);
+  }
+}
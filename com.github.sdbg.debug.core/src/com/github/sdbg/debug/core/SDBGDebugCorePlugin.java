@@ -101,6 +101,8 @@ public class SDBGDebugCorePlugin extends Plugin implements DebugOptionsListener
 
   public static final String PREFS_EXCLUDE_FROM_LOGICAL_STRUCTURE = "excludeFromLogicalStructure";
 
+  public static final String PREFS_MAX_CONSOLE_MESSAGE_RATE = "maxConsoleMessageRate";
+
   private ServiceTracker<DebugOptions, Object> debugTracker;
 
   private IEclipsePreferences prefs;
@@ -243,6 +245,14 @@ public class SDBGDebugCorePlugin extends Plugin implements DebugOptionsListener
     return getPrefs().getBoolean(PREFS_DEFAULT_BROWSER, true);
   }
 
+  /**
+   * @return the number of console messages per second above which console events are suspended
+   *         for a while, or 0 for no limit
+   */
+  public int getMaxConsoleMessageRate() {
+    return getPrefs().getInt(PREFS_MAX_CONSOLE_MESSAGE_RATE, 1000);
+  }
+
   public IEclipsePreferences getPrefs() {
     if (prefs == null) {
       prefs = InstanceScope.INSTANCE.getNode(PLUGIN_ID);
@@ -29,7 +29,7 @@ public class ScriptDescriptor
     private int startLine;
     private String url;
     private String scriptId;
-    private String scriptSource;
+    private volatile String scriptSource;
     private List<String> scriptLines;
 
     private Object privateData;
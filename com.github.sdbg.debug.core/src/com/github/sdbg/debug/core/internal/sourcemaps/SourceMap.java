@@ -22,7 +22,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.text.NumberFormat;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -85,9 +85,14 @@ public class SourceMap {
   private String sourcesContent[];
 
   /**
-   * The full list of source map entries.
+   * The decoded mappings.
    */
-  private SourceMapInfoEntry[] entries;
+  private SourceMapColumns mappings;
+
+  /**
+   * The index behind {@link #getReverseMappingsFor(String, int)}; built on first use.
+   */
+  private SourceMapReverseIndex reverseIndex;
 
   public static SourceMap createFrom(File file) throws IOException {
     String contents = Streams.loadAndClose(new InputStreamReader(new FileInputStream(file), "UTF-8"));
@@ -122,7 +127,7 @@ public class SourceMap {
     return new SourceMap(path, jsonObject);
   }
 
-  private static SourceMap createFrom(IPath path, String contents) throws JSONException {
+  static SourceMap createFrom(IPath path, String contents) throws JSONException {
     if (contents.startsWith(")]}")) {
       contents = contents.substring(3);
     }
@@ -148,30 +153,36 @@ public class SourceMap {
 
     version = obj.optInt("version");
     file = obj.optString("file");
-    sourceRoot = obj.optString("sourceRoot");
-    if (sourceRoot != null) {
-      sourceRoot = sourceRoot.replace('\\', '/');
-    }
+    sourceRoot = SourceMapSources.normalizeSourceRoot(obj.optString("sourceRoot"));
 
     sources = parseStringArray(obj.getJSONArray("sources"));
     sourcesContent = parseStringArray(obj.optJSONArray("sourcesContent"));
     names = parseStringArray(obj.getJSONArray("names"));
 
-    for (int i = 0; i < sources.length; i++) {
-      sources[i] = sources[i].replace('\\', '/');
-    }
-
     // Prepend sourceRoot to the sources entries.
-    if (sourceRoot != null && sourceRoot.length() > 0) {
-      for (int i = 0; i < sources.length; i++) {
-        sources[i] = sourceRoot + sources[i];
-      }
-    }
+    SourceMapSources.normalize(sourceRoot, sources);
 
     String mapStr = obj.getString("mappings");
 
-    List<SourceMapInfoEntry> result = SourceMapDecoder.decode(sources, names, mapStr);
-    entries = result.toArray(new SourceMapInfoEntry[result.size()]);
+    try {
+      mappings = SourceMapDecoder.decode(mapStr);
+    } catch (IllegalArgumentException e) {
+      throw new JSONException("Invalid mappings: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Creates a source map from its already decoded parts, e.g. from {@link SourceMapCache}.
+   */
+  SourceMap(IPath path, int version, String file, String sourceRoot, String[] sources,
+      String[] names, SourceMapColumns mappings) {
+    this.path = path;
+    this.version = version;
+    this.file = file;
+    this.sourceRoot = sourceRoot;
+    this.sources = sources;
+    this.names = names;
+    this.mappings = mappings;
   }
 
   public String getFile() {
@@ -186,38 +197,30 @@ public class SourceMap {
    * @return the corresponding location in the original source
    */
   public SourceMapInfo getMappingFor(int line, int column) {
-    int index = findIndexForLine(line);
-
-    if (index == -1) {
-      return null;
-    }
-
-    SourceMapInfoEntry entry = entries[index];
-
     // If column == -1, return the first mapping for that line.
     if (column == -1) {
-      return entry.getInfo();
+      int row = mappings.findFirstMappedRow(line);
+
+      return row == -1 ? null : createInfo(row);
     }
 
-    // Search for a matching mapping.
-    while (index < entries.length) {
-      entry = entries[index];
+    int row = mappings.findRow(line, column);
 
-      if (entry.column <= column) {
-        if (entry.endColumn == -1) {
-          return entry.getInfo();
-        }
+    if (row == -1) {
+      return null;
+    }
 
-        if (column < entry.endColumn) {
-          return entry.getInfo();
-        }
-      }
+    // Columns before the first segment of the line fall back to its first mapping.
+    if (column < mappings.generatedColumn[row]) {
+      return getMappingFor(line, -1);
+    }
 
-      index++;
+    if (!mappings.isMapped(row)) {
+      // no mapping found
+      return null;
     }
 
-    // no mapping found
-    return null;
+    return createInfo(row);
   }
 
   public IFile getMapSource() {
@@ -243,36 +246,31 @@ public class SourceMap {
   }
 
   /**
-   * Map from a location in a source file to a location in the generated source file.
+   * Map from a location in a source file to locations in the generated source file. There is one
+   * location for every separate range of generated code that maps to the line, e.g. for every
+   * inlined copy of it.
    * 
    * @param file
    * @param line
-   * @param column
-   * @return
+   * @return the start of every generated range, in generated order
    */
   public List<SourceMapInfo> getReverseMappingsFor(String file, int line) {
-    // TODO(devoncarew): calculate this information once for O(1) lookup
-    for (SourceMapInfoEntry entry : entries) {
-      SourceMapInfo info = entry.getInfo();
+    int[] rows = getReverseIndex().findRuns(file, line);
 
-      if (info == null) {
-        continue;
-      }
+    if (rows.length == 0) {
+      return Collections.emptyList();
+    }
 
-      if (line == info.getLine()) {
-        if (file.equals(info.getFile())) {
-          // TODO(devoncarew): there will be several entries on this line
-          // We need to choose one that has a non-zero range, or is a catch-all entry
+    List<SourceMapInfo> result = new ArrayList<SourceMapInfo>(rows.length);
 
-          return Collections.singletonList(new SourceMapInfo(
-              path.toString(),
-              entry.line,
-              entry.column));
-        }
-      }
+    for (int row : rows) {
+      result.add(new SourceMapInfo(
+          path.toString(),
+          mappings.generatedLine[row],
+          mappings.generatedColumn[row]));
     }
 
-    return Collections.emptyList();
+    return result;
   }
 
   public String[] getSourceNames() {
@@ -290,41 +288,47 @@ public class SourceMap {
     return version;
   }
 
+  SourceMapColumns getMappings() {
+    return mappings;
+  }
+
+  String[] getNames() {
+    return names;
+  }
+
   @Override
   public String toString() {
     return "[" + getPath().lastSegment() + ", "
-        + NumberFormat.getNumberInstance().format(entries.length) + " lines]";
+        + NumberFormat.getNumberInstance().format(mappings.getLineCount()) + " lines]";
   }
 
-  private int findIndexForLine(int line) {
-    // TODO(devoncarew): test this binary search
-
-    int location = Arrays.binarySearch(
-        entries,
-        SourceMapInfoEntry.forLine(line),
-        SourceMapInfoEntry.lineComparator());
+  private SourceMapInfo createInfo(int row) {
+    SourceMapInfo info = new SourceMapInfo(
+        getString(sources, mappings.sourceIndex[row]),
+        mappings.originalLine[row],
+        mappings.originalColumn[row]);
 
-    if (location < 0) {
-      return -1;
+    if (mappings.nameIndex[row] != -1) {
+      info.setName(getString(names, mappings.nameIndex[row]));
     }
 
-    while (location > 0 && entries[location - 1].line == line) {
-      location--;
+    return info;
+  }
+
+  private synchronized SourceMapReverseIndex getReverseIndex() {
+    if (reverseIndex == null) {
+      reverseIndex = new SourceMapReverseIndex(mappings, sources);
     }
 
-    return location;
-
-//    for (int i = 0; i < entries.length; i++) {
-//      SourceMapInfoEntry entry = entries[i];
-//
-//      if (entry.line == line) {
-//        return i;
-//      } else if (entry.line > line) {
-//        return -1;
-//      }
-//    }
-//
-//    return -1;
+    return reverseIndex;
+  }
+
+  private String getString(String[] strs, int index) {
+    if (index >= 0 && index < strs.length) {
+      return strs[index];
+    } else {
+      return null;
+    }
   }
 
   private String[] parseStringArray(JSONArray arr) throws JSONException {
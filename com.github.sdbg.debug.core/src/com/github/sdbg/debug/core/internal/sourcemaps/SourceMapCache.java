@@ -0,0 +1,673 @@
+/*
+ * Copyright (c) 2013, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.sdbg.debug.core.internal.sourcemaps;
+
+import com.github.sdbg.debug.core.SDBGDebugCorePlugin;
+import com.github.sdbg.debug.core.internal.util.URLStorage;
+import com.github.sdbg.debug.core.util.Trace;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IStorage;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.json.JSONException;
+
+/**
+ * An on-disk cache of decoded source maps, so that maps which did not change since the last launch
+ * or page reload are neither downloaded nor parsed again.
+ * <p>
+ * Every map is stored in one binary file, named by a hash of its URL or path, which holds the
+ * map's sources, names and mapping columns. A cached map is valid while the server answers a
+ * conditional request with <code>304 Not Modified</code> (for maps served over HTTP with an ETag or
+ * Last-Modified header) or while the content hash of the map is unchanged; its mapping columns
+ * are then read from the file channel straight into their arrays, in chunks of
+ * {@link #BUFFER_SIZE} bytes. The least recently used files are deleted when the cache grows
+ * beyond {@link #MAX_SIZE} bytes.
+ */
+public class SourceMapCache {
+  private static final int MAGIC = 0x53444d43;
+  private static final int FORMAT_VERSION = 1;
+
+  private static final String EXTENSION = ".smc";
+
+  private static final long MAX_SIZE = 512L * 1024 * 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int HEADER_BUFFER_SIZE = 1024;
+
+  /**
+   * How a cached map was validated: the HTTP validators and the SHA-1 hash of the content.
+   */
+  private static class Validators {
+    String etag;
+    String lastModified;
+    String contentHash;
+  }
+
+  private static SourceMapCache cache;
+
+  /**
+   * Returns the cache in the state location of the plugin, or null if the plugin is not running.
+   */
+  public static synchronized SourceMapCache getCache() {
+    if (cache == null && SDBGDebugCorePlugin.getPlugin() != null) {
+      cache = new SourceMapCache(
+          SDBGDebugCorePlugin.getPlugin().getStateLocation().append("sourcemaps").toFile());
+    }
+
+    return cache;
+  }
+
+  private static boolean isTracing() {
+    return Trace.isTracing(Trace.SOURCEMAPS);
+  }
+
+  private static void trace(String message) {
+    Trace.trace(Trace.SOURCEMAPS, message);
+  }
+
+  private final File directory;
+
+  public SourceMapCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Loads the source map in the given storage, from the cache if it is still valid there.
+   */
+  public SourceMap load(IStorage storage) throws IOException, CoreException {
+    IPath path = storage.getFullPath();
+    String key = getKey(storage);
+    File file = getCacheFile(key);
+
+    Validators cached = readValidators(file, key);
+    Validators current = new Validators();
+    byte[] contents = fetch(storage, cached, current);
+
+    if (contents == null) {
+      SourceMap map = readSourceMap(file, key, path);
+
+      if (map != null) {
+        trace("Source map not modified, using cached copy: " + storage);
+        return map;
+      }
+
+      // The cached copy went away in the meantime.
+      contents = fetch(storage, null, current);
+    }
+
+    if (cached != null && current.contentHash.equals(cached.contentHash)) {
+      SourceMap map = readSourceMap(file, key, path);
+
+      if (map != null) {
+        trace("Source map unchanged, using cached copy: " + storage);
+
+        if (!equals(current.etag, cached.etag)
+            || !equals(current.lastModified, cached.lastModified)) {
+          write(file, key, current, map);
+        }
+
+        return map;
+      }
+    }
+
+    SourceMap map;
+
+    try {
+      map = SourceMap.createFrom(path, new String(contents, getCharset(storage)));
+    } catch (JSONException e) {
+      throw new IOException(e);
+    }
+
+    write(file, key, current, map);
+
+    return map;
+  }
+
+  /**
+   * Loads the sources of the source map in the given storage. They are read from the header of the
+   * cached map if it is still valid, or else streamed from the map itself, which is not decoded nor
+   * cached.
+   */
+  public SourceMapSources loadSources(IStorage storage) throws IOException, CoreException {
+    String key = getKey(storage);
+    File file = getCacheFile(key);
+
+    Validators cached = readValidators(file, key);
+    Validators current = new Validators();
+    byte[] contents = fetch(storage, cached, current);
+
+    if (contents == null || cached != null && current.contentHash.equals(cached.contentHash)) {
+      SourceMapSources sources = readSources(file, key);
+
+      if (sources != null) {
+        trace("Source map unchanged, using cached sources: " + storage);
+        return sources;
+      }
+
+      if (contents == null) {
+        // The cached copy went away in the meantime.
+        contents = fetch(storage, null, current);
+      }
+    }
+
+    return SourceMapSources.parse(getCharset(storage).decode(ByteBuffer.wrap(contents)));
+  }
+
+  private void evict() {
+    File[] files = directory.listFiles();
+
+    if (files == null) {
+      return;
+    }
+
+    long total = 0;
+
+    for (File file : files) {
+      total += file.length();
+    }
+
+    if (total <= MAX_SIZE) {
+      return;
+    }
+
+    // Least recently used first; reading a cached map touches its file.
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File file1, File file2) {
+        return Long.compare(file1.lastModified(), file2.lastModified());
+      }
+    });
+
+    for (File file : files) {
+      if (total <= MAX_SIZE) {
+        break;
+      }
+
+      long length = file.length();
+
+      // Files that are still open cannot be deleted on Windows; they go next time.
+      if (file.delete()) {
+        total -= length;
+      }
+    }
+  }
+
+  /**
+   * Returns the contents of the given storage, and fills in their validators. Returns null instead
+   * if the server answers the conditional request for the given cached validators with
+   * <code>304 Not Modified</code>.
+   */
+  private byte[] fetch(IStorage storage, Validators cached, Validators current) throws IOException,
+      CoreException {
+    byte[] contents;
+
+    if (isHttp(storage)) {
+      URLConnection connection = ((URLStorage) storage).getURL().openConnection();
+
+      if (cached != null && connection instanceof HttpURLConnection) {
+        if (cached.etag != null) {
+          connection.setRequestProperty("If-None-Match", cached.etag);
+        }
+
+        if (cached.lastModified != null) {
+          connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+        }
+      }
+
+      if (connection instanceof HttpURLConnection
+          && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        ((HttpURLConnection) connection).disconnect();
+
+        return null;
+      }
+
+      current.etag = connection.getHeaderField("ETag");
+      current.lastModified = connection.getHeaderField("Last-Modified");
+      contents = readFully(connection.getInputStream());
+    } else {
+      contents = readFully(storage.getContents());
+    }
+
+    current.contentHash = toHex(digest(contents));
+
+    return contents;
+  }
+
+  private File getCacheFile(String key) throws IOException {
+    return new File(directory, toHex(digest(key.getBytes("UTF-8"))) + EXTENSION);
+  }
+
+  private Charset getCharset(IStorage storage) throws CoreException {
+    if (storage instanceof IFile) {
+      return Charset.forName(((IFile) storage).getCharset());
+    } else {
+      return Charset.defaultCharset();
+    }
+  }
+
+  private String getKey(IStorage storage) {
+    if (storage instanceof URLStorage) {
+      return ((URLStorage) storage).getURL().toString();
+    } else {
+      return storage.getFullPath().toPortableString();
+    }
+  }
+
+  private boolean isHttp(IStorage storage) {
+    if (storage instanceof URLStorage) {
+      String protocol = ((URLStorage) storage).getURL().getProtocol();
+
+      return "http".equals(protocol) || "https".equals(protocol);
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the header of the cache file, positioned after its key, if it is there and belongs to
+   * the given key. Only the header is buffered, not the mapping columns which follow it.
+   */
+  private DataInputStream openHeader(File file, String key) throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+
+    FileInputStream stream = new FileInputStream(file);
+    DataInputStream in = null;
+
+    try {
+      in = openHeader(stream, key);
+
+      return in;
+    } finally {
+      if (in == null) {
+        stream.close();
+      }
+    }
+  }
+
+  /**
+   * Returns the header of the given cache file stream, positioned after its key, if it belongs to
+   * the given key. The stream is left open either way.
+   */
+  private DataInputStream openHeader(FileInputStream stream, String key) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(stream, HEADER_BUFFER_SIZE));
+
+    if (in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION && key.equals(readString(in))) {
+      return in;
+    } else {
+      return null;
+    }
+  }
+
+  private byte[] readFully(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[BUFFER_SIZE];
+
+      for (int count = in.read(buffer); count != -1; count = in.read(buffer)) {
+        out.write(buffer, 0, count);
+      }
+
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private void readInts(FileChannel channel, ByteBuffer buffer, int[] values) throws IOException {
+    buffer.clear();
+
+    IntBuffer ints = buffer.asIntBuffer();
+
+    for (int offset = 0; offset < values.length; offset += ints.capacity()) {
+      int length = Math.min(ints.capacity(), values.length - offset);
+
+      buffer.clear();
+      buffer.limit(length * 4);
+
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) == -1) {
+          throw new EOFException();
+        }
+      }
+
+      ints.clear();
+      ints.get(values, offset, length);
+    }
+  }
+
+  /**
+   * Reads the cached map. The header is read through a small buffered stream; the mapping columns,
+   * which take up the rest of the file, are then read from the channel of the same stream straight
+   * into their arrays, so that a large map is never held on the heap twice.
+   */
+  private SourceMap readSourceMap(File file, String key, IPath path) {
+    try {
+      if (!file.isFile()) {
+        return null;
+      }
+
+      FileInputStream stream = new FileInputStream(file);
+
+      try {
+        DataInputStream in = openHeader(stream, key);
+
+        if (in == null) {
+          return null;
+        }
+
+        readValidators(in);
+
+        int version = in.readInt();
+        String mapFile = readString(in);
+        String sourceRoot = readString(in);
+        String[] sources = readStrings(in);
+        String[] names = readStrings(in);
+
+        int size = in.readInt();
+        int lineCount = in.readInt();
+
+        SourceMapColumns mappings = new SourceMapColumns(size, lineCount);
+        FileChannel channel = stream.getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        // The columns end the file; the header stream may have buffered past their start.
+        channel.position(channel.size() - 4L * (6L * size + lineCount + 1));
+
+        readInts(channel, buffer, mappings.generatedLine);
+        readInts(channel, buffer, mappings.generatedColumn);
+        readInts(channel, buffer, mappings.sourceIndex);
+        readInts(channel, buffer, mappings.originalLine);
+        readInts(channel, buffer, mappings.originalColumn);
+        readInts(channel, buffer, mappings.nameIndex);
+        readInts(channel, buffer, mappings.lineStarts);
+
+        if (mappings.lineStarts[lineCount] != size) {
+          trace("Cached source map " + file + " is damaged");
+          return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+
+        return new SourceMap(path, version, mapFile, sourceRoot, sources, names, mappings);
+      } finally {
+        stream.close();
+      }
+    } catch (IOException e) {
+      trace("Reading cached source map " + file + " failed: " + e.getMessage());
+      return null;
+    } catch (RuntimeException e) {
+      // A truncated or otherwise damaged file.
+      trace("Reading cached source map " + file + " failed: " + e);
+      return null;
+    }
+  }
+
+  private SourceMapSources readSources(File file, String key) {
+    try {
+      DataInputStream in = openHeader(file, key);
+
+      if (in == null) {
+        return null;
+      }
+
+      try {
+        readValidators(in);
+
+        in.readInt();
+        readString(in);
+
+        String sourceRoot = readString(in);
+        String[] sources = readStrings(in);
+
+        file.setLastModified(System.currentTimeMillis());
+
+        return new SourceMapSources(sourceRoot, sources);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      trace("Reading cached source map " + file + " failed: " + e.getMessage());
+      return null;
+    } catch (RuntimeException e) {
+      // A damaged file.
+      trace("Reading cached source map " + file + " failed: " + e);
+      return null;
+    }
+  }
+
+  private String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+
+    if (length == -1) {
+      return null;
+    }
+
+    byte[] bytes = new byte[length];
+
+    in.readFully(bytes);
+
+    return new String(bytes, "UTF-8");
+  }
+
+  private String[] readStrings(DataInputStream in) throws IOException {
+    String[] strings = new String[in.readInt()];
+
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = readString(in);
+    }
+
+    return strings;
+  }
+
+  private Validators readValidators(DataInputStream in) throws IOException {
+    Validators validators = new Validators();
+
+    validators.etag = readString(in);
+    validators.lastModified = readString(in);
+    validators.contentHash = readString(in);
+
+    return validators;
+  }
+
+  /**
+   * Returns the validators of the cache file if it is there and belongs to the given key.
+   */
+  private Validators readValidators(File file, String key) {
+    try {
+      DataInputStream in = openHeader(file, key);
+
+      if (in == null) {
+        return null;
+      }
+
+      try {
+        return readValidators(in);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      return null;
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  private void write(File file, String key, Validators validators, SourceMap map) {
+    File temp = null;
+
+    try {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("cannot create " + directory);
+      }
+
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(header);
+      SourceMapColumns mappings = map.getMappings();
+
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      writeString(out, key);
+      writeString(out, validators.etag);
+      writeString(out, validators.lastModified);
+      writeString(out, validators.contentHash);
+      out.writeInt(map.getVersion());
+      writeString(out, map.getFile());
+      writeString(out, map.getSourceRoot());
+      writeStrings(out, map.getSourceNames());
+      writeStrings(out, map.getNames());
+      out.writeInt(mappings.size);
+      out.writeInt(mappings.getLineCount());
+
+      while (out.size() % 4 != 0) {
+        out.writeByte(0);
+      }
+
+      out.flush();
+
+      temp = File.createTempFile("map", ".tmp", directory);
+
+      FileOutputStream stream = new FileOutputStream(temp);
+
+      try {
+        FileChannel channel = stream.getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        channel.write(ByteBuffer.wrap(header.toByteArray()));
+
+        writeInts(channel, buffer, mappings.generatedLine);
+        writeInts(channel, buffer, mappings.generatedColumn);
+        writeInts(channel, buffer, mappings.sourceIndex);
+        writeInts(channel, buffer, mappings.originalLine);
+        writeInts(channel, buffer, mappings.originalColumn);
+        writeInts(channel, buffer, mappings.nameIndex);
+        writeInts(channel, buffer, mappings.lineStarts);
+      } finally {
+        stream.close();
+      }
+
+      Files.move(
+          temp.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      temp = null;
+
+      if (isTracing()) {
+        trace("Cached source map " + map.getPath() + " in " + file);
+      }
+
+      synchronized (this) {
+        evict();
+      }
+    } catch (IOException e) {
+      // The cache is only an optimization.
+      trace("Caching source map " + map.getPath() + " failed: " + e.getMessage());
+    } finally {
+      if (temp != null) {
+        temp.delete();
+      }
+    }
+  }
+
+  private void writeInts(FileChannel channel, ByteBuffer buffer, int[] values) throws IOException {
+    buffer.clear();
+
+    IntBuffer ints = buffer.asIntBuffer();
+
+    for (int offset = 0; offset < values.length; offset += ints.capacity()) {
+      int length = Math.min(ints.capacity(), values.length - offset);
+
+      ints.clear();
+      ints.put(values, offset, length);
+
+      buffer.clear();
+      buffer.limit(length * 4);
+
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  private void writeString(DataOutputStream out, String string) throws IOException {
+    if (string == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = string.getBytes("UTF-8");
+
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+    out.writeInt(strings.length);
+
+    for (String string : strings) {
+      writeString(out, string);
+    }
+  }
+
+  private static byte[] digest(byte[] bytes) {
+    try {
+      return MessageDigest.getInstance("SHA-1").digest(bytes);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static boolean equals(String string1, String string2) {
+    return string1 == null ? string2 == null : string1.equals(string2);
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder builder = new StringBuilder(bytes.length * 2);
+
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+      builder.append(Character.forDigit(b & 0xf, 16));
+    }
+
+    return builder.toString();
+  }
+
+}
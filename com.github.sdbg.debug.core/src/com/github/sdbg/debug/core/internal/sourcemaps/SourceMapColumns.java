@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2013, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.sdbg.debug.core.internal.sourcemaps;
+
+/**
+ * The decoded "mappings" of a source map, stored as parallel int columns with one row per segment.
+ * <p>
+ * Rows are ordered by generated line and column. A segment maps the generated columns from its own
+ * column up to the column of the next segment on the same line, or to the end of the line if it
+ * is the last one. Segments without an original location have a source index of -1; they end the
+ * range of the segment before them without mapping anywhere themselves.
+ */
+class SourceMapColumns {
+  final int size;
+
+  final int[] generatedLine;
+  final int[] generatedColumn;
+
+  /**
+   * The index into the source map's sources, or -1 if the segment is unmapped.
+   */
+  final int[] sourceIndex;
+  final int[] originalLine;
+  final int[] originalColumn;
+
+  /**
+   * The index into the source map's names, or -1 if the segment has no name.
+   */
+  final int[] nameIndex;
+
+  /**
+   * The first row of every generated line; <code>lineStarts[lineCount]</code> is {@link #size}.
+   */
+  final int[] lineStarts;
+
+  SourceMapColumns(int size, int lineCount) {
+    this.size = size;
+
+    generatedLine = new int[size];
+    generatedColumn = new int[size];
+    sourceIndex = new int[size];
+    originalLine = new int[size];
+    originalColumn = new int[size];
+    nameIndex = new int[size];
+
+    lineStarts = new int[lineCount + 1];
+    lineStarts[lineCount] = size;
+  }
+
+  /**
+   * Returns the row whose range covers the given generated location, the first row of the line if
+   * the column lies before it, or -1 if the line has no segments.
+   */
+  int findRow(int line, int column) {
+    if (line < 0 || line >= getLineCount()) {
+      return -1;
+    }
+
+    int low = lineStarts[line];
+    int high = lineStarts[line + 1] - 1;
+
+    if (low > high) {
+      return -1;
+    }
+
+    int first = low;
+
+    // Find the last row at or before the column.
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+
+      if (generatedColumn[mid] <= column) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    return high < first ? first : high;
+  }
+
+  /**
+   * Returns the first mapped row of the given generated line, or -1 if there is none.
+   */
+  int findFirstMappedRow(int line) {
+    if (line < 0 || line >= getLineCount()) {
+      return -1;
+    }
+
+    for (int row = lineStarts[line]; row < lineStarts[line + 1]; row++) {
+      if (sourceIndex[row] != -1) {
+        return row;
+      }
+    }
+
+    return -1;
+  }
+
+  int getLineCount() {
+    return lineStarts.length - 1;
+  }
+
+  boolean isMapped(int row) {
+    return sourceIndex[row] != -1;
+  }
+
+}
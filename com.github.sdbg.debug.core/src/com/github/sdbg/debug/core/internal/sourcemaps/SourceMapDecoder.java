@@ -16,92 +16,353 @@ package com.github.sdbg.debug.core.internal.sourcemaps;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * Decodes the "mappings" string of a source map into {@link SourceMapColumns}.
+ * <p>
+ * The string is scanned once, straight into the columns, without splitting it or boxing the VLQ
+ * values. Large mappings are cut into chunks at segment boundaries which are decoded in parallel:
+ * the source, original line, original column and name fields are deltas that run through the
+ * whole string, so each chunk is decoded as if they started at zero and is shifted afterwards by
+ * the sums of the chunks before it.
+ */
 class SourceMapDecoder {
 
-  public static List<SourceMapInfoEntry> decode(String[] sources, String[] names, String mapStr) {
-    return new SourceMapDecoder(sources, names).decodeLines(mapStr);
+  /**
+   * Mappings shorter than this are decoded on the calling thread.
+   */
+  static final int PARALLEL_THRESHOLD = 1 << 20;
+
+  private static final int CHUNK_SIZE = 1 << 18;
+
+  /**
+   * Marks absent fields while chunks are still relative; never a valid delta sum in practice.
+   */
+  private static final int NONE = Integer.MIN_VALUE;
+
+  private static final int COUNT = 0;
+  private static final int DECODE = 1;
+  private static final int SHIFT = 2;
+
+  /**
+   * A range of the mappings string which starts at a ',' or ';' (or at the very beginning).
+   */
+  private static class Chunk {
+    private final String mappings;
+    private final int start;
+    private final int end;
+
+    private int position;
+
+    // Counted in the first pass; the offsets are the totals of the chunks before.
+    private int segments;
+    private int lineBreaks;
+    private int segmentOffset;
+    private int lineOffset;
+
+    // The segments before the first line break continue the generated column of the last chunk.
+    private int continuedSegments;
+
+    // The field values at the end of the chunk, relative to its start.
+    private int column;
+    private int source;
+    private int originalLine;
+    private int originalColumn;
+    private int name;
+
+    // The field values at the start of the chunk.
+    private int baseColumn;
+    private int baseSource;
+    private int baseOriginalLine;
+    private int baseOriginalColumn;
+    private int baseName;
+
+    Chunk(String mappings, int start, int end) {
+      this.mappings = mappings;
+      this.start = start;
+      this.end = end;
+    }
+
+    void count() {
+      boolean inSegment = false;
+
+      for (int i = start; i < end; i++) {
+        char c = mappings.charAt(i);
+
+        if (c == ';') {
+          lineBreaks++;
+          inSegment = false;
+        } else if (c == ',') {
+          inSegment = false;
+        } else if (!inSegment) {
+          segments++;
+          inSegment = true;
+        }
+      }
+    }
+
+    void decode(SourceMapColumns columns, int none) {
+      int row = segmentOffset;
+      int line = lineOffset;
+
+      continuedSegments = -1;
+      position = start;
+
+      while (position < end) {
+        char c = mappings.charAt(position);
+
+        if (c == ';') {
+          if (continuedSegments == -1) {
+            continuedSegments = row - segmentOffset;
+          }
+
+          line++;
+          column = 0;
+          columns.lineStarts[line] = row;
+          position++;
+        } else if (c == ',') {
+          position++;
+        } else {
+          int fields = 0;
+          int columnDelta = 0;
+          int sourceDelta = 0;
+          int originalLineDelta = 0;
+          int originalColumnDelta = 0;
+          int nameDelta = 0;
+
+          while (position < end && (c = mappings.charAt(position)) != ',' && c != ';') {
+            int value = nextValue();
+
+            switch (fields++) {
+              case 0:
+                columnDelta = value;
+                break;
+              case 1:
+                sourceDelta = value;
+                break;
+              case 2:
+                originalLineDelta = value;
+                break;
+              case 3:
+                originalColumnDelta = value;
+                break;
+              case 4:
+                nameDelta = value;
+                break;
+            }
+          }
+
+          column += columnDelta;
+
+          columns.generatedLine[row] = line;
+          columns.generatedColumn[row] = column;
+
+          if (fields >= 4) {
+            source += sourceDelta;
+            originalLine += originalLineDelta;
+            originalColumn += originalColumnDelta;
+
+            columns.sourceIndex[row] = source;
+            columns.originalLine[row] = originalLine;
+            columns.originalColumn[row] = originalColumn;
+
+            if (fields >= 5) {
+              name += nameDelta;
+              columns.nameIndex[row] = name;
+            } else {
+              columns.nameIndex[row] = none;
+            }
+          } else {
+            // Only a generated column: this ends the previous range without mapping anywhere.
+            columns.sourceIndex[row] = none;
+            columns.originalLine[row] = none;
+            columns.originalColumn[row] = none;
+            columns.nameIndex[row] = none;
+          }
+
+          row++;
+        }
+      }
+
+      if (continuedSegments == -1) {
+        continuedSegments = row - segmentOffset;
+      }
+    }
+
+    void shift(SourceMapColumns columns) {
+      int first = segmentOffset;
+      int last = segmentOffset + segments;
+
+      for (int row = first; row < first + continuedSegments; row++) {
+        columns.generatedColumn[row] += baseColumn;
+      }
+
+      for (int row = first; row < last; row++) {
+        if (columns.sourceIndex[row] == NONE) {
+          columns.sourceIndex[row] = -1;
+          columns.originalLine[row] = -1;
+          columns.originalColumn[row] = -1;
+          columns.nameIndex[row] = -1;
+        } else {
+          columns.sourceIndex[row] += baseSource;
+          columns.originalLine[row] += baseOriginalLine;
+          columns.originalColumn[row] += baseOriginalColumn;
+
+          if (columns.nameIndex[row] == NONE) {
+            columns.nameIndex[row] = -1;
+          } else {
+            columns.nameIndex[row] += baseName;
+          }
+        }
+      }
+    }
+
+    private int nextValue() {
+      int result = 0;
+      int shift = 0;
+      int digit;
+
+      do {
+        if (position == end) {
+          throw new IllegalArgumentException("truncated VLQ value at offset " + position);
+        }
+
+        digit = VlqDecoder.fromBase64(mappings.charAt(position++));
+        result += (digit & VlqDecoder.VLQ_BASE_MASK) << shift;
+        shift += VlqDecoder.VLQ_BASE_SHIFT;
+      } while ((digit & VlqDecoder.VLQ_CONTINUATION_BIT) != 0);
+
+      return VlqDecoder.fromVLQSigned(result);
+    }
   }
 
-  private String[] sources;
-  private String[] names;
+  private static class ChunkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Chunk[] chunks;
+    private final int from;
+    private final int to;
+    private final int pass;
+    private final SourceMapColumns columns;
 
-  private List<SourceMapInfoEntry> entries;
+    ChunkTask(Chunk[] chunks, int from, int to, int pass, SourceMapColumns columns) {
+      this.chunks = chunks;
+      this.from = from;
+      this.to = to;
+      this.pass = pass;
+      this.columns = columns;
+    }
 
-  int originalFileIndex = 0;
-  int originalLine = 0;
-  int originalColumn = 0;
-  int nameIndex = 0;
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        int mid = (from + to) >>> 1;
 
-  private SourceMapDecoder(String[] sources, String[] names) {
-    this.sources = sources;
-    this.names = names;
+        invokeAll(
+            new ChunkTask(chunks, from, mid, pass, columns),
+            new ChunkTask(chunks, mid, to, pass, columns));
+      } else if (pass == COUNT) {
+        chunks[from].count();
+      } else if (pass == DECODE) {
+        chunks[from].decode(columns, NONE);
+      } else {
+        chunks[from].shift(columns);
+      }
+    }
   }
 
-  List<SourceMapInfoEntry> decodeLines(String mapStr) {
+  /**
+   * Decodes the given mappings, in parallel on the common fork-join pool if they are large.
+   *
+   * @throws IllegalArgumentException if the mappings contain invalid VLQ data
+   */
+  public static SourceMapColumns decode(String mappings) {
     // In the given string, semi-colons demarcate lines and commas demarcate groups.
     // A;A;;;;;;;A;A;;A;A;A,mB,W,C,C,I,C,C;A,cAyVEA;AAAiB,QAAK,MAAFC
 
-    entries = new ArrayList<SourceMapInfoEntry>();
+    if (mappings.length() < PARALLEL_THRESHOLD) {
+      Chunk chunk = new Chunk(mappings, 0, mappings.length());
 
-    int lineNumber = 0;
+      chunk.count();
 
-    for (String line : mapStr.split(";")) {
-      if (line.length() > 0) {
-        decodeLine(line.split(","), lineNumber);
-      }
+      SourceMapColumns columns = new SourceMapColumns(chunk.segments, chunk.lineBreaks + 1);
+
+      chunk.decode(columns, -1);
 
-      lineNumber++;
+      return columns;
     }
 
-    return entries;
-  }
+    Chunk[] chunks = split(mappings);
+    ForkJoinPool pool = ForkJoinPool.commonPool();
 
-  private void decodeLine(String[] mappings, int line) {
-    int generatedColumn = 0;
+    pool.invoke(new ChunkTask(chunks, 0, chunks.length, COUNT, null));
 
-    SourceMapInfoEntry previousEntry = null;
+    int segments = 0;
+    int lineBreaks = 0;
 
-    for (String mapping : mappings) {
-      int[] indexes = VlqDecoder.decode(mapping);
+    for (Chunk chunk : chunks) {
+      chunk.segmentOffset = segments;
+      chunk.lineOffset = lineBreaks;
+      segments += chunk.segments;
+      lineBreaks += chunk.lineBreaks;
+    }
 
-      if (indexes.length == 1 || indexes.length == 4 || indexes.length == 5) {
-        generatedColumn += indexes[0];
+    SourceMapColumns columns = new SourceMapColumns(segments, lineBreaks + 1);
 
-        if (previousEntry != null) {
-          previousEntry.setEndColumn(generatedColumn);
-        }
+    pool.invoke(new ChunkTask(chunks, 0, chunks.length, DECODE, columns));
 
-        if (indexes.length < 4) {
-          continue;
-        }
+    int column = 0;
+    int source = 0;
+    int originalLine = 0;
+    int originalColumn = 0;
+    int name = 0;
 
-        originalFileIndex += indexes[1];
-        originalLine += indexes[2];
-        originalColumn += indexes[3];
+    for (Chunk chunk : chunks) {
+      chunk.baseColumn = column;
+      chunk.baseSource = source;
+      chunk.baseOriginalLine = originalLine;
+      chunk.baseOriginalColumn = originalColumn;
+      chunk.baseName = name;
 
-        String originalFile = getString(sources, originalFileIndex);
+      column = chunk.lineBreaks > 0 ? chunk.column : column + chunk.column;
+      source += chunk.source;
+      originalLine += chunk.originalLine;
+      originalColumn += chunk.originalColumn;
+      name += chunk.name;
+    }
 
-        SourceMapInfo info = new SourceMapInfo(originalFile, originalLine, originalColumn);
+    pool.invoke(new ChunkTask(chunks, 0, chunks.length, SHIFT, columns));
 
-        if (indexes.length > 4) {
-          nameIndex += indexes[4];
-          info.setName(getString(names, nameIndex));
-        }
+    return columns;
+  }
+
+  /**
+   * Cuts the mappings into chunks of about {@link #CHUNK_SIZE} characters, at ',' or ';' so that
+   * no segment is split. Single lines of minified code are split too.
+   */
+  private static Chunk[] split(String mappings) {
+    List<Chunk> chunks = new ArrayList<Chunk>();
+    int length = mappings.length();
+    int start = 0;
 
-        previousEntry = new SourceMapInfoEntry(line, generatedColumn, info);
+    while (start < length) {
+      int end = Math.min(start + CHUNK_SIZE, length);
 
-        entries.add(previousEntry);
+      while (end < length && mappings.charAt(end) != ',' && mappings.charAt(end) != ';') {
+        end++;
       }
+
+      chunks.add(new Chunk(mappings, start, end));
+      start = end;
     }
+
+    return chunks.toArray(new Chunk[chunks.size()]);
   }
 
-  private String getString(String[] strs, int index) {
-    if (index >= 0 && index < strs.length) {
-      return strs[index];
-    } else {
-      return null;
-    }
+  private SourceMapDecoder() {
+
   }
 
 }
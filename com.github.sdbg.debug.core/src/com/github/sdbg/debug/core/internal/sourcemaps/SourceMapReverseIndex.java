@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2013, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.sdbg.debug.core.internal.sourcemaps;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the generated locations of an original source line in O(log n).
+ * <p>
+ * The mapped rows of {@link SourceMapColumns} are kept sorted by source index, original line and
+ * then generated position, so all rows of one original line are adjacent. The sort is two stable
+ * counting sorts, linear in the number of rows.
+ */
+class SourceMapReverseIndex {
+  private static final int[] NO_ROWS = new int[0];
+
+  private final SourceMapColumns mappings;
+
+  /**
+   * The source indexes of every source name; the same name may appear more than once.
+   */
+  private final Map<String, int[]> sourceIndexes = new HashMap<String, int[]>();
+
+  /**
+   * The mapped rows, sorted by source index, original line and row.
+   */
+  private final int[] rows;
+
+  /**
+   * The first position in {@link #rows} of every source index.
+   */
+  private final int[] sourceStarts;
+
+  SourceMapReverseIndex(SourceMapColumns mappings, String[] sources) {
+    this.mappings = mappings;
+
+    for (int i = 0; i < sources.length; i++) {
+      int[] indexes = sourceIndexes.get(sources[i]);
+
+      if (indexes == null) {
+        indexes = new int[] {i};
+      } else {
+        indexes = Arrays.copyOf(indexes, indexes.length + 1);
+        indexes[indexes.length - 1] = i;
+      }
+
+      sourceIndexes.put(sources[i], indexes);
+    }
+
+    int count = 0;
+    int maxLine = 0;
+
+    for (int row = 0; row < mappings.size; row++) {
+      if (isIndexed(row, sources.length)) {
+        count++;
+        maxLine = Math.max(maxLine, mappings.originalLine[row]);
+      }
+    }
+
+    // Sort by original line, keeping the generated order ...
+    int[] lineCounts = new int[maxLine + 2];
+
+    for (int row = 0; row < mappings.size; row++) {
+      if (isIndexed(row, sources.length)) {
+        lineCounts[mappings.originalLine[row] + 1]++;
+      }
+    }
+
+    for (int i = 1; i < lineCounts.length; i++) {
+      lineCounts[i] += lineCounts[i - 1];
+    }
+
+    int[] byLine = new int[count];
+
+    for (int row = 0; row < mappings.size; row++) {
+      if (isIndexed(row, sources.length)) {
+        byLine[lineCounts[mappings.originalLine[row]]++] = row;
+      }
+    }
+
+    // ... then by source, keeping the line order.
+    sourceStarts = new int[sources.length + 1];
+
+    for (int row : byLine) {
+      sourceStarts[mappings.sourceIndex[row] + 1]++;
+    }
+
+    for (int i = 1; i < sourceStarts.length; i++) {
+      sourceStarts[i] += sourceStarts[i - 1];
+    }
+
+    int[] next = Arrays.copyOf(sourceStarts, sources.length);
+
+    rows = new int[count];
+
+    for (int row : byLine) {
+      rows[next[mappings.sourceIndex[row]]++] = row;
+    }
+  }
+
+  /**
+   * Returns the first row of every run of adjacent rows that map to the given line of the given
+   * source file, in generated order. Each run is one (possibly inlined) copy of the line.
+   */
+  int[] findRuns(String file, int line) {
+    int[] indexes = sourceIndexes.get(file);
+
+    if (indexes == null) {
+      return NO_ROWS;
+    }
+
+    int[] matches = NO_ROWS;
+
+    for (int source : indexes) {
+      int from = findFirst(source, line);
+      int to = from;
+
+      while (to < sourceStarts[source + 1] && mappings.originalLine[rows[to]] == line) {
+        to++;
+      }
+
+      if (to > from) {
+        int length = matches.length;
+
+        matches = Arrays.copyOf(matches, length + to - from);
+        System.arraycopy(rows, from, matches, length, to - from);
+      }
+    }
+
+    if (indexes.length > 1) {
+      Arrays.sort(matches);
+    }
+
+    int runs = 0;
+
+    for (int i = 0; i < matches.length; i++) {
+      if (i == 0 || matches[i] != matches[i - 1] + 1) {
+        matches[runs++] = matches[i];
+      }
+    }
+
+    return Arrays.copyOf(matches, runs);
+  }
+
+  /**
+   * Returns the position of the first row of the given source at or after the given line.
+   */
+  private int findFirst(int source, int line) {
+    int low = sourceStarts[source];
+    int high = sourceStarts[source + 1];
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (mappings.originalLine[rows[mid]] < line) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  private boolean isIndexed(int row, int sourceCount) {
+    int source = mappings.sourceIndex[row];
+
+    return source >= 0 && source < sourceCount && mappings.originalLine[row] >= 0;
+  }
+
+}
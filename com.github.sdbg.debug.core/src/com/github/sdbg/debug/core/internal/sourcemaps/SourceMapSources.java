@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2013, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.sdbg.debug.core.internal.sourcemaps;
+
+import com.github.sdbg.debug.core.internal.webkit.protocol.JsonPullParser;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IStorage;
+import org.eclipse.core.runtime.CoreException;
+import org.json.JSONException;
+
+/**
+ * The source root and sources of a source map, without its mappings.
+ * <p>
+ * Reading them streams over the map, skips everything else and stops once both are found, so it is
+ * much cheaper than {@link SourceMap#createFrom(IStorage)}; it is enough to tell which original
+ * files a map covers before deciding to load it.
+ *
+ * @see SourceMapCache#loadSources(IStorage)
+ */
+public class SourceMapSources {
+
+  public static SourceMapSources of(SourceMap map) {
+    return new SourceMapSources(map.getSourceRoot(), map.getSourceNames());
+  }
+
+  public static SourceMapSources read(IStorage storage) throws IOException, CoreException {
+    Reader reader;
+    if (storage instanceof IFile) {
+      reader = new InputStreamReader(storage.getContents(), ((IFile) storage).getCharset());
+    } else {
+      reader = new InputStreamReader(storage.getContents());
+    }
+
+    try {
+      return parse(readFully(reader));
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Normalizes the separators of the sources and prepends the source root to them, in place.
+   */
+  static void normalize(String sourceRoot, String[] sources) {
+    for (int i = 0; i < sources.length; i++) {
+      sources[i] = sources[i].replace('\\', '/');
+    }
+
+    if (sourceRoot != null && sourceRoot.length() > 0) {
+      for (int i = 0; i < sources.length; i++) {
+        sources[i] = sourceRoot + sources[i];
+      }
+    }
+  }
+
+  static String normalizeSourceRoot(String sourceRoot) {
+    return sourceRoot != null ? sourceRoot.replace('\\', '/') : null;
+  }
+
+  /**
+   * Parses the sources of the source map in the given text, which may start with the ")]}" XSSI
+   * prefix.
+   */
+  static SourceMapSources parse(CharBuffer text) throws IOException {
+    if (text.length() >= 3 && text.charAt(0) == ')' && text.charAt(1) == ']'
+        && text.charAt(2) == '}') {
+      text.position(text.position() + 3);
+    }
+
+    try {
+      return parse(new JsonPullParser(text));
+    } catch (JSONException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static SourceMapSources parse(JsonPullParser parser) throws JSONException {
+    String sourceRoot = null;
+    String[] sources = null;
+
+    parser.beginObject();
+
+    // The rest of the map, notably its mappings, is not needed once both are found.
+    while ((sourceRoot == null || sources == null) && parser.hasNext()) {
+      String name = parser.nextName();
+
+      if (name.equals("sourceRoot")) {
+        sourceRoot = parser.nextString();
+
+        if (sourceRoot == null) {
+          // As JSONObject.optString() in SourceMap.
+          sourceRoot = "";
+        }
+      } else if (name.equals("sources")) {
+        List<String> list = new ArrayList<String>();
+
+        parser.beginArray();
+
+        while (parser.hasNext()) {
+          String source = parser.nextString();
+
+          if (source == null) {
+            throw new JSONException("JSONArray[" + list.size() + "] is not a String.");
+          }
+
+          list.add(source);
+        }
+
+        parser.endArray();
+
+        sources = list.toArray(new String[list.size()]);
+      } else {
+        parser.skipValue();
+      }
+    }
+
+    if (sources == null) {
+      throw new JSONException("JSONObject[\"sources\"] not found.");
+    }
+
+    sourceRoot = normalizeSourceRoot(sourceRoot != null ? sourceRoot : "");
+    normalize(sourceRoot, sources);
+
+    return new SourceMapSources(sourceRoot, sources);
+  }
+
+  /**
+   * Reads all the characters into a buffer which {@link JsonPullParser} can parse without copying
+   * them again.
+   */
+  private static CharBuffer readFully(Reader reader) throws IOException {
+    char[] buffer = new char[8192];
+    int length = 0;
+
+    int count = reader.read(buffer, 0, buffer.length);
+
+    while (count != -1) {
+      length += count;
+
+      if (length == buffer.length) {
+        buffer = Arrays.copyOf(buffer, length * 2);
+      }
+
+      count = reader.read(buffer, length, buffer.length - length);
+    }
+
+    return CharBuffer.wrap(buffer, 0, length);
+  }
+
+  private final String sourceRoot;
+
+  private final String[] sourceNames;
+
+  SourceMapSources(String sourceRoot, String[] sourceNames) {
+    this.sourceRoot = sourceRoot;
+    this.sourceNames = sourceNames;
+  }
+
+  /**
+   * The sources, with the source root already prepended, as {@link SourceMap#getSourceNames()}.
+   */
+  public String[] getSourceNames() {
+    return sourceNames;
+  }
+
+  public String getSourceRoot() {
+    return sourceRoot;
+  }
+
+}
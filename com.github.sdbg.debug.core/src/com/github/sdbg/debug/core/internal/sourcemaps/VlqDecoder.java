@@ -14,9 +14,7 @@
 
 package com.github.sdbg.debug.core.internal.sourcemaps;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * A class to convert to and from base64 vlq encoded strings.
@@ -25,14 +23,14 @@ import java.util.List;
  */
 public class VlqDecoder {
   // A Base64 VLQ digit can represent 5 bits, so it is base-32.
-  private static final int VLQ_BASE_SHIFT = 5;
+  static final int VLQ_BASE_SHIFT = 5;
   private static final int VLQ_BASE = 1 << VLQ_BASE_SHIFT;
 
   // A mask of bits for a VLQ digit (11111), 31 decimal.
-  private static final int VLQ_BASE_MASK = VLQ_BASE - 1;
+  static final int VLQ_BASE_MASK = VLQ_BASE - 1;
 
   // The continuation bit is the 6th bit.
-  private static final int VLQ_CONTINUATION_BIT = VLQ_BASE;
+  static final int VLQ_CONTINUATION_BIT = VLQ_BASE;
 
   /**
    * A map used to convert integer values in the range 0-63 to their base64 values.
@@ -43,7 +41,7 @@ public class VlqDecoder {
   /**
    * A map used to convert base64 character into integer values.
    */
-  private static final int[] BASE64_DECODE_MAP = new int[256];
+  private static final int[] BASE64_DECODE_MAP = new int[128];
 
   static {
     Arrays.fill(BASE64_DECODE_MAP, -1);
@@ -60,11 +58,20 @@ public class VlqDecoder {
    * @return
    */
   public static int[] decode(String str) {
-    List<Integer> results = new ArrayList<Integer>();
-    int i = 0;
     int strLen = str.length();
+    int count = 0;
+
+    // Every value ends with the one digit that has no continuation bit.
+    for (int i = 0; i < strLen; i++) {
+      if ((fromBase64(str.charAt(i)) & VLQ_CONTINUATION_BIT) == 0) {
+        count++;
+      }
+    }
+
+    int[] array = new int[count];
+    int i = 0;
 
-    while (i < strLen) {
+    for (int index = 0; index < count; index++) {
       int result = 0;
       boolean continuation;
       int shift = 0;
@@ -78,12 +85,7 @@ public class VlqDecoder {
         shift = shift + VLQ_BASE_SHIFT;
       } while (continuation);
 
-      results.add(fromVLQSigned(result));
-    }
-
-    int[] array = new int[results.size()];
-    for (i = 0; i < results.size(); i++) {
-      array[i] = results.get(i);
+      array[index] = fromVLQSigned(result);
     }
 
     return array;
@@ -113,8 +115,14 @@ public class VlqDecoder {
     return builder.toString();
   }
 
-  private static int fromBase64(char c) {
-    return BASE64_DECODE_MAP[c];
+  static int fromBase64(char c) {
+    int digit = c < BASE64_DECODE_MAP.length ? BASE64_DECODE_MAP[c] : -1;
+
+    if (digit == -1) {
+      throw new IllegalArgumentException("invalid base64 VLQ character '" + c + "'");
+    }
+
+    return digit;
   }
 
   /**
@@ -122,7 +130,7 @@ public class VlqDecoder {
    * significant bit. For example, as decimals: 2 (10 binary) becomes 1, 3 (11 binary) becomes -1 4
    * (100 binary) becomes 2, 5 (101 binary) becomes -2
    */
-  private static int fromVLQSigned(int value) {
+  static int fromVLQSigned(int value) {
     boolean negate = (value & 1) == 1;
     value = value >> 1;
     return negate ? -value : value;
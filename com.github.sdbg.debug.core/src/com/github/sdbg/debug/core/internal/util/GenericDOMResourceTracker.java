@@ -94,6 +94,10 @@ public class GenericDOMResourceTracker implements ResourceChangeParticipant, IDO
   public void handleFileRemoved(IFile file) {
   }
 
+  @Override
+  public void handleProjectChanged(IProject project) {
+  }
+
   @Override
   public void initialize(IProject project, IDOMResources domResources) {
     this.domResources = domResources;
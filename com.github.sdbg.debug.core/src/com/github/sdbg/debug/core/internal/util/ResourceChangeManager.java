@@ -17,6 +17,7 @@ package com.github.sdbg.debug.core.internal.util;
 import com.github.sdbg.debug.core.SDBGDebugCorePlugin;
 
 import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceChangeEvent;
 import org.eclipse.core.resources.IResourceChangeListener;
@@ -25,8 +26,8 @@ import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A class to make listening for resource change events easier.
@@ -55,7 +56,12 @@ public class ResourceChangeManager implements IResourceChangeListener {
     }
   }
 
-  private List<ResourceChangeParticipant> listeners = new ArrayList<ResourceChangeParticipant>();
+  /**
+   * Participants register from any thread, while events arrive on the thread changing the
+   * workspace.
+   */
+  private List<ResourceChangeParticipant> listeners =
+      new CopyOnWriteArrayList<ResourceChangeParticipant>();
 
   private ResourceChangeManager() {
     ResourcesPlugin.getWorkspace().addResourceChangeListener(this);
@@ -91,6 +97,13 @@ public class ResourceChangeManager implements IResourceChangeListener {
             } else if (delta.getKind() == IResourceDelta.REMOVED) {
               notifyRemoved(file);
             }
+          } else if (resource instanceof IProject) {
+            IProject project = (IProject) resource;
+
+            if (delta.getKind() != IResourceDelta.CHANGED
+                || (delta.getFlags() & IResourceDelta.OPEN) != 0) {
+              notifyProjectChanged(project);
+            }
           }
 
           return true;
@@ -131,6 +144,16 @@ public class ResourceChangeManager implements IResourceChangeListener {
     }
   }
 
+  protected void notifyProjectChanged(IProject project) {
+    for (ResourceChangeParticipant participant : listeners) {
+      try {
+        participant.handleProjectChanged(project);
+      } catch (Throwable t) {
+        SDBGDebugCorePlugin.logError(t);
+      }
+    }
+  }
+
   private void dispose() {
     ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
   }
@@ -15,6 +15,7 @@
 package com.github.sdbg.debug.core.internal.util;
 
 import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
 
 /**
  * A listener to resource change events.
@@ -29,4 +30,10 @@ public interface ResourceChangeParticipant {
 
   public void handleFileRemoved(IFile file);
 
+  /**
+   * Called when a project is added, removed, opened or closed. The files of a project which is
+   * opened or closed are not reported individually.
+   */
+  public void handleProjectChanged(IProject project);
+
 }
@@ -85,6 +85,11 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
 
     }
 
+    @Override
+    public boolean hasBreakpointsConcerningScript(IStorage script) {
+      return false;
+    }
+
     @Override
     public void removeBreakpointsConcerningScript(IStorage script) {
 
@@ -101,6 +106,26 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
 
   private List<IBreakpoint> ignoredBreakpoints = new ArrayList<IBreakpoint>();
 
+  /**
+   * The breakpoints by the id of every browser breakpoint set for them. Guarded by
+   * breakpointToIdMap, like the maps below.
+   */
+  private Map<String, IBreakpoint> idToBreakpointMap = new HashMap<String, IBreakpoint>();
+
+  /**
+   * The ids of the browser breakpoints by the script id and line they resolved to.
+   */
+  private Map<String, String> resolvedLocationToIdMap = new HashMap<String, String>();
+
+  /**
+   * The line breakpoints by their url and line, for pauses at breakpoints which did not resolve.
+   * The index is only added to while the breakpoints exist; lookups skip the stale entries.
+   */
+  private Map<String, List<IBreakpoint>> urlLineToBreakpointsMap =
+      new HashMap<String, List<IBreakpoint>>();
+
+  private Map<IBreakpoint, String> breakpointToUrlLineMap = new HashMap<IBreakpoint, String>();
+
   static synchronized Collection<IBreakpointPathResolver> getBreakpointPathResolvers() {
     if (breakpointPathResolvers == null) {
       breakpointPathResolvers = new ArrayList<IBreakpointPathResolver>();
@@ -138,6 +163,8 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
   @Override
   public void breakpointAdded(IBreakpoint breakpoint) {
     if (debugTarget.supportsBreakpoint(breakpoint)) {
+      indexBreakpoint(breakpoint);
+
       try {
         addBreakpoint(breakpoint);
       } catch (IOException exception) {
@@ -168,12 +195,26 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
   @Override
   public void breakpointRemoved(IBreakpoint breakpoint, IMarkerDelta delta) {
     if (debugTarget.supportsBreakpoint(breakpoint)) {
-      List<String> breakpointIds = breakpointToIdMap.remove(breakpoint);
+      List<String> breakpointIds;
+
+      synchronized (breakpointToIdMap) {
+        breakpointIds = breakpointToIdMap.remove(breakpoint);
+
+        // Without a delta the breakpoint is only being removed from the browser, e.g. to be
+        // added again for a reloaded script.
+        if (delta != null) {
+          unindexBreakpoint(breakpoint);
+        }
+      }
 
       if (breakpointIds != null) {
         for (String breakpointId : breakpointIds) {
           breakpointsToUpdateMap.remove(breakpointId);
 
+          synchronized (breakpointToIdMap) {
+            idToBreakpointMap.remove(breakpointId);
+          }
+
           try {
             debugTarget.getWebkitConnection().getDebugger().removeBreakpoint(breakpointId);
           } catch (IOException exception) {
@@ -191,6 +232,7 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
     IBreakpoint[] breakpoints = DebugPlugin.getDefault().getBreakpointManager().getBreakpoints();
     for (IBreakpoint breakpoint : breakpoints) {
       if (debugTarget.supportsBreakpoint(breakpoint)) {
+        indexBreakpoint(breakpoint);
         addBreakpoint(breakpoint);
       }
     }
@@ -222,11 +264,24 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
     }
   }
 
+  /**
+   * Finds the breakpoint the debugger paused at, without going through all breakpoints: first by
+   * the location a browser breakpoint resolved to, then by the url and line of the breakpoint.
+   */
   @Override
   public IBreakpoint getBreakpointFor(WebkitLocation location) {
     try {
-      IBreakpoint[] breakpoints = DebugPlugin.getDefault().getBreakpointManager().getBreakpoints(
-          SDBGDebugCorePlugin.DEBUG_MODEL_ID);
+      String id;
+      IBreakpoint resolvedBreakpoint;
+
+      synchronized (breakpointToIdMap) {
+        id = resolvedLocationToIdMap.get(location.getScriptId() + "#" + location.getLineNumber());
+        resolvedBreakpoint = id != null ? idToBreakpointMap.get(id) : null;
+      }
+
+      if (resolvedBreakpoint != null && exists(resolvedBreakpoint)) {
+        return resolvedBreakpoint;
+      }
 
       ScriptDescriptor script = debugTarget.getWebkitConnection().getDebugger().getScript(
           location.getScriptId());
@@ -235,30 +290,18 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
         return null;
       }
 
-      String url = script.getUrl();
       int line = WebkitLocation.webkitToElipseLine(location.getLineNumber());
+      List<IBreakpoint> candidates;
 
-      for (IBreakpoint bp : breakpoints) {
-        if (debugTarget.supportsBreakpoint(bp) && bp instanceof ILineBreakpoint) {
-          ILineBreakpoint breakpoint = (ILineBreakpoint) bp;
-
-          if (breakpoint.getLineNumber() == line) {
-            String bpUrl = null;
-            if (breakpoint instanceof SDBGBreakpoint) {
-              SDBGBreakpoint sdbgBreakpoint = (SDBGBreakpoint) breakpoint;
-              IFile file = sdbgBreakpoint.getFile();
-              if (file != null) {
-                bpUrl = getResourceResolver().getUrlForResource(file);
-              } else {
-                bpUrl = sdbgBreakpoint.getFilePath();
-              }
-            } else {
-              bpUrl = getResourceResolver().getUrlForResource(breakpoint.getMarker().getResource());
-            }
+      synchronized (breakpointToIdMap) {
+        candidates = urlLineToBreakpointsMap.get(script.getUrl() + "#" + line);
+        candidates = candidates != null ? new ArrayList<IBreakpoint>(candidates) : null;
+      }
 
-            if (bpUrl != null && bpUrl.equals(url)) {
-              return breakpoint;
-            }
+      if (candidates != null) {
+        for (IBreakpoint breakpoint : candidates) {
+          if (exists(breakpoint) && ((ILineBreakpoint) breakpoint).getLineNumber() == line) {
+            return breakpoint;
           }
         }
       }
@@ -289,6 +332,21 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
           debugTarget.writeToStdout(message);
 
           breakpoint.getMarker().setAttribute(IMarker.LINE_NUMBER, eclipseLine);
+
+          // The change event for the new line is ignored, so move the breakpoint in the index here.
+          indexBreakpoint(breakpoint);
+        }
+      }
+
+      // Called for the locations in the setBreakpointByUrl response as well as for later events;
+      // the response callback has added the id by then.
+      synchronized (breakpointToIdMap) {
+        if (idToBreakpointMap.containsKey(webkitBreakpoint.getBreakpointId())) {
+          WebkitLocation location = webkitBreakpoint.getLocation();
+
+          resolvedLocationToIdMap.put(
+              location.getScriptId() + "#" + location.getLineNumber(),
+              webkitBreakpoint.getBreakpointId());
         }
       }
     } catch (CoreException e) {
@@ -298,6 +356,11 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
 
   @Override
   public void handleGlobalObjectCleared() {
+    // The scripts are gone, and with them the locations the breakpoints resolved to.
+    synchronized (breakpointToIdMap) {
+      resolvedLocationToIdMap.clear();
+    }
+
     for (IBreakpoint breakpoint : new ArrayList<IBreakpoint>(breakpointToIdMap.keySet())) {
       if (!isJSBreakpoint(breakpoint)) {
         // This excercise is necessary so that the V8 breakpoints are removed 
@@ -308,6 +371,25 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
     }
   }
 
+  /**
+   * Returns true if a source mapped breakpoint targets one of the sources of the script's source
+   * map. Unlike the other methods this may be called on any thread, as it asks the platform's
+   * breakpoint manager for the breakpoints instead of using the maps of this manager.
+   */
+  @Override
+  public boolean hasBreakpointsConcerningScript(IStorage script) {
+    SourceMapManager sourceMapManager = debugTarget.getSourceMapManager();
+    IBreakpoint[] breakpoints = DebugPlugin.getDefault().getBreakpointManager().getBreakpoints();
+    for (IBreakpoint breakpoint : breakpoints) {
+      if (debugTarget.supportsBreakpoint(breakpoint) && !isJSBreakpoint(breakpoint)
+          && sourceMapManager.isMapTarget(script, getBreakpointPath(breakpoint))) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   @Override
   public void removeBreakpointsConcerningScript(IStorage script) {
     SourceMapManager sourceMapManager = debugTarget.getSourceMapManager();
@@ -405,6 +487,7 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
 
       if (id != null) {
         breakpointToIdMap.get(breakpoint).add(id);
+        idToBreakpointMap.put(id, breakpoint);
 
         if (trackChanges) {
           breakpointsToUpdateMap.put(id, breakpoint);
@@ -413,6 +496,14 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
     }
   }
 
+  /**
+   * Returns true if the breakpoint is still registered, i.e. index entries for it are not stale.
+   */
+  private boolean exists(IBreakpoint breakpoint) throws CoreException {
+    return breakpoint.getMarker() != null && breakpoint.getMarker().exists()
+        && breakpoint.isRegistered();
+  }
+
   private String getBreakpointPath(IBreakpoint bp) {
     String path = null;
     for (IBreakpointPathResolver resolver : getBreakpointPathResolvers()) {
@@ -444,14 +535,86 @@ public class BreakpointManager implements IBreakpointListener, ISDBGBreakpointMa
     return path;
   }
 
+  /**
+   * The url the browser loads the file of the breakpoint from.
+   */
+  private String getBreakpointUrl(ILineBreakpoint breakpoint) {
+    if (breakpoint instanceof SDBGBreakpoint) {
+      SDBGBreakpoint sdbgBreakpoint = (SDBGBreakpoint) breakpoint;
+      IFile file = sdbgBreakpoint.getFile();
+      if (file != null) {
+        return getResourceResolver().getUrlForResource(file);
+      } else {
+        return sdbgBreakpoint.getFilePath();
+      }
+    } else {
+      return getResourceResolver().getUrlForResource(breakpoint.getMarker().getResource());
+    }
+  }
+
   private IResourceResolver getResourceResolver() {
     return debugTarget.getResourceResolver();
   }
 
+  /**
+   * Adds the breakpoint to the url and line index, or moves it there if it was indexed before.
+   */
+  private void indexBreakpoint(IBreakpoint breakpoint) {
+    if (!(breakpoint instanceof ILineBreakpoint)) {
+      return;
+    }
+
+    String url;
+    int line;
+
+    try {
+      url = getBreakpointUrl((ILineBreakpoint) breakpoint);
+      line = ((ILineBreakpoint) breakpoint).getLineNumber();
+    } catch (CoreException e) {
+      return;
+    }
+
+    synchronized (breakpointToIdMap) {
+      unindexBreakpoint(breakpoint);
+
+      if (url != null) {
+        String key = url + "#" + line;
+        List<IBreakpoint> breakpoints = urlLineToBreakpointsMap.get(key);
+
+        if (breakpoints == null) {
+          breakpoints = new ArrayList<IBreakpoint>(1);
+          urlLineToBreakpointsMap.put(key, breakpoints);
+        }
+
+        breakpoints.add(breakpoint);
+        breakpointToUrlLineMap.put(breakpoint, key);
+      }
+    }
+  }
+
   private boolean isJSBreakpoint(IBreakpoint breakpoint) {
     return breakpoint instanceof SDBGBreakpoint; // TODO: Extend IBreakpointPathResolver so that it has a say on that as well 
   }
 
+  /**
+   * Called while holding the lock on breakpointToIdMap.
+   */
+  private void unindexBreakpoint(IBreakpoint breakpoint) {
+    String key = breakpointToUrlLineMap.remove(breakpoint);
+
+    if (key != null) {
+      List<IBreakpoint> breakpoints = urlLineToBreakpointsMap.get(key);
+
+      if (breakpoints != null) {
+        breakpoints.remove(breakpoint);
+
+        if (breakpoints.isEmpty()) {
+          urlLineToBreakpointsMap.remove(key);
+        }
+      }
+    }
+  }
+
   private void trace(String message) {
     Trace.trace(Trace.BREAKPOINTS, message);
   }
@@ -22,5 +22,7 @@ interface ISDBGBreakpointManager {
 
   public void handleGlobalObjectCleared();
 
+  public boolean hasBreakpointsConcerningScript(IStorage script);
+
   public void removeBreakpointsConcerningScript(IStorage script);
 }
\ No newline at end of file
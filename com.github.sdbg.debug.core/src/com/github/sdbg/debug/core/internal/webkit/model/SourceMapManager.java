@@ -17,7 +17,9 @@ package com.github.sdbg.debug.core.internal.webkit.model;
 import com.github.sdbg.debug.core.SDBGDebugCorePlugin;
 import com.github.sdbg.debug.core.internal.source.WorkspaceSourceContainer;
 import com.github.sdbg.debug.core.internal.sourcemaps.SourceMap;
+import com.github.sdbg.debug.core.internal.sourcemaps.SourceMapCache;
 import com.github.sdbg.debug.core.internal.sourcemaps.SourceMapInfo;
+import com.github.sdbg.debug.core.internal.sourcemaps.SourceMapSources;
 import com.github.sdbg.debug.core.internal.util.URLStorage;
 import com.github.sdbg.debug.core.model.IResourceResolver;
 import com.github.sdbg.debug.core.util.Trace;
@@ -32,17 +34,24 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IStorage;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.URIUtil;
+import org.eclipse.core.runtime.jobs.Job;
 
 // TODO(devoncarew): use the symbol name information in the maps?
 // it's possible this will help us de-mangle the method names for frames
@@ -100,90 +109,224 @@ public class SourceMapManager {
     }
   }
 
-  private static class TargetPathCheckingVisitor implements Visitor {
-    private String targetPath;
-    private boolean stopOnInexactMatch;
+  /**
+   * Notified, on the thread of the background job, when the sources of a lazily loaded source map
+   * become known.
+   * 
+   * @see SourceMapManager#enableLazyLoading(SourcesListener)
+   */
+  public static interface SourcesListener {
+    void sourcesLoaded(IStorage script);
+  }
 
-    private IStorage matchingScriptStorage;
-    private IStorage matchingSourceMapStorage;
-    private SourceMap matchingSourceMap;
-    private String matchingSourcePath;
+  /**
+   * A parsed script whose source map has not been loaded yet.
+   */
+  private static class PendingScript {
+    final String scriptUrl;
+    final String sourceMapUrl;
 
-    public TargetPathCheckingVisitor(String targetPath) {
-      this(targetPath, false);
+    PendingScript(String scriptUrl, String sourceMapUrl) {
+      this.scriptUrl = scriptUrl;
+      this.sourceMapUrl = sourceMapUrl;
     }
+  }
 
-    public TargetPathCheckingVisitor(String targetPath, boolean stopOnInexactMatch) {
-      this.targetPath = targetPath;
-      this.stopOnInexactMatch = stopOnInexactMatch;
+  /**
+   * The loaded source maps. A snapshot is never changed; loading a map publishes a new one, so
+   * lookups need no locking.
+   */
+  private static class Snapshot {
+    static final Snapshot EMPTY = new Snapshot(
+        Collections.<IStorage, IStorage> emptyMap(),
+        Collections.<IStorage, SourceMap> emptyMap(),
+        Collections.<String, IStorage> emptyMap(),
+        Collections.<IStorage, SourceMapSources> emptyMap(),
+        Collections.<IStorage, PendingScript> emptyMap(),
+        SourcePathIndex.EMPTY);
+
+    /**
+     * Script storage ==> source map storage.
+     */
+    final Map<IStorage, IStorage> sourceMapsStorages;
+
+    /**
+     * Source map storage ==> source map.
+     */
+    final Map<IStorage, SourceMap> sourceMaps;
+
+    /**
+     * Script URL ==> script storage.
+     */
+    final Map<String, IStorage> storageMaps;
+
+    /**
+     * Script storage ==> the sources which are in the index for it.
+     */
+    final Map<IStorage, SourceMapSources> indexedSources;
+
+    /**
+     * Script storage ==> the script, if its source map has not been loaded yet.
+     */
+    final Map<IStorage, PendingScript> pendingScripts;
+
+    final SourcePathIndex sourcePaths;
+
+    Snapshot(Map<IStorage, IStorage> sourceMapsStorages, Map<IStorage, SourceMap> sourceMaps,
+        Map<String, IStorage> storageMaps, Map<IStorage, SourceMapSources> indexedSources,
+        Map<IStorage, PendingScript> pendingScripts, SourcePathIndex sourcePaths) {
+      this.sourceMapsStorages = sourceMapsStorages;
+      this.sourceMaps = sourceMaps;
+      this.storageMaps = storageMaps;
+      this.indexedSources = indexedSources;
+      this.pendingScripts = pendingScripts;
+      this.sourcePaths = sourcePaths;
     }
 
-    public IStorage getMatchingScriptStorage() {
-      return matchingScriptStorage;
-    }
+    Snapshot withoutScript(IStorage script) {
+      if (!sourceMapsStorages.containsKey(script) && !indexedSources.containsKey(script)
+          && !pendingScripts.containsKey(script)) {
+        return this;
+      }
 
-    public SourceMap getMatchingSourceMap() {
-      return matchingSourceMap;
+      Map<IStorage, IStorage> newSourceMapsStorages = new HashMap<IStorage, IStorage>(
+          sourceMapsStorages);
+      Map<IStorage, SourceMapSources> newIndexedSources = new HashMap<IStorage, SourceMapSources>(
+          indexedSources);
+      Map<IStorage, PendingScript> newPendingScripts = new HashMap<IStorage, PendingScript>(
+          pendingScripts);
+
+      newSourceMapsStorages.remove(script);
+      newPendingScripts.remove(script);
+
+      SourceMapSources indexed = newIndexedSources.remove(script);
+
+      return new Snapshot(
+          newSourceMapsStorages,
+          sourceMaps,
+          storageMaps,
+          newIndexedSources,
+          newPendingScripts,
+          indexed != null ? sourcePaths.remove(script, indexed) : sourcePaths);
     }
 
-    public IStorage getMatchingSourceMapStorage() {
-      return matchingSourceMapStorage;
+    Snapshot withPendingScript(IStorage script, PendingScript pending) {
+      Map<String, IStorage> newStorageMaps = new HashMap<String, IStorage>(storageMaps);
+      Map<IStorage, PendingScript> newPendingScripts = new HashMap<IStorage, PendingScript>(
+          pendingScripts);
+
+      newStorageMaps.put(pending.scriptUrl, script);
+      newPendingScripts.put(script, pending);
+
+      return new Snapshot(
+          sourceMapsStorages,
+          sourceMaps,
+          newStorageMaps,
+          indexedSources,
+          newPendingScripts,
+          sourcePaths);
     }
 
-    public String getMatchingSourcePath() {
-      return matchingSourcePath;
+    /**
+     * Indexes the sources of a pending script's source map, without the map itself.
+     */
+    Snapshot withPrefetchedSources(IStorage script, PendingScript pending, IStorage mapStorage,
+        SourceMapSources sources) {
+      Map<IStorage, SourceMapSources> newIndexedSources = new HashMap<IStorage, SourceMapSources>(
+          indexedSources);
+      Map<IStorage, PendingScript> newPendingScripts = new HashMap<IStorage, PendingScript>(
+          pendingScripts);
+
+      newPendingScripts.put(script, pending);
+
+      SourceMapSources indexed = newIndexedSources.put(script, sources);
+      SourcePathIndex newSourcePaths = indexed != null ? sourcePaths.remove(script, indexed)
+          : sourcePaths;
+
+      return new Snapshot(
+          sourceMapsStorages,
+          sourceMaps,
+          storageMaps,
+          newIndexedSources,
+          newPendingScripts,
+          newSourcePaths.add(script, mapStorage, sources, null));
     }
 
-    @Override
-    public String toString() {
-      return "[Script: " + matchingScriptStorage + ", Source map: " + matchingSourceMapStorage
-          + ", Source path: " + matchingSourcePath + "]";
-    }
-
-    @Override
-    public boolean visit(IStorage scriptStorage, IStorage sourceMapStorage, SourceMap sourceMap,
-        String sourcePath) {
-      String sourceRoot = sourceMap.getSourceRoot();
-      String relativePath = sourceRoot != null && sourceRoot.length() > 0
-          ? sourcePath.substring(sourceRoot.length()) : sourcePath;
-      if (relativePath.endsWith(targetPath)) {
-        if (matchingSourcePath == null || matchingSourcePath.length() > sourcePath.length()) {
-          matchingSourcePath = sourcePath;
-          matchingSourceMap = sourceMap;
-          matchingSourceMapStorage = sourceMapStorage;
-          matchingScriptStorage = scriptStorage;
-
-          if (stopOnInexactMatch || relativePath.length() == targetPath.length()) {
-            trace();
-            return true;
-          }
-        }
+    Snapshot withScript(IStorage script, String scriptUrl, IStorage mapStorage, SourceMap map) {
+      Map<IStorage, IStorage> newSourceMapsStorages = new HashMap<IStorage, IStorage>(
+          sourceMapsStorages);
+      Map<IStorage, SourceMap> newSourceMaps = new HashMap<IStorage, SourceMap>(sourceMaps);
+      Map<String, IStorage> newStorageMaps = new HashMap<String, IStorage>(storageMaps);
+      Map<IStorage, SourceMapSources> newIndexedSources = new HashMap<IStorage, SourceMapSources>(
+          indexedSources);
+      Map<IStorage, PendingScript> newPendingScripts = pendingScripts;
+
+      newSourceMapsStorages.put(script, mapStorage);
+      newSourceMaps.put(mapStorage, map);
+      newStorageMaps.put(scriptUrl, script);
+
+      if (pendingScripts.containsKey(script)) {
+        newPendingScripts = new HashMap<IStorage, PendingScript>(pendingScripts);
+        newPendingScripts.remove(script);
       }
 
-      trace();
-      return false;
+      SourceMapSources sources = SourceMapSources.of(map);
+      SourceMapSources indexed = newIndexedSources.put(script, sources);
+      SourcePathIndex newSourcePaths = indexed != null ? sourcePaths.remove(script, indexed)
+          : sourcePaths;
+
+      return new Snapshot(
+          newSourceMapsStorages,
+          newSourceMaps,
+          newStorageMaps,
+          newIndexedSources,
+          newPendingScripts,
+          newSourcePaths.add(script, mapStorage, sources, map));
     }
 
-    private void trace() {
-      if (isTracing()) {
-        if (matchingSourcePath != null) {
-          SourceMapManager.trace("Match: " + toString());
-        } else {
-          SourceMapManager.trace("No match");
-        }
-      }
+    Snapshot withoutSourceMaps() {
+      return new Snapshot(
+          Collections.<IStorage, IStorage> emptyMap(),
+          Collections.<IStorage, SourceMap> emptyMap(),
+          storageMaps,
+          Collections.<IStorage, SourceMapSources> emptyMap(),
+          Collections.<IStorage, PendingScript> emptyMap(),
+          SourcePathIndex.EMPTY);
     }
   }
 
-  private static interface Visitor {
-    boolean visit(IStorage scriptStorage, IStorage mapStorage, SourceMap map, String path);
-  }
-
   private IResourceResolver resourceResolver;
 
-  private Map<IStorage, IStorage> sourceMapsStorages = new HashMap<IStorage, IStorage>();
-  private Map<IStorage, SourceMap> sourceMaps = new HashMap<IStorage, SourceMap>();
-  private Map<String, IStorage> storageMaps = new HashMap<String, IStorage>();
+  /**
+   * Replaced, never changed, while holding the lock on this manager.
+   */
+  private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+  /**
+   * Non-null if source maps are loaded lazily.
+   */
+  private SourcesListener sourcesListener;
+
+  /**
+   * The pending scripts whose sources are yet to be read, guarded by the lock on this manager.
+   * Scripts whose maps were needed before come first.
+   */
+  private final LinkedList<IStorage> prefetchQueue = new LinkedList<IStorage>();
+
+  /**
+   * The pending scripts whose maps are to be loaded in the background, ahead of the prefetching of
+   * sources; guarded by the lock on this manager.
+   */
+  private final LinkedList<IStorage> loadQueue = new LinkedList<IStorage>();
+
+  /**
+   * The URLs of the scripts whose maps have been loaded, i.e. a breakpoint, a pause or the user
+   * needed them. Kept across page reloads, to prefetch the sources of those maps first. Guarded by
+   * the lock on this manager.
+   */
+  private final Set<String> loadedScriptUrls = new HashSet<String>();
+
+  private Job prefetchJob;
 
   static boolean isTracing() {
     return Trace.isTracing(Trace.SOURCEMAPS);
@@ -197,7 +340,60 @@ public class SourceMapManager {
     this.resourceResolver = resourceResolver;
   }
 
-  public void dispose() {
+  public synchronized void dispose() {
+    prefetchQueue.clear();
+    loadQueue.clear();
+
+    if (prefetchJob != null) {
+      prefetchJob.cancel();
+    }
+  }
+
+  /**
+   * Makes {@link #handleScriptParsed(IStorage, String, String)} only record the source map URL of a
+   * script. A background job then reads just the sources of the map, so the map can be found by the
+   * paths of its sources, and notifies the given listener. The map itself is loaded when a script
+   * location is mapped, e.g. on a pause, when a reverse mapping (a breakpoint) needs it, or, in the
+   * background, when one of its sources is looked up to be opened.
+   */
+  public synchronized void enableLazyLoading(SourcesListener listener) {
+    sourcesListener = listener;
+
+    if (prefetchJob == null) {
+      prefetchJob = new Job("Reading source maps") {
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+          while (!monitor.isCanceled()) {
+            IStorage script;
+            boolean loadMap;
+
+            synchronized (SourceMapManager.this) {
+              script = loadQueue.poll();
+              loadMap = script != null;
+
+              if (!loadMap) {
+                script = prefetchQueue.poll();
+              }
+            }
+
+            if (script == null) {
+              return Status.OK_STATUS;
+            }
+
+            if (loadMap) {
+              load(script);
+            } else {
+              prefetchSources(script);
+            }
+          }
+
+          return Status.CANCEL_STATUS;
+        }
+      };
+
+      prefetchJob.setSystem(true);
+      prefetchJob.setPriority(Job.DECORATE);
+    }
   }
 
   /**
@@ -214,35 +410,35 @@ public class SourceMapManager {
       trace("Get mappings for " + storage + ":" + line + ":" + column);
     }
 
-    synchronized (sourceMaps) {
-      IStorage mapStorage = sourceMapsStorages.get(storage);
-      if (mapStorage != null) {
-        SourceMap map = sourceMaps.get(mapStorage);
-        if (map != null) {
-          SourceMapInfo mapping = map.getMappingFor(line, column);
-
-          if (mapping != null) {
-            IStorage resolvedStorage = resolveStorage(mapStorage, mapping.getFile());
-            if (resolvedStorage != null) {
-              String sourceRoot = map.getSourceRoot();
-              String relativePath = mapping.getFile();
-              if (sourceRoot != null && sourceRoot.length() > 0) {
-                relativePath = relativePath.substring(sourceRoot.length());
-              }
+    Snapshot snapshot = ensureLoaded(storage);
 
-              SourceLocation location = new SourceLocation(
-                  resolvedStorage,
-                  relativePath,
-                  mapping.getLine(),
-                  mapping.getColumn(),
-                  mapping.getName());
+    IStorage mapStorage = snapshot.sourceMapsStorages.get(storage);
+    if (mapStorage != null) {
+      SourceMap map = snapshot.sourceMaps.get(mapStorage);
+      if (map != null) {
+        SourceMapInfo mapping = map.getMappingFor(line, column);
+
+        if (mapping != null) {
+          IStorage resolvedStorage = resolveStorage(mapStorage, mapping.getFile());
+          if (resolvedStorage != null) {
+            String sourceRoot = map.getSourceRoot();
+            String relativePath = mapping.getFile();
+            if (sourceRoot != null && sourceRoot.length() > 0) {
+              relativePath = relativePath.substring(sourceRoot.length());
+            }
 
-              if (isTracing()) {
-                trace("Found mapping: " + location);
-              }
+            SourceLocation location = new SourceLocation(
+                resolvedStorage,
+                relativePath,
+                mapping.getLine(),
+                mapping.getColumn(),
+                mapping.getName());
 
-              return location;
+            if (isTracing()) {
+              trace("Found mapping: " + location);
             }
+
+            return location;
           }
         }
       }
@@ -253,13 +449,10 @@ public class SourceMapManager {
 
   public SourceLocation getMappingFor(String scriptPath, int line, int column)
   {
-      for(String path : storageMaps.keySet())
+      IStorage storage = snapshot.storageMaps.get(scriptPath);
+      if(storage != null)
       {
-          if(path.equals(scriptPath))
-          {
-              IStorage storage = storageMaps.get(path);
-              return getMappingFor(storage, line, column);
-          }
+          return getMappingFor(storage, line, column);
       }
       return null;
   }
@@ -279,26 +472,28 @@ public class SourceMapManager {
 
     List<SourceLocation> mappings = new ArrayList<SourceMapManager.SourceLocation>();
 
-    TargetPathCheckingVisitor visitor = new TargetPathCheckingVisitor(targetPath);
-
-    synchronized (sourceMaps) {
-      visit(visitor);
-
-      if (visitor.getMatchingSourcePath() != null) {
-        List<SourceMapInfo> reverseMappings = visitor.getMatchingSourceMap().getReverseMappingsFor(
-            visitor.getMatchingSourcePath(),
-            line);
-        for (SourceMapInfo reverseMapping : reverseMappings) {
-          if (reverseMapping != null) {
-            IStorage mapSource = visitor.getMatchingScriptStorage(); //&&&!!! visitor.getMAtchingSourceMapStorage();
-            if (mapSource != null) {
-              mappings.add(new SourceLocation(
-                  mapSource,
-                  mapSource.getFullPath().toPortableString(),
-                  reverseMapping.getLine(),
-                  reverseMapping.getColumn(),
-                  reverseMapping.getName()));
-            }
+    SourcePathIndex.Entry match = findSource(targetPath);
+
+    // Loading a map replaces its entries, or drops them if it fails, so this ends.
+    while (match != null && match.sourceMap == null) {
+      load(match.scriptStorage);
+      match = findSource(targetPath);
+    }
+
+    if (match != null) {
+      List<SourceMapInfo> reverseMappings = match.sourceMap.getReverseMappingsFor(
+          match.sourcePath,
+          line);
+      for (SourceMapInfo reverseMapping : reverseMappings) {
+        if (reverseMapping != null) {
+          IStorage mapSource = match.scriptStorage; //&&&!!! match.sourceMapStorage;
+          if (mapSource != null) {
+            mappings.add(new SourceLocation(
+                mapSource,
+                mapSource.getFullPath().toPortableString(),
+                reverseMapping.getLine(),
+                reverseMapping.getColumn(),
+                reverseMapping.getName()));
           }
         }
       }
@@ -307,27 +502,35 @@ public class SourceMapManager {
     return mappings;
   }
 
-  public IStorage getSource(String targetPath) { //&&&!!! There can be race conditions because of that method
+  public IStorage getSource(String targetPath) {
     if (targetPath != null) {
       if (isTracing()) {
         trace("Get source storage: " + targetPath);
       }
 
-      TargetPathCheckingVisitor visitor = new TargetPathCheckingVisitor(targetPath);
+      SourcePathIndex.Entry match = findSource(targetPath);
 
-      synchronized (sourceMaps) {
-        visit(visitor);
-        if (visitor.getMatchingSourcePath() != null) {
-          return resolveStorage(
-              visitor.getMatchingSourceMapStorage(),
-              visitor.getMatchingSourcePath());
+      if (match != null) {
+        if (match.sourceMap == null) {
+          // The source is about to be opened; have its map ready for the breakpoints set there.
+          loadInBackground(match.scriptStorage);
         }
+
+        return resolveStorage(match.sourceMapStorage, match.sourcePath);
       }
     }
 
     return null;
   }
 
+  /**
+   * Loads the source map of the given script now, if it is still pending. This fetches and decodes
+   * the whole map; call it on a thread nobody waits on, e.g. the one the listener is called on.
+   */
+  public void loadSourceMap(IStorage script) {
+    ensureLoaded(script);
+  }
+
   /**
    * Returns true if the the source map manager contains mapping information for the given file back
    * to original resources.
@@ -335,38 +538,37 @@ public class SourceMapManager {
    * @param resource
    * @return true if the the source map manager contains mapping information for the given file
    */
-  public boolean isMapSource(IStorage storage) { //&&&!!! There can be race conditions because of that method
+  public boolean isMapSource(IStorage storage) {
     if (storage != null) {
       if (isTracing()) {
         trace("Check for map source: " + storage);
       }
 
-      synchronized (sourceMaps) {
-        boolean result = sourceMapsStorages.containsKey(storage);
-
-        if (isTracing() && result) {
-          trace("Confirmed - map source");
-        }
+      boolean result = ensureLoaded(storage).sourceMapsStorages.containsKey(storage);
 
-        return result;
+      if (isTracing() && result) {
+        trace("Confirmed - map source");
       }
+
+      return result;
     }
 
     return false;
   }
 
-  public boolean isMapTarget(IStorage scriptStorage, String targetPath) { //&&&!!! There can be race conditions because of that method
+  public boolean isMapTarget(IStorage scriptStorage, String targetPath) {
     if (targetPath != null) {
       if (isTracing()) {
         trace("Check for map target: " + targetPath);
       }
 
-      TargetPathCheckingVisitor visitor = new TargetPathCheckingVisitor(targetPath, true/*stopOnInexactMatch*/);
+      SourcePathIndex.Entry match = scriptStorage != null
+          ? snapshot.sourcePaths.find(scriptStorage, targetPath)
+          : snapshot.sourcePaths.find(targetPath);
 
-      synchronized (sourceMaps) {
-        visit(scriptStorage, visitor);
-        return visitor.getMatchingSourcePath() != null;
-      }
+      traceMatch(match);
+
+      return match != null;
     } else {
       return false;
     }
@@ -376,34 +578,54 @@ public class SourceMapManager {
     return isMapTarget(null/*scriptStorage*/, targetPath);
   }
 
-  void handleGlobalObjectCleared() {
-    synchronized (sourceMaps) {
-      sourceMapsStorages.clear();
-      sourceMaps.clear();
-    }
+  synchronized void handleGlobalObjectCleared() {
+    prefetchQueue.clear();
+    loadQueue.clear();
+    snapshot = snapshot.withoutSourceMaps();
   }
 
-  public void handleScriptParsed(IStorage script, String scriptUrl, String sourceMapUrl)
+  public synchronized void handleScriptParsed(IStorage script, String scriptUrl, String sourceMapUrl)
   {
-      synchronized (sourceMaps)
-      {
-          sourceMapsStorages.remove(script);
-          trace("Checking script for sourcemaps: " + script);
+      snapshot = snapshot.withoutScript(script);
 
-          try
-          {
-              processScript(script, scriptUrl, sourceMapUrl);
-          }
-          catch (CoreException e)
-          {
-              // Processing a source map is always a best effort, because the
-              // sourcemap could be missing or broken
-              SDBGDebugCorePlugin.logError(e);
-              trace("Processing script " + script + " failed: " + e.getMessage());
-          }
+      if (sourcesListener != null) {
+        trace("Deferring sourcemaps of script: " + script);
+
+        snapshot = snapshot.withPendingScript(script, new PendingScript(scriptUrl, sourceMapUrl));
+        if (loadedScriptUrls.contains(scriptUrl)) {
+          prefetchQueue.addFirst(script);
+        } else {
+          prefetchQueue.addLast(script);
+        }
+        prefetchJob.schedule();
+        return;
+      }
+
+      trace("Checking script for sourcemaps: " + script);
+
+      try
+      {
+          processScript(script, scriptUrl, sourceMapUrl);
+      }
+      catch (CoreException e)
+      {
+          // Processing a source map is always a best effort, because the
+          // sourcemap could be missing or broken
+          SDBGDebugCorePlugin.logError(e);
+          trace("Processing script " + script + " failed: " + e.getMessage());
       }
   }
 
+  /**
+   * Returns the current snapshot, after loading the source map of the given script if it is still
+   * pending.
+   */
+  private Snapshot ensureLoaded(IStorage script) {
+    Snapshot snapshot = this.snapshot;
+
+    return snapshot.pendingScripts.containsKey(script) ? load(script) : snapshot;
+  }
+
   private boolean isDownloadable(URI uri) {
     if (uri == null || uri.getScheme() == null) {
       return false;
@@ -416,67 +638,192 @@ public class SourceMapManager {
 
   private SourceMap parseSourceMap(IStorage mapStorage) throws IOException, CoreException {
     if (mapStorage != null) {
-      return SourceMap.createFrom(mapStorage);
+      SourceMapCache cache = SourceMapCache.getCache();
+
+      return cache != null ? cache.load(mapStorage) : SourceMap.createFrom(mapStorage);
     } else {
       return null;
     }
   }
 
-  private void processScript(IStorage script, String scriptUrl, String sourceMapUrl)
-      throws CoreException {
+  private String findSourceMapUrl(IStorage script) throws IOException, CoreException {
+    String sourceMapUrl = null;
+
+    BufferedReader reader;
+    if (script instanceof IFile) {
+      reader = new BufferedReader(new InputStreamReader(
+          script.getContents(),
+          ((IFile) script).getCharset()));
+    } else {
+      reader = new BufferedReader(new InputStreamReader(script.getContents()));
+    }
+
     try {
-      if (sourceMapUrl == null) {
-        BufferedReader reader;
-        if (script instanceof IFile) {
-          reader = new BufferedReader(new InputStreamReader(
-              script.getContents(),
-              ((IFile) script).getCharset()));
-        } else {
-          reader = new BufferedReader(new InputStreamReader(script.getContents()));
+      String sourceMapUrlLine = null;
+      for (sourceMapUrlLine = reader.readLine(); sourceMapUrlLine != null; sourceMapUrlLine = reader.readLine()) {
+        sourceMapUrlLine = sourceMapUrlLine.trim();
+        if (sourceMapUrlLine.startsWith("//#") || sourceMapUrlLine.startsWith("//@")) {
+          sourceMapUrlLine = sourceMapUrlLine.substring(2).trim();
+
+          if (sourceMapUrlLine.matches("sourceMappingURL\\s*\\=")) {
+            break;
+          }
         }
+      }
 
-        try {
-          String sourceMapUrlLine = null;
-          for (sourceMapUrlLine = reader.readLine(); sourceMapUrlLine != null; sourceMapUrlLine = reader.readLine()) {
-            sourceMapUrlLine = sourceMapUrlLine.trim();
-            if (sourceMapUrlLine.startsWith("//#") || sourceMapUrlLine.startsWith("//@")) {
-              sourceMapUrlLine = sourceMapUrlLine.substring(2).trim();
+      if (sourceMapUrlLine != null) {
+        Properties properties = new Properties();
+        properties.load(new StringReader(sourceMapUrlLine));
+        sourceMapUrl = properties.getProperty("sourceMappingURL");
+        trace("Sourcemap detected in a // comment");
+      }
+    } finally {
+      reader.close();
+    }
 
-              if (sourceMapUrlLine.matches("sourceMappingURL\\s*\\=")) {
-                break;
-              }
-            }
-          }
+    return sourceMapUrl;
+  }
 
-          if (sourceMapUrlLine != null) {
-            Properties properties = new Properties();
-            properties.load(new StringReader(sourceMapUrlLine));
-            sourceMapUrl = properties.getProperty("sourceMappingURL");
-            trace("Sourcemap detected in a // comment");
-          }
-        } finally {
-          reader.close();
-        }
+  /**
+   * Loads the source map of a pending script. The map is fetched and decoded without holding the
+   * lock on this manager, so lookups and the loading of other maps go on meanwhile; if the same
+   * script is loaded concurrently, the first load to finish is kept.
+   */
+  private Snapshot load(IStorage script) {
+    PendingScript pending;
+
+    synchronized (this) {
+      pending = snapshot.pendingScripts.get(script);
+
+      if (pending == null) {
+        return snapshot;
       }
+    }
 
-      IStorage mapStorage;
-      if (sourceMapUrl != null && sourceMapUrl.length() > 0) {
-        trace("Found sourcemap with URL: " + sourceMapUrl);
+    trace("Loading sourcemap on demand: " + script);
 
-        mapStorage = resolveStorage(script, scriptUrl, sourceMapUrl);
-        if (mapStorage == null) {
-          trace("Sourcemap with URL " + sourceMapUrl + " was not resolved");
-        }
-      } else {
-        mapStorage = null;
+    IStorage mapStorage = null;
+    SourceMap map = null;
+
+    try {
+      String sourceMapUrl = pending.sourceMapUrl;
+      if (sourceMapUrl == null) {
+        sourceMapUrl = findSourceMapUrl(script);
+      }
+
+      mapStorage = resolveSourceMapStorage(script, pending.scriptUrl, sourceMapUrl);
+      map = parseSourceMap(mapStorage);
+    } catch (IOException e) {
+      SDBGDebugCorePlugin.logError(e);
+      trace("Processing script " + script + " failed: " + e.getMessage());
+    } catch (CoreException e) {
+      SDBGDebugCorePlugin.logError(e);
+      trace("Processing script " + script + " failed: " + e.getMessage());
+    }
+
+    synchronized (this) {
+      if (snapshot.pendingScripts.get(script) != pending) {
+        // The script was parsed again or its map has been loaded meanwhile.
+        return snapshot;
+      }
+
+      // Whatever the outcome, the script is not pending anymore.
+      snapshot = snapshot.withoutScript(script);
+
+      if (map != null) {
+        snapshot = snapshot.withScript(script, pending.scriptUrl, mapStorage, map);
+        loadedScriptUrls.add(pending.scriptUrl);
+        trace("Parsing sourcemap succeeded: " + mapStorage);
       }
 
+      return snapshot;
+    }
+  }
+
+  private synchronized void loadInBackground(IStorage script) {
+    if (prefetchJob != null && snapshot.pendingScripts.containsKey(script)
+        && !loadQueue.contains(script)) {
+      loadQueue.add(script);
+      prefetchJob.schedule();
+    }
+  }
+
+  private SourceMapSources loadSources(IStorage mapStorage) throws IOException, CoreException {
+    SourceMapCache cache = SourceMapCache.getCache();
+
+    return cache != null ? cache.loadSources(mapStorage) : SourceMapSources.read(mapStorage);
+  }
+
+  /**
+   * Reads the sources of a pending script's source map and indexes them, without blocking lookups
+   * or the loading of other maps while the map is fetched.
+   */
+  private void prefetchSources(IStorage script) {
+    PendingScript pending = snapshot.pendingScripts.get(script);
+
+    if (pending == null) {
+      return;
+    }
+
+    PendingScript prefetched = pending;
+    IStorage mapStorage = null;
+    SourceMapSources sources = null;
+
+    try {
+      String sourceMapUrl = pending.sourceMapUrl;
+      if (sourceMapUrl == null) {
+        sourceMapUrl = findSourceMapUrl(script);
+        prefetched = new PendingScript(pending.scriptUrl, sourceMapUrl);
+      }
+
+      mapStorage = resolveSourceMapStorage(script, pending.scriptUrl, sourceMapUrl);
+      if (mapStorage != null) {
+        sources = loadSources(mapStorage);
+      }
+    } catch (IOException e) {
+      trace("Reading the sources of the sourcemap of " + script + " failed: " + e.getMessage());
+    } catch (CoreException e) {
+      trace("Reading the sources of the sourcemap of " + script + " failed: " + e.getMessage());
+    }
+
+    SourcesListener listener;
+
+    synchronized (this) {
+      if (snapshot.pendingScripts.get(script) != pending) {
+        // The script was parsed again or its map has been loaded meanwhile.
+        return;
+      }
+
+      if (sources != null) {
+        snapshot = snapshot.withPrefetchedSources(script, prefetched, mapStorage, sources);
+        trace("Prefetched sources of sourcemap: " + mapStorage);
+      } else if (mapStorage == null) {
+        // There is no source map to load later.
+        snapshot = snapshot.withoutScript(script);
+        return;
+      }
+
+      listener = sourcesListener;
+    }
+
+    if (sources != null && listener != null) {
+      listener.sourcesLoaded(script);
+    }
+  }
+
+  private void processScript(IStorage script, String scriptUrl, String sourceMapUrl)
+      throws CoreException {
+    try {
+      if (sourceMapUrl == null) {
+        sourceMapUrl = findSourceMapUrl(script);
+      }
+
+      IStorage mapStorage = resolveSourceMapStorage(script, scriptUrl, sourceMapUrl);
+
       if (mapStorage != null) {
         SourceMap map = parseSourceMap(mapStorage);
         if (map != null) {
-          sourceMapsStorages.put(script, mapStorage);
-          sourceMaps.put(mapStorage, map);
-          storageMaps.put(scriptUrl, script);
+          snapshot = snapshot.withScript(script, scriptUrl, mapStorage, map);
           trace("Parsing sourcemap succeeded: " + mapStorage);
         }
       }
@@ -485,6 +832,21 @@ public class SourceMapManager {
     }
   }
 
+  private IStorage resolveSourceMapStorage(IStorage script, String scriptUrl, String sourceMapUrl) {
+    if (sourceMapUrl != null && sourceMapUrl.length() > 0) {
+      trace("Found sourcemap with URL: " + sourceMapUrl);
+
+      IStorage mapStorage = resolveStorage(script, scriptUrl, sourceMapUrl);
+      if (mapStorage == null) {
+        trace("Sourcemap with URL " + sourceMapUrl + " was not resolved");
+      }
+
+      return mapStorage;
+    } else {
+      return null;
+    }
+  }
+
   private IStorage resolveStorage(IStorage relativeStorage, String path) {
     return resolveStorage(relativeStorage, null/*relativeUriStr*/, path);
   }
@@ -570,24 +932,21 @@ public class SourceMapManager {
     return null;
   }
 
-  private void visit(IStorage forScriptStorage, Visitor visitor) { //&&&!!! There can be race conditions because of that method
-    synchronized (sourceMaps) {
-      for (IStorage scriptStorage : forScriptStorage != null
-          ? Collections.singleton(forScriptStorage) : sourceMapsStorages.keySet()) {
-        IStorage sourceMapStorage = sourceMapsStorages.get(scriptStorage);
-        if (sourceMapStorage != null) {
-          SourceMap sourceMap = sourceMaps.get(sourceMapStorage);
-          for (String sourcePath : sourceMap.getSourceNames()) {
-            if (visitor.visit(scriptStorage, sourceMapStorage, sourceMap, sourcePath)) {
-              break;
-            }
-          }
-        }
-      }
-    }
+  private SourcePathIndex.Entry findSource(String targetPath) {
+    SourcePathIndex.Entry match = snapshot.sourcePaths.find(targetPath);
+
+    traceMatch(match);
+
+    return match;
   }
 
-  private void visit(Visitor visitor) {
-    visit(null/*forScriptStorage*/, visitor);
+  private void traceMatch(SourcePathIndex.Entry match) {
+    if (isTracing()) {
+      if (match != null) {
+        trace("Match: " + match);
+      } else {
+        trace("No match");
+      }
+    }
   }
 }
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2013, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.sdbg.debug.core.internal.webkit.model;
+
+import com.github.sdbg.debug.core.internal.sourcemaps.SourceMap;
+import com.github.sdbg.debug.core.internal.sourcemaps.SourceMapSources;
+
+import java.util.Arrays;
+
+import org.eclipse.core.resources.IStorage;
+
+/**
+ * An immutable index of the source paths of the loaded source maps, which finds the sources whose
+ * path (relative to the map's source root) ends with a given path in time proportional to the
+ * length of that path.
+ * <p>
+ * The paths are kept reversed in a radix trie, so a suffix of a path is a prefix of a trie key.
+ * Adding or removing a script returns a new index which shares all untouched nodes with the old
+ * one; readers can therefore use an index without any locking.
+ */
+class SourcePathIndex {
+
+  /**
+   * A source of a source map, as loaded for one script.
+   */
+  static class Entry {
+    final IStorage scriptStorage;
+    final IStorage sourceMapStorage;
+
+    /**
+     * The source map, or null if only its sources have been read so far.
+     */
+    final SourceMap sourceMap;
+    final String sourcePath;
+
+    /**
+     * The length of the source path without the source root.
+     */
+    final int relativeLength;
+
+    Entry(IStorage scriptStorage, IStorage sourceMapStorage, SourceMap sourceMap, String sourcePath,
+        int relativeLength) {
+      this.scriptStorage = scriptStorage;
+      this.sourceMapStorage = sourceMapStorage;
+      this.sourceMap = sourceMap;
+      this.sourcePath = sourcePath;
+      this.relativeLength = relativeLength;
+    }
+
+    @Override
+    public String toString() {
+      return "[Script: " + scriptStorage + ", Source map: " + sourceMapStorage + ", Source path: "
+          + sourcePath + "]";
+    }
+  }
+
+  private static class Node {
+    static final Node EMPTY = new Node(new String[0], new Node[0], new Entry[0]);
+
+    /**
+     * The edge labels, one per child; no two start with the same character.
+     */
+    final String[] labels;
+    final Node[] children;
+
+    /**
+     * The sources whose reversed path ends at this node.
+     */
+    final Entry[] entries;
+
+    Node(String[] labels, Node[] children, Entry[] entries) {
+      this.labels = labels;
+      this.children = children;
+      this.entries = entries;
+    }
+
+    int indexOf(char c) {
+      for (int i = 0; i < labels.length; i++) {
+        if (labels[i].charAt(0) == c) {
+          return i;
+        }
+      }
+
+      return -1;
+    }
+
+    boolean isEmpty() {
+      return children.length == 0 && entries.length == 0;
+    }
+
+    Node withChild(int index, String label, Node child) {
+      String[] newLabels = labels.clone();
+      Node[] newChildren = children.clone();
+
+      newLabels[index] = label;
+      newChildren[index] = child;
+
+      return new Node(newLabels, newChildren, entries);
+    }
+
+    Node withNewChild(String label, Node child) {
+      String[] newLabels = Arrays.copyOf(labels, labels.length + 1);
+      Node[] newChildren = Arrays.copyOf(children, children.length + 1);
+
+      newLabels[labels.length] = label;
+      newChildren[children.length] = child;
+
+      return new Node(newLabels, newChildren, entries);
+    }
+
+    Node withoutChild(int index) {
+      String[] newLabels = new String[labels.length - 1];
+      Node[] newChildren = new Node[children.length - 1];
+
+      System.arraycopy(labels, 0, newLabels, 0, index);
+      System.arraycopy(labels, index + 1, newLabels, index, newLabels.length - index);
+      System.arraycopy(children, 0, newChildren, 0, index);
+      System.arraycopy(children, index + 1, newChildren, index, newChildren.length - index);
+
+      return new Node(newLabels, newChildren, entries);
+    }
+
+    Node withEntry(Entry entry) {
+      Entry[] newEntries = Arrays.copyOf(entries, entries.length + 1);
+
+      newEntries[entries.length] = entry;
+
+      return new Node(labels, children, newEntries);
+    }
+
+    Node withoutEntriesOf(IStorage scriptStorage) {
+      Entry[] newEntries = new Entry[entries.length];
+      int count = 0;
+
+      for (Entry entry : entries) {
+        if (!entry.scriptStorage.equals(scriptStorage)) {
+          newEntries[count++] = entry;
+        }
+      }
+
+      if (count == entries.length) {
+        return this;
+      }
+
+      return new Node(labels, children, Arrays.copyOf(newEntries, count));
+    }
+  }
+
+  static final SourcePathIndex EMPTY = new SourcePathIndex(Node.EMPTY);
+
+  private final Node root;
+
+  private SourcePathIndex(Node root) {
+    this.root = root;
+  }
+
+  /**
+   * Returns an index which also contains the sources of the given script's source map; the map
+   * itself may be null if it has not been loaded yet.
+   */
+  SourcePathIndex add(IStorage scriptStorage, IStorage sourceMapStorage, SourceMapSources sources,
+      SourceMap sourceMap) {
+    Node newRoot = root;
+
+    for (String sourcePath : sources.getSourceNames()) {
+      String key = getKey(sources, sourcePath);
+
+      newRoot = add(newRoot, key, 0, new Entry(
+          scriptStorage,
+          sourceMapStorage,
+          sourceMap,
+          sourcePath,
+          key.length()));
+    }
+
+    return new SourcePathIndex(newRoot);
+  }
+
+  /**
+   * Returns the source with the shortest path that ends with the given path, or null. A source
+   * whose relative path is the given path wins over longer ones.
+   */
+  Entry find(String targetPath) {
+    Node node = findNode(reverse(targetPath));
+
+    if (node == null) {
+      return null;
+    }
+
+    // The entries of the node are exact matches unless the path ends inside the edge above it.
+    if (node.entries.length > 0 && node.entries[0].relativeLength == targetPath.length()) {
+      return shortest(node.entries, null);
+    }
+
+    return findShortest(node, null);
+  }
+
+  /**
+   * Returns any source of the given script's source map whose path ends with the given path, or
+   * null.
+   */
+  Entry find(IStorage scriptStorage, String targetPath) {
+    Node node = findNode(reverse(targetPath));
+
+    return node == null ? null : findAny(node, scriptStorage);
+  }
+
+  /**
+   * Returns an index without the sources of the given script's source map.
+   */
+  SourcePathIndex remove(IStorage scriptStorage, SourceMapSources sources) {
+    Node newRoot = root;
+
+    for (String sourcePath : sources.getSourceNames()) {
+      newRoot = remove(newRoot, getKey(sources, sourcePath), 0, scriptStorage);
+    }
+
+    return newRoot == root ? this : new SourcePathIndex(newRoot);
+  }
+
+  private Node add(Node node, String key, int position, Entry entry) {
+    if (position == key.length()) {
+      return node.withEntry(entry);
+    }
+
+    int index = node.indexOf(key.charAt(position));
+
+    if (index == -1) {
+      return node.withNewChild(key.substring(position), Node.EMPTY.withEntry(entry));
+    }
+
+    String label = node.labels[index];
+    int common = 1;
+
+    while (common < label.length() && position + common < key.length()
+        && label.charAt(common) == key.charAt(position + common)) {
+      common++;
+    }
+
+    if (common == label.length()) {
+      return node.withChild(index, label, add(node.children[index], key, position + common, entry));
+    }
+
+    // Split the edge where the key leaves it.
+    Node split = new Node(
+        new String[] {label.substring(common)},
+        new Node[] {node.children[index]},
+        Node.EMPTY.entries);
+
+    return node.withChild(
+        index,
+        label.substring(0, common),
+        add(split, key, position + common, entry));
+  }
+
+  private Entry findAny(Node node, IStorage scriptStorage) {
+    for (Entry entry : node.entries) {
+      if (entry.scriptStorage.equals(scriptStorage)) {
+        return entry;
+      }
+    }
+
+    for (Node child : node.children) {
+      Entry entry = findAny(child, scriptStorage);
+
+      if (entry != null) {
+        return entry;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the node below which all keys start with the given key, or null.
+   */
+  private Node findNode(String key) {
+    Node node = root;
+    int position = 0;
+
+    while (position < key.length()) {
+      int index = node.indexOf(key.charAt(position));
+
+      if (index == -1) {
+        return null;
+      }
+
+      String label = node.labels[index];
+      int length = Math.min(label.length(), key.length() - position);
+
+      if (!key.regionMatches(position, label, 0, length)) {
+        return null;
+      }
+
+      node = node.children[index];
+      position += length;
+    }
+
+    return node;
+  }
+
+  private Entry findShortest(Node node, Entry best) {
+    best = shortest(node.entries, best);
+
+    for (Node child : node.children) {
+      best = findShortest(child, best);
+    }
+
+    return best;
+  }
+
+  private String getKey(SourceMapSources sources, String sourcePath) {
+    String sourceRoot = sources.getSourceRoot();
+
+    return reverse(sourceRoot != null && sourceRoot.length() > 0
+        ? sourcePath.substring(sourceRoot.length()) : sourcePath);
+  }
+
+  private Node remove(Node node, String key, int position, IStorage scriptStorage) {
+    if (position == key.length()) {
+      return node.withoutEntriesOf(scriptStorage);
+    }
+
+    int index = node.indexOf(key.charAt(position));
+
+    if (index == -1 || !key.startsWith(node.labels[index], position)) {
+      return node;
+    }
+
+    String label = node.labels[index];
+    Node child = remove(node.children[index], key, position + label.length(), scriptStorage);
+
+    if (child == node.children[index]) {
+      return node;
+    } else if (child.isEmpty()) {
+      return node.withoutChild(index);
+    } else if (child.entries.length == 0 && child.children.length == 1) {
+      // Merge the edge with the only one below it.
+      return node.withChild(index, label + child.labels[0], child.children[0]);
+    } else {
+      return node.withChild(index, label, child);
+    }
+  }
+
+  private String reverse(String path) {
+    return new StringBuilder(path).reverse().toString();
+  }
+
+  private Entry shortest(Entry[] entries, Entry best) {
+    for (Entry entry : entries) {
+      if (best == null || entry.sourcePath.length() < best.sourcePath.length()) {
+        best = entry;
+      }
+    }
+
+    return best;
+  }
+
+}
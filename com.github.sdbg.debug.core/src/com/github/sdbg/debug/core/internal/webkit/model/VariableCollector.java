@@ -24,9 +24,18 @@ import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitScope;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
+import org.eclipse.debug.core.DebugException;
 import org.eclipse.debug.core.model.IVariable;
 
 /**
@@ -38,22 +47,59 @@ class VariableCollector {
 
   private WebkitDebugVariable parentVariable;
 
-  private CountDownLatch latch;
+  /**
+   * The variables at the same place in the previous suspension, if known; dropped when the
+   * collection completes.
+   */
+  private volatile VariableCollector previous;
+
+  /**
+   * The number of outstanding getProperties requests.
+   */
+  private final AtomicInteger work;
+
+  /**
+   * Completed when all requests have been answered, or cancelled when nobody waits for them
+   * anymore.
+   */
+  private final CompletableFuture<Void> completion = new CompletableFuture<Void>();
+
+  /**
+   * The handles of the getProperties requests, to cancel them with the collection.
+   */
+  private final List<CompletableFuture<?>> requests =
+      new CopyOnWriteArrayList<CompletableFuture<?>>();
+
+  /**
+   * The number of futures returned by {@link #getVariablesAsync()} which have not been cancelled.
+   */
+  private final AtomicInteger waiters = new AtomicInteger();
+
+  /**
+   * Set once a caller blocks on the collection; it is then never cancelled.
+   */
+  private volatile boolean pinned;
 
   private List<IVariable> variables = new ArrayList<IVariable>();
 
   private List<WebkitPropertyDescriptor> webkitProperties = new ArrayList<WebkitPropertyDescriptor>();
 
+  /**
+   * The collected variables by name, built on the first lookup.
+   */
+  private Map<String, IVariable> variablesByName;
+
   public static VariableCollector createCollector(WebkitDebugTarget target,
       final WebkitDebugVariable variable, List<WebkitRemoteObject> remoteObjects) {
     final VariableCollector collector = new VariableCollector(
         target,
         remoteObjects.size(),
-        variable);
+        variable,
+        variable != null ? variable.getPreviousVariables() : null);
 
     for (final WebkitRemoteObject obj : remoteObjects) {
       try {
-        target.getConnection().getRuntime().getProperties(
+        collector.requests.add(target.getConnection().getRuntime().getProperties(
             obj,
             true,
             false,
@@ -71,7 +117,7 @@ class VariableCollector {
                   collector.worked();
                 }
               }
-            });
+            }));
       } catch (Throwable e) {
         SDBGDebugCorePlugin.logError(e);
 
@@ -82,10 +128,18 @@ class VariableCollector {
     return collector;
   }
 
+  /**
+   * Collects the variables of a stack frame. The previous variables, if any, are the ones the frame
+   * had in the previous suspension.
+   */
   public static VariableCollector createCollector(WebkitDebugTarget target,
       WebkitRemoteObject thisObject, WebkitRemoteObject exception, boolean flattenLocalScope,
-      WebkitScope... scopes) {
-    final VariableCollector collector = new VariableCollector(target, flattenLocalScope ? 1 : 0);
+      VariableCollector previousVariables, WebkitScope... scopes) {
+    final VariableCollector collector = new VariableCollector(
+        target,
+        flattenLocalScope ? 1 : 0,
+        null,
+        previousVariables);
 
     if (thisObject != null) {
       collector.createThisVariable(thisObject);
@@ -99,7 +153,7 @@ class VariableCollector {
       for (WebkitScope scope : scopes) {
         if (scope.isLocal()) {
           try {
-            target.getConnection().getRuntime().getProperties(
+            collector.requests.add(target.getConnection().getRuntime().getProperties(
                 scope.getObject(),
                 true,
                 false,
@@ -113,7 +167,7 @@ class VariableCollector {
                       collector.worked();
                     }
                   }
-                });
+                }));
           } catch (Throwable e) {
             SDBGDebugCorePlugin.logError(e);
             collector.worked();
@@ -140,33 +194,137 @@ class VariableCollector {
   }
 
   public VariableCollector(WebkitDebugTarget target, List<IVariable> variables) {
-    this.target = target;
+    this(target, 0, null, null);
+
     this.variables.addAll(variables);
-    this.latch = new CountDownLatch(0);
   }
 
   private VariableCollector(WebkitDebugTarget target, int work) {
-    this(target, work, null);
+    this(target, work, null, null);
   }
 
-  private VariableCollector(WebkitDebugTarget target, int work, WebkitDebugVariable parentVariable) {
+  private VariableCollector(WebkitDebugTarget target, int work, WebkitDebugVariable parentVariable,
+      VariableCollector previous) {
     this.target = target;
     this.parentVariable = parentVariable;
-    this.latch = new CountDownLatch(work);
+    this.previous = previous;
+    this.work = new AtomicInteger(work);
+
+    if (work == 0) {
+      completion.complete(null);
+    }
   }
 
   public IVariable[] getVariables() throws InterruptedException {
-    latch.await();
+    await();
 
     return variables.toArray(new IVariable[variables.size()]);
   }
 
+  /**
+   * Returns the first collected variable with the given name, or null.
+   */
+  public IVariable findVariable(String name) throws InterruptedException {
+    await();
+
+    return getVariableByName(name);
+  }
+
+  /**
+   * Returns the first collected variable with the given name, or null; also null if the collection
+   * has not completed yet.
+   */
+  WebkitDebugVariable peekVariable(String name) {
+    if (!isCollected()) {
+      return null;
+    }
+
+    IVariable variable = getVariableByName(name);
+
+    return variable instanceof WebkitDebugVariable ? (WebkitDebugVariable) variable : null;
+  }
+
+  /**
+   * Returns the collected scope variable of the given scope object, or null; also null if the
+   * collection has not completed yet or the object has no id.
+   */
+  WebkitDebugVariable peekScopeVariable(WebkitRemoteObject object) {
+    if (!isCollected() || object == null || object.getObjectId() == null) {
+      return null;
+    }
+
+    for (IVariable variable : variables) {
+      if (variable instanceof WebkitDebugVariable && ((WebkitDebugVariable) variable).isScope()
+          && object.getObjectId().equals(((WebkitDebugVariable) variable).getObjectId())) {
+        return (WebkitDebugVariable) variable;
+      }
+    }
+
+    return null;
+  }
+
   public List<WebkitPropertyDescriptor> getWebkitProperties() throws InterruptedException {
-    latch.await();
+    await();
 
     return webkitProperties;
   }
 
+  /**
+   * Returns the variables without blocking; the future completes on the thread which receives the
+   * last response. Once all the futures returned here are cancelled, and nobody blocks on the
+   * collection, the outstanding requests are cancelled as well.
+   */
+  public CompletableFuture<IVariable[]> getVariablesAsync() {
+    waiters.incrementAndGet();
+
+    final CompletableFuture<IVariable[]> result = completion.thenApply(
+        new Function<Void, IVariable[]>() {
+          @Override
+          public IVariable[] apply(Void ignored) {
+            return variables.toArray(new IVariable[variables.size()]);
+          }
+        });
+
+    result.whenComplete(new BiConsumer<IVariable[], Throwable>() {
+      @Override
+      public void accept(IVariable[] ignored, Throwable exception) {
+        if (result.isCancelled()) {
+          abandoned();
+        }
+      }
+    });
+
+    return result;
+  }
+
+  /**
+   * Returns true if the collection was cancelled; its owner then starts a new one.
+   */
+  public boolean isCancelled() {
+    return completion.isCancelled();
+  }
+
+  private void abandoned() {
+    if (waiters.decrementAndGet() == 0 && !pinned && !completion.isDone()) {
+      for (CompletableFuture<?> request : requests) {
+        request.cancel(false);
+      }
+
+      previous = null;
+      completion.cancel(false);
+    }
+  }
+
+  private void await() throws InterruptedException {
+    pinned = true;
+
+    try {
+      completion.get();
+    } catch (ExecutionException e) {
+      // The collection is never completed exceptionally.
+    }
+  }
+
   private void collectFields(WebkitResult<WebkitPropertyDescriptor[]> results, boolean shouldSort,
       boolean isStatic, boolean isLocal) {
     if (!results.isError()) {
@@ -189,13 +347,14 @@ class VariableCollector {
 
             variable.setIsStatic(isStatic);
             variable.setIsLocal(isLocal);
+            link(variable);
             variables.add(variable);
           }
         }
       }
     }
 
-    latch.countDown();
+    worked();
   }
 
   @SuppressWarnings("unused")
@@ -247,6 +406,7 @@ class VariableCollector {
         WebkitPropertyDescriptor.createObjectDescriptor(thisObject, "exception"),
         true);
 
+    link(variable);
     variables.add(variable);
   }
 
@@ -258,18 +418,56 @@ class VariableCollector {
 //    variables.add(variable);
 //  }
 
+  /**
+   * Creates the variable of a scope which is not flattened, or reuses the one of the previous
+   * suspension if the browser handed out the same scope object again; the values fetched below it
+   * are then kept instead of being fetched again.
+   */
   private void createScopeVariable(WebkitRemoteObject object, String name) {
+    VariableCollector previous = this.previous;
+    WebkitDebugVariable variable = previous != null ? previous.peekScopeVariable(object) : null;
+
+    if (variable == null) {
+      variable = new WebkitDebugVariable(
+          target,
+          WebkitPropertyDescriptor.createObjectDescriptor(object, name),
+          true);
+      link(variable);
+    }
+
+    variables.add(variable);
+  }
+
+  private void createThisVariable(WebkitRemoteObject thisObject) {
     WebkitDebugVariable variable = new WebkitDebugVariable(
         target,
-        WebkitPropertyDescriptor.createObjectDescriptor(object, name),
+        WebkitPropertyDescriptor.createObjectDescriptor(thisObject, "this"),
         true);
+
+    link(variable);
     variables.add(variable);
   }
 
-  private void createThisVariable(WebkitRemoteObject thisObject) {
-    variables.add(new WebkitDebugVariable(target, WebkitPropertyDescriptor.createObjectDescriptor(
-        thisObject,
-        "this"), true));
+  private synchronized IVariable getVariableByName(String name) {
+    if (variablesByName == null) {
+      variablesByName = new HashMap<String, IVariable>();
+
+      for (IVariable variable : variables) {
+        try {
+          if (!variablesByName.containsKey(variable.getName())) {
+            variablesByName.put(variable.getName(), variable);
+          }
+        } catch (DebugException e) {
+          // Not a name to look up.
+        }
+      }
+    }
+
+    return variablesByName.get(name);
+  }
+
+  private boolean isCollected() {
+    return completion.isDone() && !completion.isCancelled();
   }
 
   private boolean isListNonIndex(WebkitPropertyDescriptor descriptor) {
@@ -285,6 +483,21 @@ class VariableCollector {
     }
   }
 
+  /**
+   * Links the variable with the one of the same name in the previous suspension.
+   */
+  private void link(WebkitDebugVariable variable) {
+    VariableCollector previous = this.previous;
+
+    if (previous != null) {
+      try {
+        variable.setPrevious(previous.peekVariable(variable.getName()));
+      } catch (DebugException e) {
+        // Not a name to look up.
+      }
+    }
+  }
+
   /**
    * Some specific property filters, to make up for the fact that the enumerable property is not
    * always set correctly.
@@ -315,7 +528,10 @@ class VariableCollector {
   }
 
   private void worked() {
-    latch.countDown();
+    if (work.decrementAndGet() == 0) {
+      previous = null;
+      completion.complete(null);
+    }
   }
 
 }
@@ -21,9 +21,13 @@ import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitResult;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.eclipse.debug.core.DebugException;
 import org.eclipse.debug.core.model.IIndexedValue;
@@ -36,6 +40,19 @@ import org.eclipse.debug.core.model.IVariable;
  */
 public class WebkitDebugIndexedValue extends WebkitDebugValue implements IIndexedValue {
 
+  /**
+   * The number of elements fetched with one request; the size of the partitions the variables view
+   * shows.
+   */
+  private static final int PAGE_SIZE = 100;
+
+  /**
+   * The pages of elements fetched so far. Like this value, they are only valid while the thread
+   * stays suspended.
+   */
+  private final Map<Integer, WebkitRemoteObject[]> pages =
+      new HashMap<Integer, WebkitRemoteObject[]>();
+
   WebkitDebugIndexedValue(WebkitDebugTarget target, WebkitDebugVariable variable,
       WebkitRemoteObject value) {
     super(target, variable, value);
@@ -53,30 +70,24 @@ public class WebkitDebugIndexedValue extends WebkitDebugValue implements IIndexe
 
   @Override
   public IVariable getVariable(int offset) throws DebugException {
-    try {
-      WebkitRemoteObject result = getIndexAt(value, offset);
-
-      if (result == null) {
-        result = WebkitRemoteObject.createNull();
-      }
-
-      return new WebkitDebugVariable(getTarget(), WebkitPropertyDescriptor.createIndexProperty(
-          offset,
-          result));
-    } catch (IOException e) {
-      throw createDebugException(e);
-    }
+    return getVariables(offset, 1)[0];
   }
 
   @Override
   public IVariable[] getVariables(int offset, int length) throws DebugException {
-    IVariable[] results = new IVariable[length];
-
-    for (int i = 0; i < length; i++) {
-      results[i] = getVariable(offset + i);
+    try {
+      fetchPages(offset, length).get(3, TimeUnit.SECONDS);
+    } catch (IOException e) {
+      throw createDebugException(e);
+    } catch (TimeoutException e) {
+      // The elements which did not arrive are shown as null.
+    } catch (InterruptedException e) {
+      // The elements which did not arrive are shown as null.
+    } catch (ExecutionException e) {
+      // The fetches are never completed exceptionally.
     }
 
-    return results;
+    return createVariables(offset, length);
   }
 
   @Override
@@ -107,32 +118,168 @@ public class WebkitDebugIndexedValue extends WebkitDebugValue implements IIndexe
     }
   }
 
-  private WebkitRemoteObject getIndexAt(WebkitRemoteObject listObject, int offset)
-      throws IOException {
-    final WebkitRemoteObject[] results = new WebkitRemoteObject[1];
+  private IVariable[] createVariables(int offset, int length) {
+    IVariable[] results = new IVariable[length];
+
+    for (int i = 0; i < length; i++) {
+      WebkitRemoteObject result = getIndexAt(offset + i);
+
+      if (result == null) {
+        result = WebkitRemoteObject.createNull();
+      }
 
-    final CountDownLatch latch = new CountDownLatch(1);
+      WebkitDebugVariable variable = new WebkitDebugVariable(
+          getTarget(),
+          WebkitPropertyDescriptor.createIndexProperty(offset + i, result));
+
+      variable.setPrevious(getPreviousElement(offset + i));
+      results[i] = variable;
+    }
+
+    return results;
+  }
+
+  /**
+   * Fetches the pages of the given elements which are not fetched yet, all at the same time.
+   */
+  private CompletableFuture<Void> fetchPages(int offset, int length) throws IOException {
+    List<CompletableFuture<Void>> fetches = new ArrayList<CompletableFuture<Void>>();
+
+    if (length > 0) {
+      List<Integer> missingPages = new ArrayList<Integer>();
+
+      synchronized (pages) {
+        for (int page = offset / PAGE_SIZE; page <= (offset + length - 1) / PAGE_SIZE; page++) {
+          if (!pages.containsKey(page)) {
+            missingPages.add(page);
+          }
+        }
+      }
+
+      for (int page : missingPages) {
+        fetches.add(fetchPage(page));
+      }
+    }
+
+    return CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[fetches.size()]));
+  }
+
+  /**
+   * Copies one page of the list into an object keyed by index in one call, then reads the elements
+   * off that object with one getProperties request. The returned future completes when the page has
+   * been stored, or has failed to arrive.
+   */
+  private CompletableFuture<Void> fetchPage(final int page) throws IOException {
+    final int from = page * PAGE_SIZE;
+    final CompletableFuture<Void> fetched = new CompletableFuture<Void>();
 
     getConnection().getRuntime().callFunctionOn(
-        listObject.getObjectId(),
-        "function(){return this[" + offset + "];}",
+        value.getObjectId(),
+        "function(){var r={};for(var i=" + from + ",n=Math.min(" + (from + PAGE_SIZE)
+            + ",this.length);i<n;i++)r[i]=this[i];return r;}",
         null,
         false,
         new WebkitCallback<WebkitRemoteObject>() {
           @Override
           public void handleResult(WebkitResult<WebkitRemoteObject> result) {
-            results[0] = result.getResult();
-            latch.countDown();
+            final WebkitRemoteObject slice = result.getResult();
+
+            if (result.isError() || slice == null || slice.getObjectId() == null) {
+              fetched.complete(null);
+              return;
+            }
+
+            try {
+              getConnection().getRuntime().getProperties(
+                  slice,
+                  true,
+                  false,
+                  new WebkitCallback<WebkitPropertyDescriptor[]>() {
+                    @Override
+                    public void handleResult(WebkitResult<WebkitPropertyDescriptor[]> result) {
+                      if (!result.isError() && result.getResult() != null) {
+                        WebkitRemoteObject[] elements = new WebkitRemoteObject[PAGE_SIZE];
+
+                        for (WebkitPropertyDescriptor property : result.getResult()) {
+                          int index = parseIndex(property.getName()) - from;
+
+                          if (index >= 0 && index < PAGE_SIZE) {
+                            elements[index] = property.getValue();
+                          }
+                        }
+
+                        synchronized (pages) {
+                          pages.put(page, elements);
+                        }
+                      }
+
+                      fetched.complete(null);
+
+                      releaseObject(slice);
+                    }
+                  });
+            } catch (IOException e) {
+              fetched.complete(null);
+            }
           }
         });
 
-    try {
-      latch.await(3, TimeUnit.SECONDS);
-    } catch (InterruptedException e) {
-      return null;
+    return fetched;
+  }
+
+  /**
+   * Returns the element at the given index in the previous suspension, if it was fetched then.
+   */
+  private WebkitDebugVariable getPreviousElement(int index) {
+    WebkitDebugValue previousValue = variable != null ? variable.getPreviousValue() : null;
+
+    if (previousValue instanceof WebkitDebugIndexedValue) {
+      WebkitRemoteObject element = ((WebkitDebugIndexedValue) previousValue).getIndexAt(index);
+
+      if (element != null) {
+        return new WebkitDebugVariable(
+            getTarget(),
+            WebkitPropertyDescriptor.createIndexProperty(index, element));
+      }
     }
 
-    return results[0];
+    return null;
+  }
+
+  private WebkitRemoteObject getIndexAt(int offset) {
+    synchronized (pages) {
+      WebkitRemoteObject[] elements = pages.get(offset / PAGE_SIZE);
+
+      return elements != null ? elements[offset % PAGE_SIZE] : null;
+    }
+  }
+
+  private int parseIndex(String name) {
+    if (name == null || name.length() == 0 || name.length() > 9) {
+      return -1;
+    }
+
+    int index = 0;
+
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+
+      index = index * 10 + c - '0';
+    }
+
+    return index;
+  }
+
+  private void releaseObject(WebkitRemoteObject object) {
+    try {
+      getConnection().getRuntime().releaseObject(object.getObjectId());
+    } catch (IOException e) {
+      // The slice only stays alive until the page is reloaded.
+    }
   }
 
 }
@@ -20,22 +20,31 @@ import com.github.sdbg.debug.core.internal.util.DebuggerUtils;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitCallFrame;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitCallback;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitLocation;
+import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitPropertyDescriptor;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitRemoteObject;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitResult;
+import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitRuntime.CallArgument;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitScope;
 import com.github.sdbg.debug.core.model.IExceptionStackFrame;
 import com.github.sdbg.debug.core.model.IExpressionEvaluator;
 import com.github.sdbg.debug.core.model.ISDBGStackFrame;
+import com.github.sdbg.debug.core.model.ISDBGVariableContainer;
 import com.github.sdbg.debug.core.model.ISDBGValue.IValueCallback;
 import com.github.sdbg.debug.core.model.IVariableResolver;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.core.resources.IStorage;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.debug.core.DebugEvent;
 import org.eclipse.debug.core.DebugException;
 import org.eclipse.debug.core.model.IDebugTarget;
 import org.eclipse.debug.core.model.IRegisterGroup;
@@ -50,18 +59,46 @@ import org.eclipse.debug.core.model.IWatchExpressionListener;
  * a Browser frame.
  */
 public class WebkitDebugStackFrame extends WebkitDebugElement implements IStackFrame,
-    ISDBGStackFrame, IExceptionStackFrame, IVariableResolver, IExpressionEvaluator {
+    ISDBGStackFrame, ISDBGVariableContainer, IExceptionStackFrame, IVariableResolver,
+    IExpressionEvaluator {
   private IThread thread;
 
-  private WebkitCallFrame webkitFrame;
+  private volatile WebkitCallFrame webkitFrame;
 
-  private boolean isExceptionStackFrame;
+  private volatile WebkitRemoteObject exception;
 
-  private VariableCollector variableCollector = VariableCollector.empty();
+  /**
+   * Created on first use; most frames of a suspended thread are never expanded.
+   */
+  private VariableCollector variableCollector;
+
+  /**
+   * The variables of the previous suspension if this frame was reused, to compare the new ones
+   * with; dropped once those are collected.
+   */
+  private VariableCollector previousVariables;
+
+  /**
+   * The source map location, once it has been looked up; guarded by this frame.
+   */
+  private SourceMapManager.SourceLocation mappedLocation;
+  private boolean mappedLocationKnown;
+
+  /**
+   * The text shown for the exception once its toString() is in, and whether it was asked for;
+   * guarded by this frame.
+   */
+  private String exceptionText;
+  private boolean exceptionTextRequested;
   private IValue classValue;
 
   private IValue globalScopeValue;
 
+  /**
+   * The globals looked up so far, including the ones which do not exist.
+   */
+  private final Map<String, IVariable> globalVariables = new HashMap<String, IVariable>();
+
   public WebkitDebugStackFrame(IDebugTarget target, IThread thread, WebkitCallFrame webkitFrame) {
     this(target, thread, webkitFrame, null);
   }
@@ -72,8 +109,7 @@ public class WebkitDebugStackFrame extends WebkitDebugElement implements IStackF
 
     this.thread = thread;
     this.webkitFrame = webkitFrame;
-
-    fillInWebkitVariables(exception);
+    this.exception = exception;
   }
 
   @Override
@@ -150,44 +186,44 @@ public class WebkitDebugStackFrame extends WebkitDebugElement implements IStackF
   @Override
   public IVariable findVariable(String varName) throws DebugException {
     // search in locals
-    for (IVariable var : getVariables()) {
-      if (var.getName().equals(varName)) {
-        return var;
-      }
+    IVariable var;
+
+    try {
+      var = getVariableCollector().findVariable(varName);
+    } catch (InterruptedException e) {
+      throw new DebugException(new Status(
+          IStatus.ERROR,
+          SDBGDebugCorePlugin.PLUGIN_ID,
+          e.toString(),
+          e));
+    }
+
+    if (var != null) {
+      return var;
     }
 
     // search in instance variables
     IVariable thisVar = getThisVariable();
 
     if (thisVar != null) {
-      IValue thisValue = thisVar.getValue();
+      var = findVariable(thisVar.getValue(), varName);
 
-      for (IVariable var : thisValue.getVariables()) {
-        if (var.getName().equals(varName)) {
-          return var;
-        }
+      if (var != null) {
+        return var;
       }
     }
 
     // search statics
     if (getClassValue() != null) {
-      for (IVariable var : getClassValue().getVariables()) {
-        if (var.getName().equals(varName)) {
-          return var;
-        }
-      }
-    }
+      var = findVariable(getClassValue(), varName);
 
-    // search globals
-    if (getGlobalsScope() != null) {
-      for (IVariable var : getGlobalsScope().getVariables()) {
-        if (var.getName().equals(varName)) {
-          return var;
-        }
+      if (var != null) {
+        return var;
       }
     }
 
-    return null;
+    // search globals
+    return findGlobalVariable(varName);
   }
 
   @SuppressWarnings("rawtypes")
@@ -210,30 +246,50 @@ public class WebkitDebugStackFrame extends WebkitDebugElement implements IStackF
     return -1;
   }
 
+  /**
+   * Returns the text of the exception without waiting for the browser. Until the exception's
+   * toString() is in, this is the description of the exception object; a change event is fired
+   * when the full text is known.
+   */
   @Override
   public String getExceptionDisplayText() throws DebugException {
-    WebkitDebugVariable variable = (WebkitDebugVariable) getVariables()[0];
-    WebkitDebugValue exceptionValue = (WebkitDebugValue) variable.getValue();
+    final WebkitRemoteObject exception = this.exception;
+    boolean requested;
 
-    final String[] result = new String[1];
-    final CountDownLatch latch = new CountDownLatch(1);
+    synchronized (this) {
+      if (exceptionText != null) {
+        return exceptionText;
+      }
 
-    exceptionValue.computeDetail(new IValueCallback() {
-      @Override
-      public void detailComputed(String stringValue) {
-        result[0] = stringValue;
+      requested = exceptionTextRequested;
+      exceptionTextRequested = true;
+    }
 
-        latch.countDown();
-      }
-    });
+    WebkitDebugValue exceptionValue = WebkitDebugValue.create(getTarget(), null, exception);
 
-    try {
-      latch.await(1000, TimeUnit.MILLISECONDS);
-    } catch (InterruptedException e) {
-      return "Exception: " + exceptionValue.getValueString();
+    if (!requested) {
+      exceptionValue.computeDetail(new IValueCallback() {
+        @Override
+        public void detailComputed(String stringValue) {
+          if (stringValue == null) {
+            return;
+          }
+
+          synchronized (WebkitDebugStackFrame.this) {
+            if (WebkitDebugStackFrame.this.exception != exception) {
+              // The frame has been reused for another suspension meanwhile.
+              return;
+            }
+
+            exceptionText = "Exception: " + stringValue;
+          }
+
+          fireChangeEvent(DebugEvent.STATE);
+        }
+      });
     }
 
-    return "Exception: " + result[0];
+    return "Exception: " + exceptionValue.getValueString();
   }
 
   @Override
@@ -323,8 +379,15 @@ public class WebkitDebugStackFrame extends WebkitDebugElement implements IStackF
 
   @Override
   public IVariable[] getVariables() throws DebugException {
+    VariableCollector collector = getVariableCollector();
+
+    // The frame is most likely selected; the next one may well be selected after it.
+    if (thread instanceof WebkitDebugThread) {
+      ((WebkitDebugThread) thread).prefetchVariablesBelow(this);
+    }
+
     try {
-      return variableCollector.getVariables();
+      return collector.getVariables();
     } catch (InterruptedException e) {
       throw new DebugException(new Status(
           IStatus.ERROR,
@@ -334,9 +397,20 @@ public class WebkitDebugStackFrame extends WebkitDebugElement implements IStackF
     }
   }
 
+  @Override
+  public CompletableFuture<IVariable[]> getVariablesAsync() {
+    CompletableFuture<IVariable[]> variables = getVariableCollector().getVariablesAsync();
+
+    if (thread instanceof WebkitDebugThread) {
+      ((WebkitDebugThread) thread).prefetchVariablesBelow(this);
+    }
+
+    return variables;
+  }
+
   @Override
   public boolean hasException() {
-    return isExceptionStackFrame;
+    return exception != null;
   }
 
   @Override
@@ -346,6 +420,17 @@ public class WebkitDebugStackFrame extends WebkitDebugElement implements IStackF
 
   @Override
   public boolean hasVariables() throws DebugException {
+    if (exception != null || !webkitFrame.isStaticMethod() && webkitFrame.getThisObject() != null) {
+      return true;
+    }
+
+    // Every scope but the flattened local one is a variable of its own.
+    for (WebkitScope scope : webkitFrame.getScopeChain()) {
+      if (!scope.isLocal()) {
+        return true;
+      }
+    }
+
     return getVariables().length > 0;
   }
 
@@ -480,24 +565,210 @@ public class WebkitDebugStackFrame extends WebkitDebugElement implements IStackF
   }
 
   /**
-   * Fill in the IVariables from the Webkit variables.
-   * 
-   * @param exception can be null
+   * Returns true if the given call frame of a new suspension can be the same call as this frame:
+   * it runs the same function of the same script, with the same kinds of scopes. If the browser
+   * keeps the ids of its objects across suspensions, which shows in the id of the global scope, the
+   * scopes must also be the same objects; a recursive call or another instance of a closure is not
+   * the same call then.
    */
-  private void fillInWebkitVariables(WebkitRemoteObject exception) {
-    isExceptionStackFrame = (exception != null);
+  boolean isSameCall(WebkitCallFrame other) {
+    if (!Objects.equals(webkitFrame.getFunctionName(), other.getFunctionName())
+        || !Objects.equals(
+            webkitFrame.getLocation().getScriptId(),
+            other.getLocation().getScriptId())) {
+      return false;
+    }
+
+    WebkitScope[] scopes = webkitFrame.getScopeChain();
+    WebkitScope[] otherScopes = other.getScopeChain();
+
+    if (scopes.length != otherScopes.length) {
+      return false;
+    }
+
+    boolean stableIds = false;
+
+    for (int i = 0; i < scopes.length; i++) {
+      if (!Objects.equals(scopes[i].getType(), otherScopes[i].getType())) {
+        return false;
+      }
 
-    WebkitRemoteObject thisObject = null;
-    if (!webkitFrame.isStaticMethod()) {
-      thisObject = webkitFrame.getThisObject();
+      if (scopes[i].isGlobal() && getObjectId(scopes[i]) != null) {
+        stableIds = getObjectId(scopes[i]).equals(getObjectId(otherScopes[i]));
+      }
+    }
+
+    if (stableIds) {
+      for (int i = 0; i < scopes.length; i++) {
+        if (!Objects.equals(getObjectId(scopes[i]), getObjectId(otherScopes[i]))) {
+          return false;
+        }
+      }
     }
 
-    variableCollector = VariableCollector.createCollector(
-        getTarget(),
-        thisObject,
-        exception,
-        true,
-        webkitFrame.getScopeChain());
+    return true;
+  }
+
+  /**
+   * Reuses this frame for the same call in a new suspension. Everything fetched for the old call
+   * frame is dropped, but for the outer scopes the browser hands out under the same object ids
+   * again; the local scope, which a step changes, is always fetched again. The old variables are
+   * kept to reuse those scopes and to tell which values have changed.
+   */
+  synchronized void update(WebkitCallFrame webkitFrame, WebkitRemoteObject exception) {
+    this.webkitFrame = webkitFrame;
+    this.exception = exception;
+
+    previousVariables = variableCollector;
+    variableCollector = null;
+    mappedLocation = null;
+    mappedLocationKnown = false;
+    exceptionText = null;
+    exceptionTextRequested = false;
+    classValue = null;
+    globalScopeValue = null;
+
+    synchronized (globalVariables) {
+      globalVariables.clear();
+    }
+  }
+
+  /**
+   * Looks up the source location of this frame before the views ask for it, and starts fetching the
+   * script source if the location is to be shown from the browser's copy of the script. Mapping
+   * the location can load a source map, so this is meant for a background job.
+   */
+  void prefetchSource() {
+    try {
+      if (getTarget().shouldUseSourceMapping() && isUsingSourceMaps()) {
+        return;
+      }
+
+      ScriptDescriptor script = getConnection().getDebugger().getScript(
+          webkitFrame.getLocation().getScriptId());
+
+      if (script != null && getTarget().getScriptStorage(script) instanceof WebkitScriptStorage) {
+        getConnection().getDebugger().prefetchScriptSource(script);
+      }
+    } catch (Throwable t) {
+      SDBGDebugCorePlugin.logError(t);
+    }
+  }
+
+  /**
+   * Starts collecting the variables of this frame, if that has not happened yet. The collection
+   * itself is asynchronous.
+   */
+  void prefetchVariables() {
+    getVariableCollector();
+  }
+
+  /**
+   * Fill in the IVariables from the Webkit variables, on first use.
+   */
+  private synchronized VariableCollector getVariableCollector() {
+    if (variableCollector == null || variableCollector.isCancelled()) {
+      WebkitRemoteObject thisObject = null;
+      if (!webkitFrame.isStaticMethod()) {
+        thisObject = webkitFrame.getThisObject();
+      }
+
+      variableCollector = VariableCollector.createCollector(
+          getTarget(),
+          thisObject,
+          exception,
+          true,
+          previousVariables,
+          webkitFrame.getScopeChain());
+
+      previousVariables = null;
+    }
+
+    return variableCollector;
+  }
+
+  /**
+   * Looks up a single enumerable property of the global object, instead of enumerating all of
+   * them. A global whose value is undefined is treated like a missing one.
+   */
+  private IVariable findGlobalVariable(final String varName) throws DebugException {
+    synchronized (globalVariables) {
+      if (globalVariables.containsKey(varName)) {
+        return globalVariables.get(varName);
+      }
+    }
+
+    WebkitRemoteObject globalObject = null;
+
+    for (WebkitScope scope : webkitFrame.getScopeChain()) {
+      if (scope.isGlobal()) {
+        globalObject = scope.getObject();
+        break;
+      }
+    }
+
+    if (globalObject == null || globalObject.getObjectId() == null) {
+      return null;
+    }
+
+    final WebkitRemoteObject[] results = new WebkitRemoteObject[1];
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    try {
+      getConnection().getRuntime().callFunctionOn(
+          globalObject.getObjectId(),
+          "function(name){var d=Object.getOwnPropertyDescriptor(this,name);"
+              + "return d&&d.enumerable?this[name]:undefined;}",
+          Collections.singletonList(CallArgument.fromString(varName)),
+          false,
+          new WebkitCallback<WebkitRemoteObject>() {
+            @Override
+            public void handleResult(WebkitResult<WebkitRemoteObject> result) {
+              if (!result.isError() && !result.getWasThrown()) {
+                results[0] = result.getResult();
+              }
+
+              latch.countDown();
+            }
+          });
+
+      if (!latch.await(3, TimeUnit.SECONDS)) {
+        return null;
+      }
+    } catch (IOException e) {
+      throw createDebugException(e);
+    } catch (InterruptedException e) {
+      return null;
+    }
+
+    WebkitDebugVariable variable = null;
+
+    if (results[0] != null && !results[0].isUndefined()) {
+      variable = new WebkitDebugVariable(
+          getTarget(),
+          WebkitPropertyDescriptor.createObjectDescriptor(results[0], varName));
+      variable.setIsStatic(true);
+    }
+
+    synchronized (globalVariables) {
+      globalVariables.put(varName, variable);
+    }
+
+    return variable;
+  }
+
+  private IVariable findVariable(IValue value, String varName) throws DebugException {
+    if (value instanceof WebkitDebugValue) {
+      return ((WebkitDebugValue) value).findVariable(varName);
+    }
+
+    for (IVariable var : value.getVariables()) {
+      if (var.getName().equals(varName)) {
+        return var;
+      }
+    }
+
+    return null;
   }
 
   private String getCallerName() {
@@ -532,6 +803,31 @@ public class WebkitDebugStackFrame extends WebkitDebugElement implements IStackF
   }
 
   private SourceMapManager.SourceLocation getMappedLocation() {
+    WebkitCallFrame webkitFrame = this.webkitFrame;
+
+    synchronized (this) {
+      if (mappedLocationKnown) {
+        return mappedLocation;
+      }
+    }
+
+    SourceMapManager.SourceLocation location = lookUpMappedLocation(webkitFrame);
+
+    synchronized (this) {
+      if (this.webkitFrame == webkitFrame) {
+        mappedLocation = location;
+        mappedLocationKnown = true;
+      }
+    }
+
+    return location;
+  }
+
+  private static String getObjectId(WebkitScope scope) {
+    return scope.getObject() != null ? scope.getObject().getObjectId() : null;
+  }
+
+  private SourceMapManager.SourceLocation lookUpMappedLocation(WebkitCallFrame webkitFrame) {
     IStorage storage = getTarget().getScriptStorageFor(webkitFrame);
 
     if (getTarget().getSourceMapManager() != null
@@ -125,6 +125,29 @@ public class WebkitDebugTarget extends WebkitDebugElement implements IBreakpoint
     domResourceTrackersManager = new WebkitDOMResourceTrackersManager(this);
 
     sourceMapManager = new SourceMapManager(resourceResolver);
+    sourceMapManager.enableLazyLoading(new SourceMapManager.SourcesListener() {
+      @Override
+      public void sourcesLoaded(final IStorage script) {
+        final ISDBGBreakpointManager manager = breakpointManager;
+
+        // The maps no breakpoint is interested in stay unloaded until a pause needs them.
+        if (manager == null || !manager.hasBreakpointsConcerningScript(script)) {
+          return;
+        }
+
+        // Load the map on the job's thread, and only place the breakpoints on the Debugger lane,
+        // in order with the scriptParsed and breakpointResolved notifications the breakpoint
+        // manager handles there.
+        sourceMapManager.loadSourceMap(script);
+
+        connection.getDebugger().dispatch(new Runnable() {
+          @Override
+          public void run() {
+            manager.addBreakpointsConcerningScript(script);
+          }
+        });
+      }
+    });
 
     connection.getDebugger().setResteppingManager(new WebkitResteppingManagerImpl(this));
   }
@@ -19,9 +19,14 @@ import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitRemoteObject;
 import com.github.sdbg.debug.core.model.ISDBGThread;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
 import org.eclipse.debug.core.DebugEvent;
 import org.eclipse.debug.core.DebugException;
 import org.eclipse.debug.core.model.IBreakpoint;
@@ -43,11 +48,50 @@ public class WebkitDebugThread extends WebkitDebugElement implements ISDBGThread
   private IStackFrame[] suspendedFrames = EMPTY_FRAMES;
   private IBreakpoint[] suspendedBreakpoints = EMPTY_BREAKPOINTS;
 
+  /**
+   * The frames of the previous suspension, which the frames of the next one are matched with.
+   */
+  private IStackFrame[] previousFrames = EMPTY_FRAMES;
+
+  /**
+   * What is to be fetched in the background, guarded by itself.
+   */
+  private final LinkedList<Runnable> prefetchTasks = new LinkedList<Runnable>();
+
+  private final Job prefetchJob = new Job("Fetching variables") {
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+      while (!monitor.isCanceled()) {
+        Runnable task;
+
+        synchronized (prefetchTasks) {
+          task = prefetchTasks.poll();
+        }
+
+        if (task == null) {
+          return Status.OK_STATUS;
+        }
+
+        task.run();
+      }
+
+      return Status.CANCEL_STATUS;
+    }
+  };
+
+  /**
+   * Looks up the source of the top frame, next to the variable fetches rather than behind them.
+   */
+  private Job sourceJob;
+
   /**
    * @param target
    */
   public WebkitDebugThread(IDebugTarget target) {
     super(target);
+
+    prefetchJob.setSystem(true);
+    prefetchJob.setPriority(Job.SHORT);
   }
 
   @Override
@@ -245,13 +289,49 @@ public class WebkitDebugThread extends WebkitDebugElement implements ISDBGThread
     suspended = true;
 
     suspendedFrames = createFrames(webkitFrames, exception);
+    previousFrames = EMPTY_FRAMES;
+
+    // The top frame gets selected. Ask for its variables right away, as that only sends a request;
+    // at the same time look up its source location, which may load a source map, and fetch its
+    // source on a job of its own. The variables of its caller follow in the background.
+    if (suspendedFrames.length > 0) {
+      final WebkitDebugStackFrame topFrame = (WebkitDebugStackFrame) suspendedFrames[0];
+
+      topFrame.prefetchVariables();
+
+      sourceJob = new Job("Fetching source") {
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+          topFrame.prefetchSource();
+
+          return Status.OK_STATUS;
+        }
+      };
+      sourceJob.setSystem(true);
+      sourceJob.setPriority(Job.SHORT);
+      sourceJob.schedule();
+    }
+
+    prefetchVariables(suspendedFrames, 1, 1);
 
     fireSuspendEvent(reason);
   }
 
   void handleDebuggerResumed() {
+    synchronized (prefetchTasks) {
+      prefetchTasks.clear();
+    }
+
+    prefetchJob.cancel();
+
+    if (sourceJob != null) {
+      sourceJob.cancel();
+      sourceJob = null;
+    }
+
     // clear data
     suspended = false;
+    previousFrames = suspendedFrames;
     suspendedFrames = EMPTY_FRAMES;
     suspendedBreakpoints = EMPTY_BREAKPOINTS;
 
@@ -263,25 +343,50 @@ public class WebkitDebugThread extends WebkitDebugElement implements ISDBGThread
     getTarget().fireResumeEvent(DebugEvent.RESUME);
   }
 
+  /**
+   * Fetches the variables of the frame below the given one in the background.
+   */
+  void prefetchVariablesBelow(WebkitDebugStackFrame frame) {
+    IStackFrame[] frames = suspendedFrames;
+
+    for (int i = 0; i < frames.length; i++) {
+      if (frames[i] == frame) {
+        prefetchVariables(frames, i + 1, 1);
+        break;
+      }
+    }
+  }
+
+  /**
+   * Creates the frames of a new suspension. Like callers do, the frames at the bottom of the stack
+   * which run the same functions as in the previous suspension are kept and updated, so the views
+   * see the same elements and the changed variables can be told from the unchanged ones. Above the
+   * first frame that differs, all frames are new.
+   */
   private IStackFrame[] createFrames(List<WebkitCallFrame> webkitFrames,
       WebkitRemoteObject exception) {
-    List<IStackFrame> frames = new ArrayList<IStackFrame>();
+    IStackFrame[] previous = previousFrames;
+    IStackFrame[] frames = new IStackFrame[webkitFrames.size()];
+    boolean matching = true;
 
-    for (int i = 0; i < webkitFrames.size(); i++) {
+    for (int i = frames.length - 1; i >= 0; i--) {
       WebkitCallFrame webkitFrame = webkitFrames.get(i);
+      WebkitRemoteObject frameException = i == 0 ? exception : null;
+      int previousIndex = previous.length - frames.length + i;
 
-      WebkitDebugStackFrame frame;
+      if (matching && previousIndex >= 0
+          && ((WebkitDebugStackFrame) previous[previousIndex]).isSameCall(webkitFrame)) {
+        WebkitDebugStackFrame frame = (WebkitDebugStackFrame) previous[previousIndex];
 
-      if (i == 0 && exception != null) {
-        frame = new WebkitDebugStackFrame(getTarget(), this, webkitFrame, exception);
+        frame.update(webkitFrame, frameException);
+        frames[i] = frame;
       } else {
-        frame = new WebkitDebugStackFrame(getTarget(), this, webkitFrame);
+        matching = false;
+        frames[i] = new WebkitDebugStackFrame(getTarget(), this, webkitFrame, frameException);
       }
-
-      frames.add(frame);
     }
 
-    return frames.toArray(new IStackFrame[frames.size()]);
+    return frames;
   }
 
   private IBreakpoint getBreakpointFor(List<WebkitCallFrame> frames) {
@@ -305,4 +410,25 @@ public class WebkitDebugThread extends WebkitDebugElement implements ISDBGThread
   private boolean isDisconnected() {
     return getDebugTarget().isDisconnected();
   }
+
+  private void prefetch(Runnable task) {
+    synchronized (prefetchTasks) {
+      prefetchTasks.add(task);
+    }
+
+    prefetchJob.schedule();
+  }
+
+  private void prefetchVariables(IStackFrame[] frames, int from, int count) {
+    for (int i = from; i < Math.min(from + count, frames.length); i++) {
+      final WebkitDebugStackFrame frame = (WebkitDebugStackFrame) frames[i];
+
+      prefetch(new Runnable() {
+        @Override
+        public void run() {
+          frame.prefetchVariables();
+        }
+      });
+    }
+  }
 }
@@ -17,14 +17,17 @@ import com.github.sdbg.debug.core.SDBGDebugCorePlugin;
 import com.github.sdbg.debug.core.internal.expr.WatchExpressionResult;
 import com.github.sdbg.debug.core.internal.util.DebuggerUtils;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitCallback;
+import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitObjectPreview;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitPropertyDescriptor;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitRemoteObject;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitResult;
 import com.github.sdbg.debug.core.model.IExpressionEvaluator;
 import com.github.sdbg.debug.core.model.ISDBGValue;
+import com.github.sdbg.debug.core.model.ISDBGVariableContainer;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -39,9 +42,9 @@ import org.json.JSONObject;
  * The IValue implementation of Webkit Debug element.
  */
 public class WebkitDebugValue extends WebkitDebugElement implements IValue, ISDBGValue,
-    IExpressionEvaluator {
+    ISDBGVariableContainer, IExpressionEvaluator {
 
-  private WebkitDebugVariable variable;
+  protected WebkitDebugVariable variable;
 
   protected WebkitRemoteObject value;
   protected VariableCollector variableCollector;
@@ -156,7 +159,7 @@ public class WebkitDebugValue extends WebkitDebugElement implements IValue, ISDB
    * @throws DebugException
    */
   public IValue getClassValue() {
-    if (variableCollector == null) {
+    if (variableCollector == null || variableCollector.isCancelled()) {
       populate();
     }
 
@@ -187,7 +190,7 @@ public class WebkitDebugValue extends WebkitDebugElement implements IValue, ISDB
   }
 
   public IValue getLibraryValue() {
-    if (variableCollector == null) {
+    if (variableCollector == null || variableCollector.isCancelled()) {
       populate();
     }
 
@@ -246,7 +249,7 @@ public class WebkitDebugValue extends WebkitDebugElement implements IValue, ISDB
   @Override
   public IVariable[] getVariables() throws DebugException {
     try {
-      if (variableCollector == null) {
+      if (variableCollector == null || variableCollector.isCancelled()) {
         populate();
       }
 
@@ -256,6 +259,30 @@ public class WebkitDebugValue extends WebkitDebugElement implements IValue, ISDB
     }
   }
 
+  @Override
+  public CompletableFuture<IVariable[]> getVariablesAsync() {
+    if (variableCollector == null || variableCollector.isCancelled()) {
+      populate();
+    }
+
+    return variableCollector.getVariablesAsync();
+  }
+
+  /**
+   * Returns the variable of this value with the given name, or null.
+   */
+  public IVariable findVariable(String name) throws DebugException {
+    try {
+      if (variableCollector == null || variableCollector.isCancelled()) {
+        populate();
+      }
+
+      return variableCollector.findVariable(name);
+    } catch (Throwable t) {
+      throw createDebugException(t);
+    }
+  }
+
   @Override
   public boolean hasVariables() throws DebugException {
     try {
@@ -338,7 +365,7 @@ public class WebkitDebugValue extends WebkitDebugElement implements IValue, ISDB
     try {
       getConnection().getRuntime().evaluate(
           expression,
-          null,
+          getConnection().getDebugger().getObjectGroup(),
           false,
           new WebkitCallback<WebkitRemoteObject>() {
             @Override
@@ -402,10 +429,87 @@ public class WebkitDebugValue extends WebkitDebugElement implements IValue, ISDB
       }
     }
 
+    String subtype = value.getSubtype();
+
+    if ("date".equals(subtype) || "regexp".equals(subtype) || "error".equals(subtype)) {
+      if (value.getDescription() != null) {
+        return value.getDescription();
+      }
+    }
+
+    if (value.getPreview() != null) {
+      return getReferenceTypeName() + " " + getPreviewString(value.getPreview());
+    }
+
     // &&& return value.getDescription();
     return getReferenceTypeName();
   }
 
+  private String getPreviewString(WebkitObjectPreview preview) {
+    boolean list = "array".equals(preview.getSubtype());
+    StringBuilder builder = new StringBuilder(list ? "[" : "{");
+
+    if (preview.getEntries() != null) {
+      for (WebkitObjectPreview.Entry entry : preview.getEntries()) {
+        if (builder.length() > 1) {
+          builder.append(", ");
+        }
+
+        if (entry.getKey() != null) {
+          builder.append(entry.getKey()).append(" => ");
+        }
+
+        builder.append(entry.getValue());
+      }
+    } else {
+      for (WebkitObjectPreview.Property property : preview.getProperties()) {
+        if (builder.length() > 1) {
+          builder.append(", ");
+        }
+
+        if (!list || !isIndex(property.getName())) {
+          builder.append(property.getName()).append(": ");
+        }
+
+        builder.append(getPreviewString(property));
+      }
+    }
+
+    if (preview.isOverflow()) {
+      builder.append(builder.length() > 1 ? ", ..." : "...");
+    }
+
+    return builder.append(list ? "]" : "}").toString();
+  }
+
+  private String getPreviewString(WebkitObjectPreview.Property property) {
+    if ("string".equals(property.getType())) {
+      return DebuggerUtils.printString(property.getValue());
+    } else if ("function".equals(property.getType())) {
+      return "Function";
+    } else if ("accessor".equals(property.getType())) {
+      return "(...)";
+    } else if (property.getValue() != null) {
+      return property.getValue();
+    } else {
+      return property.getType();
+    }
+  }
+
+  private boolean isIndex(String name) {
+    if (name == null || name.length() == 0) {
+      return false;
+    }
+
+    for (int i = 0; i < name.length(); i++) {
+      if (!Character.isDigit(name.charAt(i))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
   private String parseObjectId(String objectId) {
     if (objectId == null) {
       return null;
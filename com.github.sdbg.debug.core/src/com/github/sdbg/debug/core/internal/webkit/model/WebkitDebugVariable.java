@@ -15,8 +15,11 @@ package com.github.sdbg.debug.core.internal.webkit.model;
 
 import com.github.sdbg.debug.core.internal.util.DebuggerUtils;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitPropertyDescriptor;
+import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitRemoteObject;
 import com.github.sdbg.debug.core.model.ISDBGVariable;
 
+import java.util.Objects;
+
 import org.eclipse.debug.core.DebugException;
 import org.eclipse.debug.core.model.IValue;
 
@@ -29,6 +32,11 @@ public class WebkitDebugVariable extends WebkitDebugElement implements ISDBGVari
 //  private WebkitDebugVariable parent;
   private WebkitDebugValue value;
 
+  /**
+   * The variable of the same name in the previous suspension, or null.
+   */
+  private WebkitDebugVariable previous;
+
   private boolean isSpecialObject;
   private boolean isLocal;
   private boolean isStatic;
@@ -103,8 +111,13 @@ public class WebkitDebugVariable extends WebkitDebugElement implements ISDBGVari
 
   @Override
   public boolean hasValueChanged() throws DebugException {
-    // TODO(keertip): check to see if value has changed
-    return false;
+    WebkitDebugVariable previous = this.previous;
+
+    if (previous == null) {
+      return false;
+    }
+
+    return !isSameValue(previous.descriptor.getValue(), descriptor.getValue());
   }
 
   @Override
@@ -195,6 +208,46 @@ public class WebkitDebugVariable extends WebkitDebugElement implements ISDBGVari
     return true;
   }
 
+  /**
+   * Returns the object id of the value of this variable, or null if it is a primitive.
+   */
+  String getObjectId() {
+    WebkitRemoteObject object = descriptor.getValue();
+
+    return object != null ? object.getObjectId() : null;
+  }
+
+  /**
+   * Returns the variables the value of this variable had in the previous suspension, if they were
+   * collected then.
+   */
+  VariableCollector getPreviousVariables() {
+    WebkitDebugValue previousValue = getPreviousValue();
+
+    return previousValue != null ? previousValue.variableCollector : null;
+  }
+
+  /**
+   * Returns the value of this variable in the previous suspension, if it was ever looked at.
+   */
+  WebkitDebugValue getPreviousValue() {
+    WebkitDebugVariable previous = this.previous;
+
+    return previous != null ? previous.value : null;
+  }
+
+  /**
+   * Sets the variable of the same name in the previous suspension.
+   */
+  void setPrevious(WebkitDebugVariable previous) {
+    this.previous = previous;
+
+    // Only one suspension is looked back at; don't let the variables of every step pile up.
+    if (previous != null) {
+      previous.previous = null;
+    }
+  }
+
   protected boolean isClassDescriptor() {
     return descriptor.isClassDescriptor();
   }
@@ -210,4 +263,20 @@ public class WebkitDebugVariable extends WebkitDebugElement implements ISDBGVari
   protected void setParent(WebkitDebugVariable parent) {
 //    this.parent = parent;
   }
+
+  /**
+   * Objects are compared by what they look like, as their object ids differ from one suspension to
+   * the next.
+   */
+  private boolean isSameValue(WebkitRemoteObject oldValue, WebkitRemoteObject newValue) {
+    if (oldValue == null || newValue == null) {
+      return oldValue == newValue;
+    }
+
+    return Objects.equals(oldValue.getType(), newValue.getType())
+        && Objects.equals(oldValue.getSubtype(), newValue.getSubtype())
+        && Objects.equals(oldValue.getClassName(), newValue.getClassName())
+        && Objects.equals(oldValue.getValue(), newValue.getValue())
+        && Objects.equals(oldValue.getDescription(), newValue.getDescription());
+  }
 }
@@ -14,19 +14,34 @@
 
 package com.github.sdbg.debug.core.internal.webkit.model;
 
+import com.github.sdbg.debug.core.SDBGDebugCorePlugin;
+import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitCallback;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitConnection;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitConsole;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitConsole.CallFrame;
+import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitResult;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.debug.core.IStreamListener;
 import org.eclipse.debug.core.model.IStreamMonitor;
 
 /**
  * This is a Webkit specific implementation of an IStreamMonitor.
+ * <p>
+ * Console output is collected and handed to the listeners in batches, at most every
+ * {@link #DELIVERY_MILLIS} ms, always on a thread of its own rather than the protocol thread. Only
+ * the most recent output is kept for listeners added later. A page which logs faster than the
+ * configured rate gets its console events disabled for a while.
  */
 class WebkitStreamMonitor implements IStreamMonitor, WebkitConsole.ConsoleListener {
   private final static String FAILED_TO_LOAD = "Failed to load resource";
@@ -34,14 +49,81 @@ class WebkitStreamMonitor implements IStreamMonitor, WebkitConsole.ConsoleListen
   private final static String CHROME_SEARCH_PAGE = "chrome-search://";
   private final static String NEWTAB_MESSAGE = "_/chrome/newtab?";
 
+  /**
+   * The most output kept for listeners added later, in characters.
+   */
+  private static final int MAX_BUFFER_LENGTH = 512 * 1024;
+
+  /**
+   * Output waiting for delivery beyond this length is delivered at once.
+   */
+  private static final int MAX_PENDING_LENGTH = 64 * 1024;
+
+  private static final int DELIVERY_MILLIS = 50;
+
+  /**
+   * How long the console events stay disabled once the message rate was exceeded.
+   */
+  private static final int SUSPEND_MILLIS = 5000;
+
+  private static final ScheduledExecutorService deliverer =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "Console output");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
   private List<IStreamListener> listeners = new ArrayList<IStreamListener>();
 
-  private String lastMessage;
-  private String lastUrl;
-  private int lastLine;
-  private List<CallFrame> lastStackTrace;
+  /**
+   * The text of the last message, or null if it was not shown.
+   */
+  private String lastText;
+  private int lastCount;
+
+  /**
+   * The number of repeats of the last message which have not been shown yet.
+   */
+  private int repeats;
+
+  /**
+   * The delivered output, in the order it was delivered; the oldest is dropped first.
+   */
+  private Deque<String> buffer = new ArrayDeque<String>();
+  private int bufferLength;
+
+  private StringBuilder pending = new StringBuilder();
+
+  /**
+   * The length of the pending output when the console was last cleared, or -1. Only the output
+   * after it is kept for listeners added later.
+   */
+  private int pendingClear = -1;
+
+  /**
+   * The next delivery, or null if none is scheduled.
+   */
+  private ScheduledFuture<?> delivery;
+
+  private final Runnable deliveryTask = new Runnable() {
+    @Override
+    public void run() {
+      deliver();
+    }
+  };
+
+  private int maxMessageRate;
+  private long rateWindowStart;
+  private int rateWindowCount;
 
-  private StringBuilder buffer = new StringBuilder();
+  /**
+   * Set while the console events are disabled, and while the browser reports the messages it
+   * collected in the meantime.
+   */
+  private boolean suspended;
 
   private WebkitConnection connection;
 
@@ -50,87 +132,99 @@ class WebkitStreamMonitor implements IStreamMonitor, WebkitConsole.ConsoleListen
   }
 
   @Override
-  public void addListener(IStreamListener listener) {
+  public synchronized void addListener(IStreamListener listener) {
     listeners.add(listener);
   }
 
   @Override
-  public String getContents() {
-    return buffer.toString();
+  public synchronized String getContents() {
+    StringBuilder contents = new StringBuilder(bufferLength);
+
+    for (String text : buffer) {
+      contents.append(text);
+    }
+
+    return contents.toString();
   }
 
   @Override
-  public void messageAdded(final String message, final String url, int line,
+  public synchronized void messageAdded(final String message, final String url, int line,
       List<CallFrame> stackTrace) {
-    lastMessage = message;
-    lastUrl = url;
-    lastLine = line;
-    lastStackTrace = stackTrace;
-
-    if (!shouldIgnoreMessage(message, url)) {
-      String text = message;
-
-      // If we get a failed to load message, also include the url that didn't load.
-      if (message != null && message.startsWith(FAILED_TO_LOAD)) {
-        if (url != null) {
-          text += "\n  " + url;
-        }
-      }
-
-      //   Rodent.toString (file:///Users/foo.../debuggertest/pets.dart:79:7)
-      if (stackTrace != null && stackTrace.size() > 0) {
-        // If we're not printing out a blank line.
-        if (text.trim().length() > 0) {
-          CallFrame topFrame = stackTrace.get(0);
+    if (suspended) {
+      return;
+    }
 
-          // dartbug.com/16805
-          if (!"undefined".equals(topFrame.url)) {
-            text += " (" + topFrame.url + ":" + topFrame.lineNumber + ")";
-          }
-        }
-      }
+    appendRepeats();
 
-      text += "\n";
+    lastText = null;
+    lastCount = 1;
 
-      buffer.append(text);
+    if (!shouldIgnoreMessage(message, url) && countMessage()) {
+      lastText = formatMessage(message, url, stackTrace);
 
-      for (IStreamListener listener : listeners.toArray(new IStreamListener[listeners.size()])) {
-        listener.streamAppended(text, this);
-      }
+      append(lastText);
     }
   }
 
   @Override
-  public void messageRepeatCountUpdated(int count) {
-    messageAdded(lastMessage, lastUrl, lastLine, lastStackTrace);
+  public synchronized void messageRepeatCountUpdated(int count) {
+    if (suspended || lastText == null) {
+      return;
+    }
+
+    // Repeats are shown once per delivery rather than once per message.
+    if (countMessage()) {
+      repeats += Math.max(1, count - lastCount);
+      scheduleDelivery(DELIVERY_MILLIS);
+    }
+
+    lastCount = count;
   }
 
   @Override
-  public void messagesCleared() {
-    lastMessage = null;
-    buffer.setLength(0);
+  public synchronized void messagesCleared() {
+    appendRepeats();
+
+    lastText = null;
+
+    // The output before the clear still goes to the listeners, in order, with the next delivery.
+    pendingClear = pending.length();
+    scheduleDelivery(0);
   }
 
   @Override
-  public void removeListener(IStreamListener listener) {
+  public synchronized void removeListener(IStreamListener listener) {
     listeners.remove(listener);
   }
 
   protected void connectTo(WebkitConnection connection) throws IOException {
-    if (this.connection != null) {
-      messagesCleared();
+    synchronized (this) {
+      if (this.connection != null) {
+        messagesCleared();
 
-      this.connection.getConsole().removeConsoleListener(this);
-    }
+        this.connection.getConsole().removeConsoleListener(this);
+      }
+
+      this.connection = connection;
 
-    this.connection = connection;
+      maxMessageRate = SDBGDebugCorePlugin.getPlugin().getMaxConsoleMessageRate();
+      rateWindowCount = 0;
+      suspended = false;
+    }
 
     connection.getConsole().addConsoleListener(this);
     connection.getConsole().enable();
   }
 
-  protected void messageAdded(String message) {
-    messageAdded(message, null, -1, null);
+  /**
+   * Shows a message of the debugger; these are neither rate limited nor suspended.
+   */
+  protected synchronized void messageAdded(String message) {
+    appendRepeats();
+
+    lastText = null;
+
+    append(formatMessage(message, null, null));
   }
 
   boolean shouldIgnoreMessage(String message, String url) {
@@ -162,4 +256,199 @@ class WebkitStreamMonitor implements IStreamMonitor, WebkitConsole.ConsoleListen
     return false;
   }
 
+  private void append(String text) {
+    pending.append(text);
+
+    scheduleDelivery(pending.length() >= MAX_PENDING_LENGTH ? 0 : DELIVERY_MILLIS);
+  }
+
+  private void appendRepeats() {
+    if (repeats == 1) {
+      pending.append(lastText);
+    } else if (repeats > 1) {
+      pending.append(lastText.substring(0, lastText.length() - 1) + " (repeated " + repeats
+          + " more times)\n");
+    }
+
+    repeats = 0;
+  }
+
+  /**
+   * Counts a message against the maximum rate; returns false, and suspends the console events, if
+   * the message exceeds it.
+   */
+  private boolean countMessage() {
+    if (maxMessageRate <= 0) {
+      return true;
+    }
+
+    long now = System.currentTimeMillis();
+
+    if (now - rateWindowStart >= 1000) {
+      rateWindowStart = now;
+      rateWindowCount = 0;
+    }
+
+    rateWindowCount++;
+
+    if (rateWindowCount <= maxMessageRate) {
+      return true;
+    }
+
+    if (rateWindowCount == maxMessageRate + 1 && connection != null) {
+      suspend();
+    }
+
+    return false;
+  }
+
+  /**
+   * Hands the pending output to the listeners; only called on the {@link #deliverer} thread.
+   */
+  private synchronized void deliver() {
+    delivery = null;
+
+    appendRepeats();
+
+    String text = pending.toString();
+    String kept = text;
+
+    pending.setLength(0);
+
+    if (pendingClear != -1) {
+      buffer.clear();
+      bufferLength = 0;
+      kept = text.substring(pendingClear);
+      pendingClear = -1;
+    }
+
+    if (text.length() == 0) {
+      return;
+    }
+
+    if (kept.length() > MAX_BUFFER_LENGTH) {
+      buffer.clear();
+      bufferLength = 0;
+      kept = kept.substring(kept.length() - MAX_BUFFER_LENGTH);
+    }
+
+    if (kept.length() > 0) {
+      buffer.addLast(kept);
+      bufferLength += kept.length();
+    }
+
+    while (bufferLength > MAX_BUFFER_LENGTH) {
+      bufferLength -= buffer.removeFirst().length();
+    }
+
+    for (IStreamListener listener : listeners.toArray(new IStreamListener[listeners.size()])) {
+      try {
+        listener.streamAppended(text, this);
+      } catch (Throwable t) {
+        SDBGDebugCorePlugin.logError(t);
+      }
+    }
+  }
+
+  private String formatMessage(String message, String url, List<CallFrame> stackTrace) {
+    String text = message;
+
+    // If we get a failed to load message, also include the url that didn't load.
+    if (message != null && message.startsWith(FAILED_TO_LOAD)) {
+      if (url != null) {
+        text += "\n  " + url;
+      }
+    }
+
+    //   Rodent.toString (file:///Users/foo.../debuggertest/pets.dart:79:7)
+    if (stackTrace != null && stackTrace.size() > 0) {
+      // If we're not printing out a blank line.
+      if (text.trim().length() > 0) {
+        CallFrame topFrame = stackTrace.get(0);
+
+        // dartbug.com/16805
+        if (!"undefined".equals(topFrame.url)) {
+          text += " (" + topFrame.url + ":" + topFrame.lineNumber + ")";
+        }
+      }
+    }
+
+    return text + "\n";
+  }
+
+  /**
+   * Re-enables the console events of the given connection, unless it has been replaced since. The
+   * messages the browser collected in the meantime are not shown.
+   */
+  private void resume(WebkitConnection suspendedConnection) {
+    synchronized (this) {
+      if (connection != suspendedConnection || !connection.isConnected()) {
+        return;
+      }
+    }
+
+    try {
+      suspendedConnection.getConsole().enable(new WebkitCallback<Boolean>() {
+        @Override
+        public void handleResult(WebkitResult<Boolean> result) {
+          // This runs on the Console lane, behind the messages the browser reports before its
+          // response, so those are still dropped.
+          synchronized (WebkitStreamMonitor.this) {
+            suspended = false;
+            rateWindowCount = 0;
+          }
+        }
+      });
+    } catch (IOException e) {
+      // The connection was closed.
+
+    }
+  }
+
+  /**
+   * Schedules a delivery within the given delay, unless one is due by then already.
+   */
+  private void scheduleDelivery(int delayMillis) {
+    if (delivery != null) {
+      if (delivery.getDelay(TimeUnit.MILLISECONDS) <= delayMillis) {
+        return;
+      }
+
+      delivery.cancel(false);
+    }
+
+    delivery = deliverer.schedule(deliveryTask, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Disables the console events for a while; called when the maximum message rate is exceeded.
+   */
+  private void suspend() {
+    final WebkitConnection suspendedConnection = connection;
+
+    suspended = true;
+
+    append("<console output suspended for " + (SUSPEND_MILLIS / 1000) + " seconds: more than "
+        + maxMessageRate + " messages per second>\n");
+
+    deliverer.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          suspendedConnection.getConsole().disable();
+        } catch (IOException e) {
+          // The connection was closed.
+          return;
+        }
+
+        deliverer.schedule(new Runnable() {
+          @Override
+          public void run() {
+            resume(suspendedConnection);
+          }
+        }, SUSPEND_MILLIS, TimeUnit.MILLISECONDS);
+      }
+    });
+  }
+
 }
@@ -0,0 +1,788 @@
+/*
+ * Copyright (c) 2013, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.sdbg.debug.core.internal.webkit.protocol;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A pull parser (streaming tokenizer) for WIP messages.
+ * <p>
+ * Protocol objects bind themselves field by field from the token stream and skip the subtrees
+ * they are not interested in, instead of first materializing the whole message as an org.json
+ * tree. Where a caller does need a tree (e.g. a raw "value" field), {@link #readValue()} builds one
+ * with the same value types org.json would produce.
+ * <p>
+ * The parser reads from a char array; a heap {@link CharBuffer} is parsed in place without
+ * copying.
+ */
+public class JsonPullParser {
+  public static enum Token {
+    BEGIN_OBJECT,
+    END_OBJECT,
+    BEGIN_ARRAY,
+    END_ARRAY,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+  }
+
+  private static final int EMPTY_DOCUMENT = 0;
+  private static final int NONEMPTY_DOCUMENT = 1;
+  private static final int EMPTY_OBJECT = 2;
+  private static final int NONEMPTY_OBJECT = 3;
+  private static final int DANGLING_NAME = 4;
+  private static final int EMPTY_ARRAY = 5;
+  private static final int NONEMPTY_ARRAY = 6;
+
+  private static final int NAME_CACHE_SIZE = 512;
+  private static final int MAX_CACHED_NAME_LENGTH = 32;
+
+  /**
+   * Property names in WIP messages come from a small vocabulary; they are shared between all
+   * parsers instead of being allocated for every occurrence. Races on this cache are benign.
+   */
+  private static final String[] NAME_CACHE = new String[NAME_CACHE_SIZE];
+
+  private final char[] buf;
+  private final int limit;
+  private int pos;
+
+  private int[] stack = new int[16];
+  private int depth;
+
+  private Token peeked;
+  private int tokenStart;
+
+  public JsonPullParser(CharSequence text) {
+    if (text instanceof CharBuffer && ((CharBuffer) text).hasArray()) {
+      CharBuffer buffer = (CharBuffer) text;
+
+      this.buf = buffer.array();
+      this.pos = buffer.arrayOffset() + buffer.position();
+      this.limit = buffer.arrayOffset() + buffer.limit();
+    } else {
+      this.buf = text.toString().toCharArray();
+      this.pos = 0;
+      this.limit = buf.length;
+    }
+
+    stack[depth++] = EMPTY_DOCUMENT;
+  }
+
+  private JsonPullParser(char[] buf, int start, int end) {
+    this.buf = buf;
+    this.pos = start;
+    this.limit = end;
+
+    stack[depth++] = EMPTY_DOCUMENT;
+  }
+
+  public void beginArray() throws JSONException {
+    expect(Token.BEGIN_ARRAY);
+    push(EMPTY_ARRAY);
+  }
+
+  public void beginObject() throws JSONException {
+    expect(Token.BEGIN_OBJECT);
+    push(EMPTY_OBJECT);
+  }
+
+  /**
+   * Consume the next value and return a parser over just that value. The returned parser shares
+   * this parser's characters; use {@link #copyValue()} if it has to outlive the underlying buffer.
+   */
+  public JsonPullParser captureValue() throws JSONException {
+    int start = valueStart();
+    skipValue();
+    return new JsonPullParser(buf, start, pos);
+  }
+
+  /**
+   * Like {@link #captureValue()}, but the returned parser owns a private copy of the characters.
+   */
+  public JsonPullParser copyValue() throws JSONException {
+    int start = valueStart();
+    skipValue();
+    return new JsonPullParser(Arrays.copyOfRange(buf, start, pos), 0, pos - start);
+  }
+
+  public void endArray() throws JSONException {
+    expect(Token.END_ARRAY);
+    depth--;
+  }
+
+  public void endObject() throws JSONException {
+    expect(Token.END_OBJECT);
+    depth--;
+  }
+
+  /**
+   * Return whether the current array or object has another element.
+   */
+  public boolean hasNext() throws JSONException {
+    Token token = peek();
+
+    return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+  }
+
+  public boolean nextBoolean() throws JSONException {
+    Token token = peek();
+
+    if (token == Token.BOOLEAN) {
+      peeked = null;
+
+      if (matchLiteral("true")) {
+        return true;
+      } else if (matchLiteral("false")) {
+        return false;
+      }
+    } else if (token == Token.STRING) {
+      String str = nextString();
+
+      if ("true".equalsIgnoreCase(str)) {
+        return true;
+      } else if ("false".equalsIgnoreCase(str)) {
+        return false;
+      }
+    }
+
+    throw syntaxError("expected a boolean");
+  }
+
+  public double nextDouble() throws JSONException {
+    Token token = peek();
+
+    if (token == Token.NUMBER) {
+      peeked = null;
+
+      int start = pos;
+      skipLiteral();
+      return parseDouble(start, pos);
+    } else if (token == Token.STRING) {
+      String str = nextString();
+
+      try {
+        return Double.parseDouble(str);
+      } catch (NumberFormatException exception) {
+        throw syntaxError("expected a number");
+      }
+    }
+
+    throw syntaxError("expected a number");
+  }
+
+  public int nextInt() throws JSONException {
+    long value = nextLong();
+
+    if (value != (int) value) {
+      throw syntaxError("number out of int range");
+    }
+
+    return (int) value;
+  }
+
+  public long nextLong() throws JSONException {
+    Token token = peek();
+
+    if (token == Token.NUMBER) {
+      peeked = null;
+
+      int start = pos;
+      skipLiteral();
+
+      if (isIntegral(start, pos) && pos - start <= 18) {
+        return parseLong(start, pos);
+      } else {
+        return (long) parseDouble(start, pos);
+      }
+    } else if (token == Token.STRING) {
+      String str = nextString();
+
+      try {
+        return Long.parseLong(str);
+      } catch (NumberFormatException exception) {
+        try {
+          return (long) Double.parseDouble(str);
+        } catch (NumberFormatException ex) {
+          throw syntaxError("expected a number");
+        }
+      }
+    }
+
+    throw syntaxError("expected a number");
+  }
+
+  public String nextName() throws JSONException {
+    expect(Token.NAME);
+
+    int start = pos;
+    int end = scanString();
+
+    if (end < 0) {
+      return readEscapedString(start);
+    } else {
+      pos = end + 1;
+
+      return cachedName(start, end);
+    }
+  }
+
+  public void nextNull() throws JSONException {
+    expect(Token.NULL);
+
+    if (!matchLiteral("null")) {
+      throw syntaxError("expected null");
+    }
+  }
+
+  /**
+   * Return the next string value. Numbers and booleans are returned as their literal text, and
+   * null as <code>null</code>.
+   */
+  public String nextString() throws JSONException {
+    Token token = peek();
+
+    switch (token) {
+      case STRING: {
+        peeked = null;
+
+        int start = pos;
+        int end = scanString();
+
+        if (end < 0) {
+          return readEscapedString(start);
+        } else {
+          pos = end + 1;
+
+          return new String(buf, start, end - start);
+        }
+      }
+      case NUMBER:
+      case BOOLEAN: {
+        peeked = null;
+
+        int start = pos;
+        skipLiteral();
+        return new String(buf, start, pos - start);
+      }
+      case NULL:
+        nextNull();
+        return null;
+      default:
+        throw syntaxError("expected a string but was " + token);
+    }
+  }
+
+  public Token peek() throws JSONException {
+    if (peeked != null) {
+      return peeked;
+    }
+
+    switch (stack[depth - 1]) {
+      case EMPTY_DOCUMENT:
+        stack[depth - 1] = NONEMPTY_DOCUMENT;
+        break;
+      case NONEMPTY_DOCUMENT:
+        // We only ever read a single top-level value; anything after it is ignored.
+        tokenStart = pos;
+        return peeked = Token.END_DOCUMENT;
+      case EMPTY_OBJECT:
+      case NONEMPTY_OBJECT: {
+        char c = nextNonWhitespace();
+
+        if (c == '}') {
+          tokenStart = pos - 1;
+          return peeked = Token.END_OBJECT;
+        }
+
+        if (stack[depth - 1] == NONEMPTY_OBJECT) {
+          if (c != ',') {
+            throw syntaxError("expected ',' or '}'");
+          }
+
+          c = nextNonWhitespace();
+        }
+
+        if (c != '"') {
+          throw syntaxError("expected a name");
+        }
+
+        stack[depth - 1] = DANGLING_NAME;
+        tokenStart = pos - 1;
+        return peeked = Token.NAME;
+      }
+      case DANGLING_NAME:
+        if (nextNonWhitespace() != ':') {
+          throw syntaxError("expected ':'");
+        }
+
+        stack[depth - 1] = NONEMPTY_OBJECT;
+        break;
+      case EMPTY_ARRAY: {
+        char c = nextNonWhitespace();
+
+        if (c == ']') {
+          tokenStart = pos - 1;
+          return peeked = Token.END_ARRAY;
+        }
+
+        pos--;
+        stack[depth - 1] = NONEMPTY_ARRAY;
+        break;
+      }
+      case NONEMPTY_ARRAY: {
+        char c = nextNonWhitespace();
+
+        if (c == ']') {
+          tokenStart = pos - 1;
+          return peeked = Token.END_ARRAY;
+        }
+
+        if (c != ',') {
+          throw syntaxError("expected ',' or ']'");
+        }
+        break;
+      }
+    }
+
+    char c = nextNonWhitespace();
+
+    tokenStart = pos - 1;
+
+    switch (c) {
+      case '{':
+        return peeked = Token.BEGIN_OBJECT;
+      case '[':
+        return peeked = Token.BEGIN_ARRAY;
+      case '"':
+        return peeked = Token.STRING;
+      case 't':
+      case 'f':
+        pos--;
+        return peeked = Token.BOOLEAN;
+      case 'n':
+        pos--;
+        return peeked = Token.NULL;
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          pos--;
+          return peeked = Token.NUMBER;
+        }
+
+        throw syntaxError("unexpected character '" + c + "'");
+    }
+  }
+
+  /**
+   * Read the next value as org.json would represent it: a JSONObject, JSONArray, String, Boolean,
+   * Number or JSONObject.NULL.
+   */
+  public Object readValue() throws JSONException {
+    switch (peek()) {
+      case BEGIN_OBJECT:
+        return readJSONObject();
+      case BEGIN_ARRAY: {
+        JSONArray array = new JSONArray();
+
+        beginArray();
+
+        while (hasNext()) {
+          array.put(readValue());
+        }
+
+        endArray();
+
+        return array;
+      }
+      case STRING:
+        return nextString();
+      case BOOLEAN:
+        return Boolean.valueOf(nextBoolean());
+      case NULL:
+        nextNull();
+        return JSONObject.NULL;
+      case NUMBER: {
+        peeked = null;
+
+        int start = pos;
+        skipLiteral();
+        return toNumber(start, pos);
+      }
+      default:
+        throw syntaxError("expected a value");
+    }
+  }
+
+  public JSONObject readJSONObject() throws JSONException {
+    JSONObject object = new JSONObject();
+
+    beginObject();
+
+    while (hasNext()) {
+      String name = nextName();
+
+      object.put(name, readValue());
+    }
+
+    endObject();
+
+    return object;
+  }
+
+  /**
+   * Skip the next value, including any nested objects and arrays, without allocating.
+   */
+  public void skipValue() throws JSONException {
+    Token token = peek();
+
+    peeked = null;
+
+    switch (token) {
+      case BEGIN_OBJECT:
+      case BEGIN_ARRAY:
+        skipContainer();
+        break;
+      case STRING:
+        skipString();
+        break;
+      case NUMBER:
+      case BOOLEAN:
+      case NULL:
+        skipLiteral();
+        break;
+      default:
+        peeked = token;
+        throw syntaxError("expected a value but was " + token);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return new String(buf, pos, Math.min(limit - pos, 64));
+  }
+
+  private String cachedName(int start, int end) {
+    int length = end - start;
+
+    if (length > MAX_CACHED_NAME_LENGTH) {
+      return new String(buf, start, length);
+    }
+
+    int hash = 0;
+
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + buf[i];
+    }
+
+    int index = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+
+    String name = NAME_CACHE[index];
+
+    if (name != null && name.length() == length) {
+      boolean same = true;
+
+      for (int i = 0; i < length; i++) {
+        if (name.charAt(i) != buf[start + i]) {
+          same = false;
+          break;
+        }
+      }
+
+      if (same) {
+        return name;
+      }
+    }
+
+    name = new String(buf, start, length);
+    NAME_CACHE[index] = name;
+    return name;
+  }
+
+  private void expect(Token token) throws JSONException {
+    Token actual = peek();
+
+    if (actual != token) {
+      throw syntaxError("expected " + token + " but was " + actual);
+    }
+
+    peeked = null;
+  }
+
+  private boolean isIntegral(int start, int end) {
+    for (int i = start; i < end; i++) {
+      char c = buf[i];
+
+      if (c == '.' || c == 'e' || c == 'E') {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private boolean matchLiteral(String literal) {
+    int length = literal.length();
+
+    if (pos + length > limit) {
+      return false;
+    }
+
+    for (int i = 0; i < length; i++) {
+      if (buf[pos + i] != literal.charAt(i)) {
+        return false;
+      }
+    }
+
+    pos += length;
+
+    return true;
+  }
+
+  private char nextNonWhitespace() throws JSONException {
+    while (pos < limit) {
+      char c = buf[pos++];
+
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        return c;
+      }
+    }
+
+    throw syntaxError("unexpected end of input");
+  }
+
+  private double parseDouble(int start, int end) throws JSONException {
+    try {
+      return Double.parseDouble(new String(buf, start, end - start));
+    } catch (NumberFormatException exception) {
+      throw syntaxError("malformed number");
+    }
+  }
+
+  private long parseLong(int start, int end) throws JSONException {
+    boolean negative = buf[start] == '-';
+    long value = 0;
+
+    for (int i = negative ? start + 1 : start; i < end; i++) {
+      char c = buf[i];
+
+      if (c < '0' || c > '9') {
+        throw syntaxError("malformed number");
+      }
+
+      value = value * 10 + (c - '0');
+    }
+
+    return negative ? -value : value;
+  }
+
+  private void push(int scope) {
+    if (depth == stack.length) {
+      stack = Arrays.copyOf(stack, depth * 2);
+    }
+
+    stack[depth++] = scope;
+  }
+
+  private String readEscapedString(int start) throws JSONException {
+    StringBuilder builder = new StringBuilder();
+
+    pos = start;
+
+    while (pos < limit) {
+      char c = buf[pos++];
+
+      if (c == '"') {
+        return builder.toString();
+      } else if (c == '\\') {
+        if (pos >= limit) {
+          break;
+        }
+
+        c = buf[pos++];
+
+        switch (c) {
+          case 'b':
+            builder.append('\b');
+            break;
+          case 't':
+            builder.append('\t');
+            break;
+          case 'n':
+            builder.append('\n');
+            break;
+          case 'f':
+            builder.append('\f');
+            break;
+          case 'r':
+            builder.append('\r');
+            break;
+          case 'u':
+            if (pos + 4 > limit) {
+              throw syntaxError("malformed unicode escape");
+            }
+
+            try {
+              builder.append((char) Integer.parseInt(new String(buf, pos, 4), 16));
+            } catch (NumberFormatException exception) {
+              throw syntaxError("malformed unicode escape");
+            }
+
+            pos += 4;
+            break;
+          default:
+            // '"', '\\', '/' and anything else is taken literally.
+            builder.append(c);
+            break;
+        }
+      } else {
+        builder.append(c);
+      }
+    }
+
+    throw syntaxError("unterminated string");
+  }
+
+  /**
+   * Return the index of the closing quote of the string starting at pos, or -1 if the string
+   * contains escapes.
+   */
+  private int scanString() throws JSONException {
+    for (int i = pos; i < limit; i++) {
+      char c = buf[i];
+
+      if (c == '"') {
+        return i;
+      } else if (c == '\\') {
+        return -1;
+      }
+    }
+
+    throw syntaxError("unterminated string");
+  }
+
+  private void skipContainer() throws JSONException {
+    int nesting = 1;
+
+    while (pos < limit) {
+      char c = buf[pos++];
+
+      if (c == '"') {
+        skipString();
+      } else if (c == '{' || c == '[') {
+        nesting++;
+      } else if (c == '}' || c == ']') {
+        if (--nesting == 0) {
+          return;
+        }
+      }
+    }
+
+    throw syntaxError("unexpected end of input");
+  }
+
+  private void skipLiteral() {
+    while (pos < limit) {
+      char c = buf[pos];
+
+      if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t'
+          || c == ':') {
+        break;
+      }
+
+      pos++;
+    }
+  }
+
+  private void skipString() throws JSONException {
+    while (pos < limit) {
+      char c = buf[pos++];
+
+      if (c == '"') {
+        return;
+      } else if (c == '\\') {
+        pos++;
+      }
+    }
+
+    throw syntaxError("unterminated string");
+  }
+
+  private JSONException syntaxError(String message) {
+    return new JSONException(message + " at character " + pos);
+  }
+
+  /**
+   * Mirror org.json's number conversion, so that raw values look the same as they did when they
+   * were parsed by JSONObject.
+   */
+  private Number toNumber(int start, int end) throws JSONException {
+    if (isIntegral(start, end) && !(end - start == 2 && buf[start] == '-' && buf[start + 1] == '0')) {
+      if (end - start <= 18) {
+        long value = parseLong(start, end);
+
+        if (value == (int) value) {
+          return Integer.valueOf((int) value);
+        }
+
+        return Long.valueOf(value);
+      }
+
+      try {
+        BigInteger value = new BigInteger(new String(buf, start, end - start));
+
+        if (value.bitLength() <= 63) {
+          return Long.valueOf(value.longValue());
+        }
+
+        return value;
+      } catch (NumberFormatException exception) {
+        throw syntaxError("malformed number");
+      }
+    }
+
+    try {
+      BigDecimal value = new BigDecimal(new String(buf, start, end - start));
+
+      if (buf[start] == '-' && BigDecimal.ZERO.compareTo(value) == 0) {
+        return Double.valueOf(-0.0);
+      }
+
+      return value;
+    } catch (NumberFormatException exception) {
+      return Double.valueOf(parseDouble(start, end));
+    }
+  }
+
+  private int valueStart() throws JSONException {
+    Token token = peek();
+
+    if (token == Token.NAME || token == Token.END_OBJECT || token == Token.END_ARRAY
+        || token == Token.END_DOCUMENT) {
+      throw syntaxError("expected a value but was " + token);
+    }
+
+    return tokenStart;
+  }
+}
@@ -31,6 +31,28 @@ public class WebkitBreakpoint {
     return breakpoint;
   }
 
+  public static WebkitBreakpoint createFrom(JsonPullParser parser) throws JSONException {
+    WebkitBreakpoint breakpoint = new WebkitBreakpoint();
+
+    parser.beginObject();
+
+    while (parser.hasNext()) {
+      String name = parser.nextName();
+
+      if ("breakpointId".equals(name)) {
+        breakpoint.breakpointId = parser.nextString();
+      } else if ("location".equals(name)) {
+        breakpoint.location = WebkitLocation.createFrom(parser);
+      } else {
+        parser.skipValue();
+      }
+    }
+
+    parser.endObject();
+
+    return breakpoint;
+  }
+
   public static WebkitBreakpoint createFrom(String breakpointId, WebkitLocation location) {
     WebkitBreakpoint breakpoint = new WebkitBreakpoint();
 
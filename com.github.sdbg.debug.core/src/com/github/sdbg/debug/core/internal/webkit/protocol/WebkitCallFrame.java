@@ -49,6 +49,48 @@ public class WebkitCallFrame {
     return frames;
   }
 
+  static List<WebkitCallFrame> createFrom(JsonPullParser parser) throws JSONException {
+    List<WebkitCallFrame> frames = new ArrayList<WebkitCallFrame>();
+
+    parser.beginArray();
+
+    while (parser.hasNext()) {
+      frames.add(createFrameFrom(parser));
+    }
+
+    parser.endArray();
+
+    return frames;
+  }
+
+  private static WebkitCallFrame createFrameFrom(JsonPullParser parser) throws JSONException {
+    WebkitCallFrame frame = new WebkitCallFrame();
+
+    parser.beginObject();
+
+    while (parser.hasNext()) {
+      String name = parser.nextName();
+
+      if ("callFrameId".equals(name)) {
+        frame.callFrameId = parser.nextString();
+      } else if ("functionName".equals(name)) {
+        frame.functionName = parser.nextString();
+      } else if ("location".equals(name)) {
+        frame.location = WebkitLocation.createFrom(parser);
+      } else if ("this".equals(name)) {
+        frame.thisObject = WebkitRemoteObject.createFrom(parser);
+      } else if ("scopeChain".equals(name)) {
+        frame.scopeChain = WebkitScope.createScopesFrom(parser);
+      } else {
+        parser.skipValue();
+      }
+    }
+
+    parser.endObject();
+
+    return frame;
+  }
+
   private static WebkitCallFrame createFrom(JSONObject object) throws JSONException {
     WebkitCallFrame frame = new WebkitCallFrame();
 
@@ -20,9 +20,11 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -80,10 +82,64 @@ public class WebkitConnection {
     public void handleResult(JSONObject result) throws JSONException;
   }
 
+  /**
+   * A callback that binds its result straight from the response's token stream. The parser is
+   * positioned on the "result" value and is only valid for the duration of the call.
+   */
+  static interface StreamingCallback extends Callback {
+    public void handleResult(JsonPullParser result) throws JSONException;
+  }
+
   static interface NotificationHandler {
     public void handleNotification(String method, JSONObject params) throws JSONException;
   }
 
+  /**
+   * A notification handler that binds the notification params from a token stream. The parser is
+   * <code>null</code> if the notification has no params.
+   */
+  static interface StreamingNotificationHandler {
+    public void handleNotification(String method, JsonPullParser params) throws JSONException;
+  }
+
+  /**
+   * An in-flight request: the optional domain callback and the future handed back to the caller.
+   */
+  private static class PendingRequest {
+    final Callback callback;
+    final CompletableFuture<JSONObject> future = new CompletableFuture<JSONObject>();
+
+    PendingRequest(Callback callback) {
+      this.callback = callback;
+    }
+
+    void complete(JSONObject result) {
+      try {
+        if (callback != null) {
+          callback.handleResult(result);
+        }
+
+        future.complete(result);
+      } catch (Throwable exception) {
+        future.completeExceptionally(exception);
+
+        SDBGDebugCorePlugin.logError(exception);
+      }
+    }
+
+    void complete(JsonPullParser result) {
+      try {
+        ((StreamingCallback) callback).handleResult(result);
+
+        future.complete(null);
+      } catch (Throwable exception) {
+        future.completeExceptionally(exception);
+
+        SDBGDebugCorePlugin.logError(exception);
+      }
+    }
+  }
+
   private URI webSocketUri;
 
   private String host;
@@ -104,10 +160,13 @@ public class WebkitConnection {
   private WebkitNetwork network;
   private WebkitObservatory observatory;
 
-  private int requestId = 0;
+  private final AtomicInteger requestId = new AtomicInteger();
+
+  private Map<String, NotificationHandler> notificationHandlers = new ConcurrentHashMap<String, NotificationHandler>();
+  private Map<String, StreamingNotificationHandler> streamingNotificationHandlers = new ConcurrentHashMap<String, StreamingNotificationHandler>();
+  private Map<Integer, PendingRequest> callbackMap = new ConcurrentHashMap<Integer, PendingRequest>();
 
-  private Map<String, NotificationHandler> notificationHandlers = new HashMap<String, NotificationHandler>();
-  private Map<Integer, Callback> callbackMap = new HashMap<Integer, Callback>();
+  private final WebkitNotificationDispatcher notificationDispatcher = new WebkitNotificationDispatcher();
 
   private List<WebkitConnectionListener> connectionListeners = new ArrayList<WebkitConnectionListener>();
 
@@ -299,35 +358,91 @@ public class WebkitConnection {
     connectionListeners.remove(listener);
   }
 
+  /**
+   * Queue the given task on the lane of the given domain prefix, behind the notifications of that
+   * domain received so far.
+   */
+  protected void dispatch(String domain, final Runnable task) {
+    notificationDispatcher.dispatch(domain, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } catch (Throwable exception) {
+          SDBGDebugCorePlugin.logError(exception);
+        }
+      }
+    });
+  }
+
   protected void notifyClosed() {
     for (WebkitConnectionListener listener : connectionListeners) {
       listener.connectionClosed(this);
     }
 
+    notificationDispatcher.shutdown();
+
     // Clean up the callbackMap on termination.
-    List<Callback> callbacks = new ArrayList<Callback>(callbackMap.values());
+    List<Integer> ids = new ArrayList<Integer>(callbackMap.keySet());
 
-    for (Callback callback : callbacks) {
-      try {
-        callback.handleResult(WebkitResult.createJsonErrorResult("connection termination"));
-      } catch (JSONException e) {
+    for (Integer id : ids) {
+      PendingRequest pending = callbackMap.remove(id);
 
+      if (pending != null) {
+        try {
+          pending.complete(WebkitResult.createJsonErrorResult("connection termination"));
+        } catch (JSONException e) {
+          pending.future.completeExceptionally(e);
+        }
       }
     }
-
-    callbackMap.clear();
   }
 
   protected void processWebSocketMessage(WebSocketMessage message) {
     try {
-      JSONObject object = new JSONObject(message.getText());
+      // Tokenize straight from the receiver's decoded buffer. Only the envelope is looked at here;
+      // "params" and "result" are captured as raw ranges and bound later by whoever consumes them.
+      JsonPullParser parser = new JsonPullParser(message.getCharSequence());
+
+      //TODO: too chatty SDBGDebugCorePlugin.log("<== " + message.getText());
+
+      int id = -1;
+      String method = null;
+      JsonPullParser params = null;
+      JsonPullParser result = null;
+      boolean hasError = false;
+
+      parser.beginObject();
+
+      while (parser.hasNext()) {
+        String name = parser.nextName();
+
+        if ("id".equals(name)) {
+          id = parser.nextInt();
+        } else if ("method".equals(name)) {
+          method = parser.nextString();
+        } else if ("params".equals(name)) {
+          params = parser.captureValue();
+        } else if ("result".equals(name)) {
+          result = parser.captureValue();
+        } else {
+          hasError |= "error".equals(name);
 
-      //TODO: too chatty SDBGDebugCorePlugin.log("<== " + object);
+          parser.skipValue();
+        }
+      }
 
-      if (object.has("id")) {
-        processResponse(object);
-      } else {
-        processNotification(object);
+      parser.endObject();
+
+      // Notifications go to their domain's serial lane, responses to a lane of their own: a
+      // response never waits behind a slow notification handler, nor deadlocks one waiting for it.
+      // There is no order between the lanes; a callback which must run after the notifications
+      // received before its response (e.g. the replay of Console.enable) posts itself onto the
+      // domain's lane with dispatch().
+      if (id != -1) {
+        processResponse(id, result, hasError, message);
+      } else if (method != null) {
+        processNotification(method, params);
       }
     } catch (JSONException exception) {
       SDBGDebugCorePlugin.logError(exception);
@@ -338,96 +453,173 @@ public class WebkitConnection {
     notificationHandlers.put(prefix, handler);
   }
 
-  protected void sendRequest(JSONObject request) throws IOException, JSONException {
-    sendRequest(request, null);
+  protected void registerStreamingNotificationHandler(String prefix,
+      StreamingNotificationHandler handler) {
+    streamingNotificationHandlers.put(prefix, handler);
   }
 
-  protected void sendRequest(JSONObject request, Callback callback) throws IOException,
+  protected CompletableFuture<JSONObject> sendRequest(JSONObject request) throws IOException,
       JSONException {
-    if (!isConnected()) {
-      throw new IOException("connection terminated");
-    }
+    return sendRequest(request, null);
+  }
 
-    int id = 0;
+  /**
+   * Queue the given request for sending and return without waiting for the socket write. The
+   * returned future completes with the raw response once the (optional) callback has handled it, or
+   * with an error result if the connection terminates first. Successful responses handled by a
+   * {@link StreamingCallback} are never built as a tree; their future completes with
+   * <code>null</code>. If the future is cancelled first, the response is dropped unread and the
+   * callback is not called.
+   */
+  protected CompletableFuture<JSONObject> sendRequest(JSONObject request, Callback callback)
+      throws IOException, JSONException {
+    WebSocket socket = websocket;
 
-    try {
-      synchronized (this) {
-        id = getNextRequestId();
+    if (socket == null || !connected) {
+      throw new IOException("connection terminated");
+    }
 
-        request.put("id", id);
+    int id = getNextRequestId();
+    PendingRequest pending = new PendingRequest(callback);
 
-        if (callback != null) {
-          callbackMap.put(id, callback);
-        }
-      }
+    request.put("id", id);
+    callbackMap.put(id, pending);
 
+    try {
       // TODO: Too chatty SDBGDebugCorePlugin.log("==> " + request);
 
-      websocket.send(request.toString());
+      socket.send(request.toString());
     } catch (WebSocketException exception) {
-      if (callback != null) {
-        synchronized (this) {
-          callbackMap.remove(id);
-        }
-      }
+      callbackMap.remove(id);
 
       throw new IOException(exception);
     }
+
+    return pending.future;
+  }
+
+  /**
+   * Returns the domain prefix of the given method, e.g. "Debugger." for "Debugger.enable".
+   */
+  private String getDomain(String method) {
+    int index = method.indexOf('.');
+
+    return index == -1 ? method : method.substring(0, index + 1);
   }
 
   private int getNextRequestId() {
-    return ++requestId;
+    return requestId.incrementAndGet();
+  }
+
+  private void dispatchNotification(String domain, final NotificationHandler handler,
+      final String method, final JSONObject params) {
+    notificationDispatcher.dispatch(domain, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          handler.handleNotification(method, params);
+        } catch (Throwable exception) {
+          SDBGDebugCorePlugin.logError(exception);
+        }
+      }
+    });
+  }
+
+  private void dispatchNotification(String domain, final StreamingNotificationHandler handler,
+      final String method, final JsonPullParser params) {
+    notificationDispatcher.dispatch(domain, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          handler.handleNotification(method, params);
+        } catch (Throwable exception) {
+          SDBGDebugCorePlugin.logError(exception);
+        }
+      }
+    });
   }
 
-  private void processNotification(JSONObject object) throws JSONException {
+  private void processNotification(String method, JsonPullParser params) throws JSONException {
     // Two notifications we receive but don't do anything with:
     //   "Profiler.resetProfiles", "CSS.mediaQueryResultChanged"
 
     final String[] ignoreDomains = {"Profiler.", "Inspector."};
 
-    if (object.has("method")) {
-      String method = object.getString("method");
-      String prefix = method;
-      int index = prefix.indexOf('.');
-      if (index != -1) {
-        prefix = prefix.substring(0, index + 1);
-      }
+    String prefix = getDomain(method);
 
-      NotificationHandler handler = notificationHandlers.get(prefix);
+    StreamingNotificationHandler streamingHandler = streamingNotificationHandlers.get(prefix);
 
-      if (handler != null) {
-        if (object.has("params")) {
-          handler.handleNotification(method, object.getJSONObject("params"));
-        } else {
-          handler.handleNotification(method, null);
-        }
-      } else {
-        for (String domain : ignoreDomains) {
-          if (domain.equals(prefix)) {
-            return;
-          }
-        }
+    if (streamingHandler != null) {
+      // The receiver reuses its buffer for the next message, so the lane gets a private copy.
+      dispatchNotification(prefix, streamingHandler, method, params == null ? null
+          : params.copyValue());
+      return;
+    }
+
+    NotificationHandler handler = notificationHandlers.get(prefix);
 
-        WIPTrace.trace("no handler for notification: " + object);
+    if (handler != null) {
+      JSONObject object = null;
+
+      if (params != null && params.peek() == JsonPullParser.Token.BEGIN_OBJECT) {
+        object = params.readJSONObject();
       }
+
+      dispatchNotification(prefix, handler, method, object);
+    } else {
+      for (String domain : ignoreDomains) {
+        if (domain.equals(prefix)) {
+          return;
+        }
+      }
+
+      WIPTrace.trace("no handler for notification: " + method);
     }
   }
 
-  private void processResponse(JSONObject result) throws JSONException {
+  private void processResponse(int id, JsonPullParser result, boolean hasError,
+      WebSocketMessage message) throws JSONException {
     try {
-      int id = result.optInt("id", -1);
+      final PendingRequest pending = callbackMap.remove(id);
+
+      if (pending != null && pending.future.isCancelled()) {
+        // The caller has lost interest; don't bother building the response.
+        return;
+      }
+
+      if (pending != null && pending.callback instanceof StreamingCallback && result != null
+          && !hasError) {
+        // The receiver reuses its buffer for the next message, so the lane gets a private copy.
+        final JsonPullParser copy = result.copyValue();
 
-      Callback callback;
+        notificationDispatcher.dispatchResponse(new Runnable() {
+          @Override
+          public void run() {
+            pending.complete(copy);
+          }
+        });
+        return;
+      }
+
+      if (pending == null && !hasError) {
+        // Nobody is waiting for this response; don't bother building it.
+        return;
+      }
+
+      final JSONObject response = new JsonPullParser(message.getCharSequence()).readJSONObject();
 
-      synchronized (this) {
-        callback = callbackMap.remove(id);
+      if (pending != null) {
+        notificationDispatcher.dispatchResponse(new Runnable() {
+          @Override
+          public void run() {
+            pending.complete(response);
+          }
+        });
       }
 
-      if (callback != null) {
-        callback.handleResult(result);
-      } else if (result.has("error")) {
+      if ((pending == null || pending.callback == null) && hasError) {
         // If we get an error back, and nobody was listening for the result, then log it.
-        WebkitResult<?> webkitResult = WebkitResult.createFrom(result);
+        WebkitResult<?> webkitResult = WebkitResult.createFrom(response);
 
         WIPTrace.trace("Error from command id " + id + ": " + webkitResult.getError());
       }
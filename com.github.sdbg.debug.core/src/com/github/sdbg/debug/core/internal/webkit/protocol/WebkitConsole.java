@@ -14,6 +14,7 @@
 
 package com.github.sdbg.debug.core.internal.webkit.protocol;
 
+import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitConnection.Callback;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitConnection.NotificationHandler;
 
 import java.io.IOException;
@@ -133,6 +134,30 @@ public class WebkitConsole extends WebkitDomain {
     sendSimpleCommand("Console.enable");
   }
 
+  /**
+   * Enables the console domain. The browser reports the messages it has collected while the domain
+   * was disabled before it responds; the callback is queued behind them on the lane of the Console
+   * notifications, so it runs after the listeners have been told about those messages.
+   * 
+   * @param callback
+   * @throws IOException
+   */
+  public void enable(final WebkitCallback<Boolean> callback) throws IOException {
+    sendSimpleCommand("Console.enable", new Callback() {
+      @Override
+      public void handleResult(JSONObject result) throws JSONException {
+        final WebkitResult<Boolean> webkitResult = WebkitResult.createFrom(result);
+
+        connection.dispatch("Console.", new Runnable() {
+          @Override
+          public void run() {
+            callback.handleResult(webkitResult);
+          }
+        });
+      }
+    });
+  }
+
   public void removeConsoleListener(ConsoleListener listener) {
     listeners.remove(listener);
   }
@@ -16,7 +16,8 @@ package com.github.sdbg.debug.core.internal.webkit.protocol;
 
 import com.github.sdbg.debug.core.internal.ScriptDescriptor;
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitConnection.Callback;
-import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitConnection.NotificationHandler;
+import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitConnection.StreamingCallback;
+import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitConnection.StreamingNotificationHandler;
 import com.github.sdbg.utilities.URIUtilities;
 
 import java.io.IOException;
@@ -26,7 +27,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -185,17 +187,31 @@ public class WebkitDebugger extends WebkitDomain {
   private Map<String, ScriptDescriptor> scriptMap = new HashMap<String, ScriptDescriptor>();
   private Map<String, WebkitBreakpoint> breakpointMap = new HashMap<String, WebkitBreakpoint>();
 
-  private int remoteObjectCount;
+  /**
+   * The script sources being fetched by script id, guarded by itself.
+   */
+  private final Map<String, CompletableFuture<String>> scriptSourceRequests =
+      new HashMap<String, CompletableFuture<String>>();
+
+  private volatile int remoteObjectCount;
+
+  /**
+   * Counts the suspensions; every suspension has an object group of its own.
+   */
+  private volatile int suspension;
 
   public WebkitDebugger(WebkitConnection connection) {
     super(connection);
 
-    connection.registerNotificationHandler("Debugger.", new NotificationHandler() {
-      @Override
-      public void handleNotification(String method, JSONObject params) throws JSONException {
-        handleDebuggerNotification(method, params);
-      }
-    });
+    connection.registerStreamingNotificationHandler(
+        "Debugger.",
+        new StreamingNotificationHandler() {
+          @Override
+          public void handleNotification(String method, JsonPullParser params)
+              throws JSONException {
+            handleDebuggerNotification(method, params);
+          }
+        });
   }
 
   public void addDebuggerListener(DebuggerListener listener) {
@@ -241,6 +257,14 @@ public class WebkitDebugger extends WebkitDomain {
     sendSimpleCommand("Debugger.disable");
   }
 
+  /**
+   * Runs the given task on the thread which handles the Debugger notifications, after those received
+   * so far, so it does not race with them (e.g. with a breakpoint being resolved).
+   */
+  public void dispatch(Runnable task) {
+    connection.dispatch("Debugger.", task);
+  }
+
   public void enable() throws IOException {
     sendSimpleCommand("Debugger.enable");
   }
@@ -259,23 +283,36 @@ public class WebkitDebugger extends WebkitDomain {
           "params",
           new JSONObject().put("callFrameId", callFrameId).put("expression", expression).put(
               "objectGroup",
-              OBJECT_GROUP_KEY).put("returnByValue", false).put("includeCommandLineAPI", true).put(
-              "doNotPauseOnExceptionsAndMuteConsole",
-              false));
+              getObjectGroup()).put("returnByValue", false).put("generatePreview", true).put(
+              "includeCommandLineAPI",
+              true).put("doNotPauseOnExceptionsAndMuteConsole", false));
 
-      connection.sendRequest(request, new Callback() {
+      connection.sendRequest(request, new StreamingCallback() {
         @Override
         public void handleResult(JSONObject result) throws JSONException {
           callback.handleResult(convertEvaluateOnCallFrameResult(result));
         }
-      });
 
-      remoteObjectCount++;
+        @Override
+        public void handleResult(JsonPullParser result) throws JSONException {
+          callback.handleResult(convertEvaluateOnCallFrameResult(result));
+        }
+      });
     } catch (JSONException exception) {
       throw new IOException(exception);
     }
   }
 
+  /**
+   * Returns the object group of the current suspension. The remote objects of this group are
+   * released together when the debugger resumes.
+   */
+  public String getObjectGroup() {
+    remoteObjectCount++;
+
+    return OBJECT_GROUP_KEY + suspension;
+  }
+
   public Collection<WebkitBreakpoint> getAllBreakpoints() {
     return breakpointMap.values();
   }
@@ -370,35 +407,31 @@ public class WebkitDebugger extends WebkitDomain {
    */
   public void populateScriptSource(ScriptDescriptor script) throws IOException {
     if (!script.hasScriptSource()) {
-      final IOException[] error = new IOException[1];
-      final String[] source = new String[1];
-
-      final CountDownLatch latch = new CountDownLatch(1);
-
-      getScriptSource(script.getScriptId(), new WebkitCallback<String>() {
-        @Override
-        public void handleResult(WebkitResult<String> result) {
-          if (result.isError()) {
-            error[0] = new IOException("error retrieving script source");
-          } else {
-            source[0] = result.getResult();
-          }
-
-          latch.countDown();
-        }
-      });
-
       try {
-        latch.await();
+        fetchScriptSource(script).get();
       } catch (InterruptedException e) {
         throw new IOException(e);
-      }
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
 
-      if (error[0] != null) {
-        throw error[0];
+        throw new IOException(e.getCause());
       }
+    }
+  }
 
-      script.setScriptSource(source[0]);
+  /**
+   * Starts fetching the given script's source if it is not known yet, without waiting for it. A
+   * {@link #populateScriptSource(ScriptDescriptor)} meanwhile waits for this request instead of
+   * sending another one.
+   * 
+   * @param script
+   * @throws IOException
+   */
+  public void prefetchScriptSource(ScriptDescriptor script) throws IOException {
+    if (!script.hasScriptSource()) {
+      fetchScriptSource(script);
     }
   }
 
@@ -468,8 +501,8 @@ public class WebkitDebugger extends WebkitDomain {
    * locations property. Further matching script parsing will result in subsequent
    * breakpointResolved events issued. This logical breakpoint will survive page reloads.
    * <p>
-   * If successful and the breakpoint resolved to a loaded script, the WebkitResult object contains
-   * a WebkitBreakpoint.
+   * Every location the breakpoint resolved to in the loaded scripts is reported to the listeners
+   * as a resolved breakpoint, after the callback has been called.
    * 
    * @param url URL of the resources to set breakpoint on (optional)
    * @param urlRegex Regex pattern for the URLs of the resources to set breakpoints on. Either url
@@ -508,18 +541,24 @@ public class WebkitDebugger extends WebkitDomain {
         connection.sendRequest(request, new Callback() {
           @Override
           public void handleResult(JSONObject result) throws JSONException {
-            List<WebkitBreakpoint> resolvedBreakpoints = new ArrayList<WebkitBreakpoint>();
+            final List<WebkitBreakpoint> resolvedBreakpoints = new ArrayList<WebkitBreakpoint>();
 
             callback.handleResult(convertSetBreakpointByUrlResult(result, resolvedBreakpoints));
 
             // This will resolve immediately if the script is loaded in the browser. Otherwise the 
-            // breakpoint info will be sent to us using the breakpoint resolved notification.
-            if (resolvedBreakpoints.size() > 0) {
-              WebkitBreakpoint bp = resolvedBreakpoints.get(0);
-
-              for (DebuggerListener listener : listeners) {
-                listener.debuggerBreakpointResolved(bp);
-              }
+            // breakpoint info will be sent to us using the breakpoint resolved notification. Either
+            // way the listeners hear about it on the Debugger lane.
+            if (!resolvedBreakpoints.isEmpty()) {
+              dispatch(new Runnable() {
+                @Override
+                public void run() {
+                  for (WebkitBreakpoint bp : resolvedBreakpoints) {
+                    for (DebuggerListener listener : listeners) {
+                      listener.debuggerBreakpointResolved(bp);
+                    }
+                  }
+                }
+              });
             }
           }
         });
@@ -663,7 +702,8 @@ public class WebkitDebugger extends WebkitDomain {
     sendSimpleCommand("Debugger.stepOver");
   }
 
-  protected void handleDebuggerNotification(String method, JSONObject params) throws JSONException {
+  protected void handleDebuggerNotification(String method, JsonPullParser params)
+      throws JSONException {
     if (method.equals(DEBUGGER_RESUMED)) {
       for (DebuggerListener listener : listeners) {
         listener.debuggerResumed();
@@ -695,18 +735,45 @@ public class WebkitDebugger extends WebkitDomain {
         listener.debuggerBreakpointResolved(breakpoint);
       }
     } else if (method.equals(DEBUGGER_PAUSED)) {
-      PausedReasonType reason = PausedReasonType.value(params.getString("reason"));
+      String reasonName = null;
+      List<WebkitCallFrame> frames = null;
+      JsonPullParser data = null;
+
+      params.beginObject();
+
+      while (params.hasNext()) {
+        String name = params.nextName();
+
+        if ("reason".equals(name)) {
+          reasonName = params.nextString();
+        } else if ("callFrames".equals(name)) {
+          frames = WebkitCallFrame.createFrom(params);
+        } else if ("data".equals(name)) {
+          data = params.captureValue();
+        } else {
+          params.skipValue();
+        }
+      }
+
+      params.endObject();
+
+      if (reasonName == null || frames == null) {
+        throw new JSONException("malformed " + DEBUGGER_PAUSED + " notification");
+      }
 
-      List<WebkitCallFrame> frames = WebkitCallFrame.createFrom(params.getJSONArray("callFrames"));
+      PausedReasonType reason = PausedReasonType.value(reasonName);
 
       WebkitRemoteObject exception = null;
 
       // The data field contains exception info.
-      if (reason == PausedReasonType.exception && params.has("data")) {
+      if (reason == PausedReasonType.exception && data != null
+          && data.peek() == JsonPullParser.Token.BEGIN_OBJECT) {
         // {"value":"ssdfsdfd","type":"string"}
-        exception = WebkitRemoteObject.createFrom(params.getJSONObject("data"));
+        exception = WebkitRemoteObject.createFrom(data);
       }
 
+      getConnection().getRuntime().handleSuspended();
+
       if (resteppingManager != null) {
         resteppingManager.onDebuggerPaused(frames, reason, exception);
       }
@@ -735,24 +802,79 @@ public class WebkitDebugger extends WebkitDomain {
           , JsonUtils.getString(params, "sourceMapURL")
           , JsonUtils.getBoolean(params, "isContentScript")
           , JsonUtils.getInt(params, "startLine", -1)
-          , JsonUtils.getInt(params, "startLine", -1)
+          , JsonUtils.getInt(params, "startColumn", -1)
           , JsonUtils.getInt(params, "endLine", -1)
           , JsonUtils.getInt(params, "endColumn", -1)
           );
       return script;
   }
   
+  public static ScriptDescriptor createDescriptor(JsonPullParser params) throws JSONException {
+    String scriptId = null;
+    String url = null;
+    String sourceMapURL = null;
+    boolean isContentScript = false;
+    int startLine = -1;
+    int startColumn = -1;
+    int endLine = -1;
+    int endColumn = -1;
+
+    params.beginObject();
+
+    while (params.hasNext()) {
+      String name = params.nextName();
+
+      if ("scriptId".equals(name)) {
+        scriptId = params.nextString();
+      } else if ("url".equals(name)) {
+        url = params.nextString();
+      } else if ("sourceMapURL".equals(name)) {
+        sourceMapURL = params.nextString();
+      } else if ("isContentScript".equals(name)) {
+        isContentScript = params.nextBoolean();
+      } else if ("startLine".equals(name)) {
+        startLine = params.nextInt();
+      } else if ("startColumn".equals(name)) {
+        startColumn = params.nextInt();
+      } else if ("endLine".equals(name)) {
+        endLine = params.nextInt();
+      } else if ("endColumn".equals(name)) {
+        endColumn = params.nextInt();
+      } else {
+        params.skipValue();
+      }
+    }
+
+    params.endObject();
+
+    return new ScriptDescriptor(
+        scriptId,
+        url,
+        sourceMapURL,
+        isContentScript,
+        startLine,
+        startColumn,
+        endLine,
+        endColumn);
+  }
+
   private void clearGlobalObjects() {
     breakpointMap.clear();
     scriptMap.clear();
   }
 
   private void clearRemoteObjects() {
+    String objectGroup = OBJECT_GROUP_KEY + suspension;
+
+    suspension++;
+
+    getConnection().getRuntime().handleResumed();
+
     if (remoteObjectCount > 0) {
       remoteObjectCount = 0;
 
       try {
-        getConnection().getRuntime().releaseObjectGroup(OBJECT_GROUP_KEY);
+        getConnection().getRuntime().releaseObjectGroup(objectGroup);
       } catch (IOException e) {
         // This is a best-effort call.
 
@@ -790,6 +912,38 @@ public class WebkitDebugger extends WebkitDomain {
     return result;
   }
 
+  private WebkitResult<WebkitRemoteObject> convertEvaluateOnCallFrameResult(JsonPullParser object)
+      throws JSONException {
+    WebkitResult<WebkitRemoteObject> result = new WebkitResult<WebkitRemoteObject>();
+
+    WebkitRemoteObject remoteObject = null;
+    boolean wasThrown = false;
+
+    object.beginObject();
+
+    while (object.hasNext()) {
+      String name = object.nextName();
+
+      if ("result".equals(name)) {
+        remoteObject = WebkitRemoteObject.createFrom(object);
+      } else if ("wasThrown".equals(name)) {
+        wasThrown = object.nextBoolean();
+      } else {
+        object.skipValue();
+      }
+    }
+
+    object.endObject();
+
+    if (wasThrown) {
+      result.setError(remoteObject);
+    } else {
+      result.setResult(remoteObject);
+    }
+
+    return result;
+  }
+
   private WebkitResult<FunctionDetails> convertGetFunctionDetailsResult(JSONObject object)
       throws JSONException {
     WebkitResult<FunctionDetails> result = WebkitResult.createFrom(object);
@@ -834,8 +988,9 @@ public class WebkitDebugger extends WebkitDomain {
       if (temp.has("locations")) {
         JSONArray arr = temp.getJSONArray("locations");
 
-        if (arr.length() > 0) {
-          WebkitLocation location = WebkitLocation.createFrom(arr.getJSONObject(0));
+        // The url (regex) may match several loaded scripts.
+        for (int i = 0; i < arr.length(); i++) {
+          WebkitLocation location = WebkitLocation.createFrom(arr.getJSONObject(i));
 
           WebkitBreakpoint breakpoint = WebkitBreakpoint.createFrom(breakpointId, location);
 
@@ -882,6 +1037,53 @@ public class WebkitDebugger extends WebkitDomain {
     return result;
   }
 
+  private CompletableFuture<String> fetchScriptSource(final ScriptDescriptor script)
+      throws IOException {
+    final CompletableFuture<String> future;
+
+    synchronized (scriptSourceRequests) {
+      CompletableFuture<String> existing = scriptSourceRequests.get(script.getScriptId());
+
+      if (existing != null) {
+        return existing;
+      }
+
+      future = new CompletableFuture<String>();
+      scriptSourceRequests.put(script.getScriptId(), future);
+    }
+
+    try {
+      getScriptSource(script.getScriptId(), new WebkitCallback<String>() {
+        @Override
+        public void handleResult(WebkitResult<String> result) {
+          if (!result.isError()) {
+            script.setScriptSource(result.getResult());
+          }
+
+          synchronized (scriptSourceRequests) {
+            scriptSourceRequests.remove(script.getScriptId());
+          }
+
+          if (result.isError()) {
+            future.completeExceptionally(new IOException("error retrieving script source"));
+          } else {
+            future.complete(result.getResult());
+          }
+        }
+      });
+    } catch (IOException e) {
+      synchronized (scriptSourceRequests) {
+        scriptSourceRequests.remove(script.getScriptId());
+      }
+
+      future.completeExceptionally(e);
+
+      throw e;
+    }
+
+    return future;
+  }
+
   private void handleResumed() {
     clearRemoteObjects();
   }
@@ -42,6 +42,33 @@ public class WebkitLocation {
     return location;
   }
 
+  static WebkitLocation createFrom(JsonPullParser parser) throws JSONException {
+    WebkitLocation location = new WebkitLocation();
+
+    location.lineNumber = -1;
+    location.columnNumber = -1;
+
+    parser.beginObject();
+
+    while (parser.hasNext()) {
+      String name = parser.nextName();
+
+      if ("scriptId".equals(name)) {
+        location.scriptId = parser.nextString();
+      } else if ("lineNumber".equals(name)) {
+        location.lineNumber = parser.nextInt();
+      } else if ("columnNumber".equals(name)) {
+        location.columnNumber = parser.nextInt();
+      } else {
+        parser.skipValue();
+      }
+    }
+
+    parser.endObject();
+
+    return location;
+  }
+
   private int columnNumber;
 
   private int lineNumber;
@@ -0,0 +1,126 @@
+package com.github.sdbg.debug.core.internal.webkit.protocol;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs WIP notifications, and the responses to requests, off the websocket receiver thread.
+ * <p>
+ * Every domain ("Debugger.", "Runtime.", "DOM.", ...) gets its own serial lane, so the messages of
+ * one domain are still handled one at a time and in arrival order, while a slow domain (e.g.
+ * Debugger.scriptParsed downloading a source map) no longer holds up the others. Responses have a
+ * serial lane of their own, so completing a request never waits behind a notification handler.
+ * There is no order between the lanes. The lanes share a small pool of daemon threads which exit
+ * when idle.
+ */
+class WebkitNotificationDispatcher {
+  /**
+   * A serial queue on top of the shared pool. At most one task of a lane runs at any time.
+   */
+  private class Lane implements Runnable {
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    void execute(Runnable task) {
+      tasks.add(task);
+
+      schedule();
+    }
+
+    @Override
+    public void run() {
+      try {
+        // Drain a bounded number of tasks, then yield the pool thread to the other lanes.
+        for (int i = 0; i < MAX_TASKS_PER_TURN; i++) {
+          Runnable task = tasks.poll();
+
+          if (task == null) {
+            break;
+          }
+
+          task.run();
+        }
+      } finally {
+        scheduled.set(false);
+
+        if (!tasks.isEmpty()) {
+          schedule();
+        }
+      }
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          pool.execute(this);
+        } catch (RejectedExecutionException exception) {
+          // The connection is gone; deliver what is left on the caller's thread.
+          run();
+        }
+      }
+    }
+  }
+
+  private static final int MAX_TASKS_PER_TURN = 64;
+
+  private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<String, Lane>();
+
+  private final Lane responses = new Lane();
+
+  private final ExecutorService pool;
+
+  WebkitNotificationDispatcher() {
+    final AtomicInteger threadCount = new AtomicInteger();
+
+    pool = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "WIP notification dispatch "
+            + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Queue the given task on the lane of the given domain prefix.
+   */
+  void dispatch(String domain, Runnable task) {
+    Lane lane = lanes.get(domain);
+
+    if (lane == null) {
+      lane = new Lane();
+
+      Lane existing = lanes.putIfAbsent(domain, lane);
+
+      if (existing != null) {
+        lane = existing;
+      }
+    }
+
+    lane.execute(task);
+  }
+
+  /**
+   * Queue the given response completion on the response lane.
+   */
+  void dispatchResponse(Runnable task) {
+    responses.execute(task);
+  }
+
+  /**
+   * Stop accepting new pool work. Already queued notifications are still delivered.
+   */
+  void shutdown() {
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2013, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.sdbg.debug.core.internal.webkit.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A WIP object preview: the first few properties (or map and set entries) of an object, sent along
+ * with the remote object when it was requested with <code>generatePreview</code>.
+ * 
+ * @see https://chromedevtools.github.io/devtools-protocol/tot/Runtime#type-ObjectPreview
+ */
+public class WebkitObjectPreview {
+
+  /**
+   * A property of a preview; nested objects are described by their description only.
+   */
+  public static class Property {
+    private String name;
+
+    private String type;
+
+    private String subtype;
+
+    private String value;
+
+    static Property createFrom(JSONObject params) throws JSONException {
+      Property property = new Property();
+
+      property.name = JsonUtils.getString(params, "name");
+      property.type = JsonUtils.getString(params, "type");
+      property.subtype = JsonUtils.getString(params, "subtype");
+      property.value = JsonUtils.getString(params, "value");
+
+      return property;
+    }
+
+    static Property createFrom(JsonPullParser parser) throws JSONException {
+      Property property = new Property();
+
+      parser.beginObject();
+
+      while (parser.hasNext()) {
+        String name = parser.nextName();
+
+        if ("name".equals(name)) {
+          property.name = parser.nextString();
+        } else if ("type".equals(name)) {
+          property.type = parser.nextString();
+        } else if ("subtype".equals(name)) {
+          property.subtype = parser.nextString();
+        } else if ("value".equals(name)) {
+          property.value = parser.nextString();
+        } else {
+          parser.skipValue();
+        }
+      }
+
+      parser.endObject();
+
+      return property;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * One of "array", "date", "node", "null", "regexp", ...
+     */
+    public String getSubtype() {
+      return subtype;
+    }
+
+    /**
+     * One of "accessor", "boolean", "function", "number", "object", "string", "symbol",
+     * "undefined".
+     */
+    public String getType() {
+      return type;
+    }
+
+    /**
+     * The value of a primitive property, or the (abbreviated) description of an object.
+     */
+    public String getValue() {
+      return value;
+    }
+  }
+
+  /**
+   * An entry of a map or set preview; the key is null for sets.
+   */
+  public static class Entry {
+    private String key;
+
+    private String value;
+
+    static Entry createFrom(JSONObject params) throws JSONException {
+      Entry entry = new Entry();
+
+      if (params.has("key")) {
+        entry.key = describe(params.getJSONObject("key"));
+      }
+
+      entry.value = describe(params.getJSONObject("value"));
+
+      return entry;
+    }
+
+    static Entry createFrom(JsonPullParser parser) throws JSONException {
+      Entry entry = new Entry();
+
+      parser.beginObject();
+
+      while (parser.hasNext()) {
+        String name = parser.nextName();
+
+        if ("key".equals(name)) {
+          entry.key = describe(parser);
+        } else if ("value".equals(name)) {
+          entry.value = describe(parser);
+        } else {
+          parser.skipValue();
+        }
+      }
+
+      parser.endObject();
+
+      return entry;
+    }
+
+    private static String describe(JSONObject preview) throws JSONException {
+      return JsonUtils.getString(preview, "description");
+    }
+
+    private static String describe(JsonPullParser parser) throws JSONException {
+      return WebkitObjectPreview.createFrom(parser).getDescription();
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public String getValue() {
+      return value;
+    }
+  }
+
+  private String type;
+
+  private String subtype;
+
+  private String description;
+
+  private boolean overflow;
+
+  private Property[] properties = new Property[0];
+
+  private Entry[] entries;
+
+  public static WebkitObjectPreview createFrom(JSONObject params) throws JSONException {
+    WebkitObjectPreview preview = new WebkitObjectPreview();
+
+    preview.type = JsonUtils.getString(params, "type");
+    preview.subtype = JsonUtils.getString(params, "subtype");
+    preview.description = JsonUtils.getString(params, "description");
+    preview.overflow = JsonUtils.getBoolean(params, "overflow");
+
+    if (params.has("properties")) {
+      JSONArray arr = params.getJSONArray("properties");
+
+      preview.properties = new Property[arr.length()];
+
+      for (int i = 0; i < arr.length(); i++) {
+        preview.properties[i] = Property.createFrom(arr.getJSONObject(i));
+      }
+    }
+
+    if (params.has("entries")) {
+      JSONArray arr = params.getJSONArray("entries");
+
+      preview.entries = new Entry[arr.length()];
+
+      for (int i = 0; i < arr.length(); i++) {
+        preview.entries[i] = Entry.createFrom(arr.getJSONObject(i));
+      }
+    }
+
+    return preview;
+  }
+
+  public static WebkitObjectPreview createFrom(JsonPullParser parser) throws JSONException {
+    WebkitObjectPreview preview = new WebkitObjectPreview();
+
+    parser.beginObject();
+
+    while (parser.hasNext()) {
+      String name = parser.nextName();
+
+      if ("type".equals(name)) {
+        preview.type = parser.nextString();
+      } else if ("subtype".equals(name)) {
+        preview.subtype = parser.nextString();
+      } else if ("description".equals(name)) {
+        preview.description = parser.nextString();
+      } else if ("overflow".equals(name)) {
+        preview.overflow = parser.nextBoolean();
+      } else if ("properties".equals(name)) {
+        List<Property> properties = new ArrayList<Property>();
+
+        parser.beginArray();
+
+        while (parser.hasNext()) {
+          properties.add(Property.createFrom(parser));
+        }
+
+        parser.endArray();
+
+        preview.properties = properties.toArray(new Property[properties.size()]);
+      } else if ("entries".equals(name)) {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        parser.beginArray();
+
+        while (parser.hasNext()) {
+          entries.add(Entry.createFrom(parser));
+        }
+
+        parser.endArray();
+
+        preview.entries = entries.toArray(new Entry[entries.size()]);
+      } else {
+        parser.skipValue();
+      }
+    }
+
+    parser.endObject();
+
+    return preview;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * The entries of a map or set, or null if the object is neither.
+   */
+  public Entry[] getEntries() {
+    return entries;
+  }
+
+  public Property[] getProperties() {
+    return properties;
+  }
+
+  public String getSubtype() {
+    return subtype;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  /**
+   * Returns true if the object has more properties or entries than the preview shows.
+   */
+  public boolean isOverflow() {
+    return overflow;
+  }
+
+}
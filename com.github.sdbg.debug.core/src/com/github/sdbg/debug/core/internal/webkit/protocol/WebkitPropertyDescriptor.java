@@ -14,6 +14,9 @@
 
 package com.github.sdbg.debug.core.internal.webkit.protocol;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -72,6 +75,54 @@ public class WebkitPropertyDescriptor implements Comparable<WebkitPropertyDescri
     return results;
   }
 
+  static WebkitPropertyDescriptor[] createFrom(JsonPullParser parser) throws JSONException {
+    List<WebkitPropertyDescriptor> results = new ArrayList<WebkitPropertyDescriptor>();
+
+    parser.beginArray();
+
+    while (parser.hasNext()) {
+      results.add(createDescriptorFrom(parser));
+    }
+
+    parser.endArray();
+
+    return results.toArray(new WebkitPropertyDescriptor[results.size()]);
+  }
+
+  static WebkitPropertyDescriptor createDescriptorFrom(JsonPullParser parser) throws JSONException {
+    WebkitPropertyDescriptor descriptor = new WebkitPropertyDescriptor();
+
+    parser.beginObject();
+
+    while (parser.hasNext()) {
+      String name = parser.nextName();
+
+      if ("name".equals(name)) {
+        descriptor.name = parser.nextString();
+      } else if ("configurable".equals(name)) {
+        descriptor.configurable = parser.nextBoolean();
+      } else if ("enumerable".equals(name)) {
+        descriptor.enumerable = parser.nextBoolean();
+      } else if ("wasThrown".equals(name)) {
+        descriptor.wasThrown = parser.nextBoolean();
+      } else if ("writable".equals(name)) {
+        descriptor.writable = parser.nextBoolean();
+      } else if ("get".equals(name)) {
+        descriptor.getterFunction = WebkitRemoteObject.createFrom(parser);
+      } else if ("set".equals(name)) {
+        descriptor.setterFunction = WebkitRemoteObject.createFrom(parser);
+      } else if ("value".equals(name)) {
+        descriptor.value = WebkitRemoteObject.createFrom(parser);
+      } else {
+        parser.skipValue();
+      }
+    }
+
+    parser.endObject();
+
+    return descriptor.patchUp();
+  }
+
   static WebkitPropertyDescriptor createFrom(JSONObject params) throws JSONException {
     WebkitPropertyDescriptor descriptor = new WebkitPropertyDescriptor();
 
@@ -96,33 +147,37 @@ public class WebkitPropertyDescriptor implements Comparable<WebkitPropertyDescri
       descriptor.value = WebkitRemoteObject.createFrom(params.getJSONObject("value"));
     }
 
+    return descriptor.patchUp();
+  }
+
+  private WebkitPropertyDescriptor patchUp() {
     // __proto__
-    if (descriptor.name.equals("__proto__")) {
-      descriptor.enumerable = false;
+    if (name.equals("__proto__")) {
+      enumerable = false;
     }
 
-    if (descriptor.value != null) {
-      if (descriptor.value.isDartFunction()) {
-        descriptor.enumerable = false;
+    if (value != null) {
+      if (value.isDartFunction()) {
+        enumerable = false;
       }
 
       // [runtimeType, _Type]
-      if (descriptor.name.equals("runtimeType") && "_Type".equals(descriptor.value.getClassName())) {
-        descriptor.enumerable = false;
+      if (name.equals("runtimeType") && "_Type".equals(value.getClassName())) {
+        enumerable = false;
       }
 
       // Patch up the className for the @staticFields property.
-      if (STATIC_FIELDS_OBJECT.equals(descriptor.name)) {
-        descriptor.value.className = "Type";
+      if (STATIC_FIELDS_OBJECT.equals(name)) {
+        value.className = "Type";
       }
 
       // Patch up the className for the @library property.
-      if (LIBRARY_OBJECT.equals(descriptor.name)) {
-        descriptor.value.className = "Library";
+      if (LIBRARY_OBJECT.equals(name)) {
+        value.className = "Library";
       }
     }
 
-    return descriptor;
+    return this;
   }
 
   @Override
@@ -15,8 +15,12 @@
 package com.github.sdbg.debug.core.internal.webkit.protocol;
 
 import java.io.IOException;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -27,6 +31,11 @@ import org.json.JSONObject;
  * @see http://code.google.com/chrome/devtools/docs/protocol/tot/runtime.html#type-RemoteObject
  */
 public class WebkitRemoteObject {
+  /**
+   * The length at the end of an array's description, e.g. "Array[3]" or "Int8Array(3)".
+   */
+  private static final Pattern LIST_LENGTH = Pattern.compile(".*(?:\\[(\\d+)\\]|\\((\\d+)\\))");
+
   String className;
 
   private String description;
@@ -41,7 +50,11 @@ public class WebkitRemoteObject {
 
   private Object rawValue;
 
-  private int listLength = -1;
+  private WebkitObjectPreview preview;
+
+  private volatile int listLength = -1;
+
+  private CompletableFuture<Integer> listLengthFuture;
 
   public static WebkitRemoteObject createFrom(JSONObject params) throws JSONException {
     WebkitRemoteObject remoteObject = new WebkitRemoteObject();
@@ -58,6 +71,44 @@ public class WebkitRemoteObject {
       remoteObject.value = String.valueOf(obj);
     }
 
+    if (params.has("preview")) {
+      remoteObject.preview = WebkitObjectPreview.createFrom(params.getJSONObject("preview"));
+    }
+
+    return remoteObject;
+  }
+
+  public static WebkitRemoteObject createFrom(JsonPullParser parser) throws JSONException {
+    WebkitRemoteObject remoteObject = new WebkitRemoteObject();
+
+    parser.beginObject();
+
+    while (parser.hasNext()) {
+      String name = parser.nextName();
+
+      if ("className".equals(name)) {
+        remoteObject.className = parser.nextString();
+      } else if ("description".equals(name)) {
+        remoteObject.description = parser.nextString();
+      } else if ("objectId".equals(name)) {
+        remoteObject.objectId = parser.nextString();
+      } else if ("subtype".equals(name)) {
+        remoteObject.subtype = parser.nextString();
+      } else if ("type".equals(name)) {
+        remoteObject.type = parser.nextString();
+      } else if ("value".equals(name)) {
+        Object obj = parser.readValue();
+        remoteObject.rawValue = obj;
+        remoteObject.value = String.valueOf(obj);
+      } else if ("preview".equals(name)) {
+        remoteObject.preview = WebkitObjectPreview.createFrom(parser);
+      } else {
+        parser.skipValue();
+      }
+    }
+
+    parser.endObject();
+
     return remoteObject;
   }
 
@@ -95,8 +146,29 @@ public class WebkitRemoteObject {
    * @return
    */
   public int getListLength(WebkitConnection connection) {
-    if (listLength == -1) {
-      final CountDownLatch latch = new CountDownLatch(1);
+    try {
+      return getListLengthAsync(connection).get(3, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      return listLength;
+    } catch (InterruptedException e) {
+      return listLength;
+    } catch (ExecutionException e) {
+      return listLength;
+    }
+  }
+
+  /**
+   * Returns the length of this list without blocking; it is fetched once.
+   */
+  public synchronized CompletableFuture<Integer> getListLengthAsync(WebkitConnection connection) {
+    if (listLengthFuture == null && parseListLength()) {
+      listLengthFuture = CompletableFuture.completedFuture(listLength);
+    }
+
+    if (listLengthFuture == null) {
+      final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+
+      listLengthFuture = future;
 
       try {
         connection.getRuntime().callListLength(objectId, new WebkitCallback<Integer>() {
@@ -110,28 +182,29 @@ public class WebkitRemoteObject {
               listLength = result.getResult().intValue();
             }
 
-            latch.countDown();
+            future.complete(listLength);
           }
         });
       } catch (IOException e) {
         listLength = 0;
-        latch.countDown();
-      }
-
-      try {
-        latch.await(3, TimeUnit.SECONDS);
-      } catch (InterruptedException e) {
-
+        future.complete(listLength);
       }
     }
 
-    return listLength;
+    return listLengthFuture;
   }
 
   public String getObjectId() {
     return objectId;
   }
 
+  /**
+   * The preview of this object, or null if it was not requested with one.
+   */
+  public WebkitObjectPreview getPreview() {
+    return preview;
+  }
+
   public Object getRawValue() {
     return rawValue;
   }
@@ -241,6 +314,36 @@ public class WebkitRemoteObject {
     }
   }
 
+  /**
+   * Takes the length of this list from its description, which saves asking for it.
+   */
+  private boolean parseListLength() {
+    String text = description;
+
+    if (text == null && preview != null) {
+      text = preview.getDescription();
+    }
+
+    if (text == null) {
+      return false;
+    }
+
+    Matcher matcher = LIST_LENGTH.matcher(text);
+
+    if (!matcher.matches()) {
+      return false;
+    }
+
+    String length = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+
+    try {
+      listLength = Integer.parseInt(length);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
   void setDescription(String value) {
     description = value;
   }
@@ -15,9 +15,15 @@
 package com.github.sdbg.debug.core.internal.webkit.protocol;
 
 import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitConnection.Callback;
+import com.github.sdbg.debug.core.internal.webkit.protocol.WebkitConnection.StreamingCallback;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -90,6 +96,155 @@ public class WebkitRuntime extends WebkitDomain {
 
   }
 
+  /**
+   * A Runtime.getProperties request of the current suspension, shared by all callers asking for the
+   * same properties. Each caller gets a handle of its own; the request itself is cancelled when all
+   * of them are.
+   */
+  private class PropertiesRequest implements WebkitCallback<WebkitPropertyDescriptor[]> {
+    private final String key;
+
+    private Map<WebkitCallback<WebkitPropertyDescriptor[]>, CompletableFuture<Void>> callbacks =
+        new LinkedHashMap<WebkitCallback<WebkitPropertyDescriptor[]>, CompletableFuture<Void>>();
+
+    private WebkitResult<WebkitPropertyDescriptor[]> result;
+
+    private CompletableFuture<?> sent;
+
+    PropertiesRequest(String key) {
+      this.key = key;
+    }
+
+    @Override
+    public void handleResult(WebkitResult<WebkitPropertyDescriptor[]> result) {
+      Map<WebkitCallback<WebkitPropertyDescriptor[]>, CompletableFuture<Void>> waiting;
+
+      synchronized (WebkitRuntime.this) {
+        waiting = callbacks;
+        callbacks = null;
+
+        if (waiting == null) {
+          // Cancelled.
+          return;
+        }
+
+        if (result.isError()) {
+          forget();
+        } else {
+          this.result = result;
+        }
+      }
+
+      for (WebkitCallback<WebkitPropertyDescriptor[]> callback : waiting.keySet()) {
+        callback.handleResult(copy(result));
+        waiting.get(callback).complete(null);
+      }
+    }
+
+    /**
+     * Fails the request for all callers but the given one, which sees the exception instead.
+     */
+    void abandon(WebkitCallback<WebkitPropertyDescriptor[]> callback, IOException exception) {
+      Map<WebkitCallback<WebkitPropertyDescriptor[]>, CompletableFuture<Void>> waiting;
+
+      synchronized (WebkitRuntime.this) {
+        waiting = callbacks;
+        callbacks = null;
+
+        forget();
+      }
+
+      if (waiting == null) {
+        return;
+      }
+
+      WebkitResult<WebkitPropertyDescriptor[]> result =
+          new WebkitResult<WebkitPropertyDescriptor[]>();
+      result.setError(exception.toString());
+
+      for (WebkitCallback<WebkitPropertyDescriptor[]> waitingCallback : waiting.keySet()) {
+        if (waitingCallback != callback) {
+          waitingCallback.handleResult(result);
+          waiting.get(waitingCallback).complete(null);
+        }
+      }
+    }
+
+    /**
+     * Returns the handle of the callback if it will be called later, null if it should be called
+     * with {@link #result} right away. Called while holding the lock on the runtime.
+     */
+    CompletableFuture<Void> addCallback(final WebkitCallback<WebkitPropertyDescriptor[]> callback) {
+      if (callbacks == null) {
+        return null;
+      }
+
+      final CompletableFuture<Void> handle = new CompletableFuture<Void>();
+
+      handle.whenComplete(new BiConsumer<Void, Throwable>() {
+        @Override
+        public void accept(Void ignored, Throwable exception) {
+          if (handle.isCancelled()) {
+            removeCallback(callback);
+          }
+        }
+      });
+
+      callbacks.put(callback, handle);
+
+      return handle;
+    }
+
+    /**
+     * Remembers the request sent to the browser, to cancel it once nobody waits for it anymore.
+     */
+    void sent(CompletableFuture<?> future) {
+      synchronized (WebkitRuntime.this) {
+        sent = future;
+
+        if (callbacks != null) {
+          return;
+        }
+      }
+
+      future.cancel(false);
+    }
+
+    /**
+     * Lets the next caller send the request again.
+     */
+    private void forget() {
+      if (suspendedProperties != null && suspendedProperties.get(key) == this) {
+        suspendedProperties.remove(key);
+      }
+    }
+
+    private void removeCallback(WebkitCallback<WebkitPropertyDescriptor[]> callback) {
+      CompletableFuture<?> future;
+
+      synchronized (WebkitRuntime.this) {
+        if (callbacks == null || callbacks.remove(callback) == null || !callbacks.isEmpty()) {
+          return;
+        }
+
+        // Nobody waits for the properties anymore; the next caller sends the request again.
+        callbacks = null;
+        forget();
+        future = sent;
+      }
+
+      if (future != null) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * The getProperties requests of the current suspension by object id and flags, or null while the
+   * debugger is not paused. Guarded by the lock on this runtime.
+   */
+  private Map<String, PropertiesRequest> suspendedProperties;
+
   public WebkitRuntime(WebkitConnection connection) {
     super(connection);
   }
@@ -129,11 +284,16 @@ public class WebkitRuntime extends WebkitDomain {
 
       request.put("method", "Runtime.callFunctionOn").put("params", params);
 
-      connection.sendRequest(request, new Callback() {
+      connection.sendRequest(request, new StreamingCallback() {
         @Override
         public void handleResult(JSONObject result) throws JSONException {
           callback.handleResult(convertEvaluateResult(result));
         }
+
+        @Override
+        public void handleResult(JsonPullParser result) throws JSONException {
+          callback.handleResult(convertEvaluateResult(result));
+        }
       });
     } catch (JSONException exception) {
       throw new IOException(exception);
@@ -250,6 +410,7 @@ public class WebkitRuntime extends WebkitDomain {
       JSONObject params = new JSONObject();
       params.put("expression", expression);
       params.put("returnByValue", returnByValue);
+      params.put("generatePreview", !returnByValue);
 
       if (objectGroup != null) {
         params.put("objectGroup", objectGroup);
@@ -257,11 +418,16 @@ public class WebkitRuntime extends WebkitDomain {
 
       request.put("method", "Runtime.evaluate").put("params", params);
 
-      connection.sendRequest(request, new Callback() {
+      connection.sendRequest(request, new StreamingCallback() {
         @Override
         public void handleResult(JSONObject result) throws JSONException {
           callback.handleResult(convertEvaluateResult(result));
         }
+
+        @Override
+        public void handleResult(JsonPullParser result) throws JSONException {
+          callback.handleResult(convertEvaluateResult(result));
+        }
       });
     } catch (JSONException exception) {
       throw new IOException(exception);
@@ -280,30 +446,105 @@ public class WebkitRuntime extends WebkitDomain {
    * @param accessorPropertiesOnly if true, returns accessor properties (with getter/setter) only;
    *          internal properties are not returned either
    * @param callback
+   * @return a handle which completes after the callback has been called; cancelling it before
+   *         means the callback is not called, and the request is cancelled if nobody else waits
+   *         for the same properties
    * @throws IOException
    */
-  public void getProperties(final WebkitRemoteObject object, boolean ownProperties,
-      boolean accessorPropertiesOnly, final WebkitCallback<WebkitPropertyDescriptor[]> callback)
-      throws IOException {
+  public CompletableFuture<?> getProperties(final WebkitRemoteObject object,
+      boolean ownProperties, boolean accessorPropertiesOnly,
+      final WebkitCallback<WebkitPropertyDescriptor[]> callback) throws IOException {
     if (callback == null) {
       throw new IllegalArgumentException("callback is required");
     }
 
+    PropertiesRequest request = null;
+    CompletableFuture<Void> handle = null;
+    WebkitResult<WebkitPropertyDescriptor[]> cachedResult = null;
+
+    synchronized (this) {
+      if (suspendedProperties != null && object.getObjectId() != null) {
+        String key = object.getObjectId() + ":" + ownProperties + ":" + accessorPropertiesOnly;
+        PropertiesRequest existing = suspendedProperties.get(key);
+
+        if (existing == null) {
+          request = new PropertiesRequest(key);
+          handle = request.addCallback(callback);
+          suspendedProperties.put(key, request);
+        } else {
+          handle = existing.addCallback(callback);
+
+          if (handle != null) {
+            // Already in flight.
+            return handle;
+          }
+
+          cachedResult = existing.result;
+        }
+      }
+    }
+
+    if (cachedResult != null) {
+      callback.handleResult(copy(cachedResult));
+
+      return CompletableFuture.completedFuture(null);
+    } else if (request != null) {
+      try {
+        request.sent(sendGetProperties(object, ownProperties, accessorPropertiesOnly, request));
+      } catch (IOException e) {
+        request.abandon(callback, e);
+        throw e;
+      }
+
+      return handle;
+    } else {
+      return sendGetProperties(object, ownProperties, accessorPropertiesOnly, callback);
+    }
+  }
+
+  /**
+   * Called when the debugger pauses; the properties of an object are then fetched only once until
+   * it resumes.
+   */
+  void handleSuspended() {
+    synchronized (this) {
+      suspendedProperties = new HashMap<String, PropertiesRequest>();
+    }
+  }
+
+  /**
+   * Called when the debugger resumes, and the fetched properties may change.
+   */
+  void handleResumed() {
+    synchronized (this) {
+      suspendedProperties = null;
+    }
+  }
+
+  private CompletableFuture<?> sendGetProperties(final WebkitRemoteObject object,
+      boolean ownProperties, boolean accessorPropertiesOnly,
+      final WebkitCallback<WebkitPropertyDescriptor[]> callback) throws IOException {
     try {
       JSONObject params = new JSONObject();
       params.put("objectId", object.getObjectId());
       params.put("ownProperties", ownProperties);
       params.put("accessorPropertiesOnly", accessorPropertiesOnly);
+      params.put("generatePreview", true);
 
       JSONObject request = new JSONObject();
       request.put("method", "Runtime.getProperties");
       request.put("params", params);
 
-      connection.sendRequest(request, new Callback() {
+      return connection.sendRequest(request, new StreamingCallback() {
         @Override
         public void handleResult(JSONObject result) throws JSONException {
           callback.handleResult(convertGetPropertiesResult(object, result));
         }
+
+        @Override
+        public void handleResult(JsonPullParser result) throws JSONException {
+          callback.handleResult(convertGetPropertiesResult(result));
+        }
       });
     } catch (JSONException exception) {
       throw new IOException(exception);
@@ -383,6 +624,46 @@ public class WebkitRuntime extends WebkitDomain {
     return result;
   }
 
+  protected WebkitResult<WebkitRemoteObject> convertEvaluateResult(JsonPullParser object)
+      throws JSONException {
+    WebkitResult<WebkitRemoteObject> result = new WebkitResult<WebkitRemoteObject>();
+
+    object.beginObject();
+
+    while (object.hasNext()) {
+      String name = object.nextName();
+
+      if ("result".equals(name)) {
+        result.setResult(WebkitRemoteObject.createFrom(object));
+      } else if ("wasThrown".equals(name)) {
+        result.setWasThrown(object.nextBoolean());
+      } else {
+        object.skipValue();
+      }
+    }
+
+    object.endObject();
+
+    return result;
+  }
+
+  /**
+   * Copies a shared result, since callers may sort the descriptors in place.
+   */
+  private static WebkitResult<WebkitPropertyDescriptor[]> copy(
+      WebkitResult<WebkitPropertyDescriptor[]> result) {
+    WebkitResult<WebkitPropertyDescriptor[]> copy = new WebkitResult<WebkitPropertyDescriptor[]>();
+
+    copy.setError(result.getError());
+    copy.setWasThrown(result.getWasThrown());
+
+    if (result.getResult() != null) {
+      copy.setResult(result.getResult().clone());
+    }
+
+    return copy;
+  }
+
   private JSONArray argsToArray(List<CallArgument> arguments) throws JSONException {
     JSONArray arr = new JSONArray();
 
@@ -406,4 +687,23 @@ public class WebkitRuntime extends WebkitDomain {
     return result;
   }
 
+  private WebkitResult<WebkitPropertyDescriptor[]> convertGetPropertiesResult(JsonPullParser object)
+      throws JSONException {
+    WebkitResult<WebkitPropertyDescriptor[]> result = new WebkitResult<WebkitPropertyDescriptor[]>();
+
+    object.beginObject();
+
+    while (object.hasNext()) {
+      if ("result".equals(object.nextName())) {
+        result.setResult(WebkitPropertyDescriptor.createFrom(object));
+      } else {
+        object.skipValue();
+      }
+    }
+
+    object.endObject();
+
+    return result;
+  }
+
 }
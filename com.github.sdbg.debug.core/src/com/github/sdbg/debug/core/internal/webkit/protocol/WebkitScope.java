@@ -14,6 +14,9 @@
 
 package com.github.sdbg.debug.core.internal.webkit.protocol;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -43,6 +46,42 @@ public class WebkitScope {
     return scopes;
   }
 
+  static WebkitScope[] createScopesFrom(JsonPullParser parser) throws JSONException {
+    List<WebkitScope> scopes = new ArrayList<WebkitScope>();
+
+    parser.beginArray();
+
+    while (parser.hasNext()) {
+      scopes.add(createFrom(parser));
+    }
+
+    parser.endArray();
+
+    return scopes.toArray(new WebkitScope[scopes.size()]);
+  }
+
+  static WebkitScope createFrom(JsonPullParser parser) throws JSONException {
+    WebkitScope scope = new WebkitScope();
+
+    parser.beginObject();
+
+    while (parser.hasNext()) {
+      String name = parser.nextName();
+
+      if ("type".equals(name)) {
+        scope.type = parser.nextString();
+      } else if ("object".equals(name)) {
+        scope.object = WebkitRemoteObject.createFrom(parser);
+      } else {
+        parser.skipValue();
+      }
+    }
+
+    parser.endObject();
+
+    return scope;
+  }
+
   static WebkitScope createFrom(JSONObject params) throws JSONException {
     WebkitScope scope = new WebkitScope();
 
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2013, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.sdbg.debug.core.model;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.debug.core.model.IVariable;
+
+/**
+ * A value or stack frame whose variables can be retrieved without blocking the caller.
+ */
+public interface ISDBGVariableContainer {
+
+  /**
+   * Returns the variables, once they have been fetched from the browser. Cancelling the returned
+   * future stops the caller from waiting; once every caller has cancelled, the outstanding requests
+   * for the variables are cancelled as well, and the next caller starts over.
+   */
+  public CompletableFuture<IVariable[]> getVariablesAsync();
+
+}
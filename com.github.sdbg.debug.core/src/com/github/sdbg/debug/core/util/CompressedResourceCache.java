@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2013, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.sdbg.debug.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cache of gzipped file contents, bounded by their total size and evicting the least recently
+ * used files first. An entry is tagged with the entity tag of the file it was compressed from, and
+ * replaced once the file has changed.
+ */
+class CompressedResourceCache {
+  private static class Entry {
+    final String etag;
+    final byte[] contents;
+
+    Entry(String etag, byte[] contents) {
+      this.etag = etag;
+      this.contents = contents;
+    }
+  }
+
+  private final long maxSize;
+
+  private long size;
+
+  private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  public CompressedResourceCache(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the gzipped contents of the given file, compressing it unless the cache already holds
+   * them for the given entity tag.
+   */
+  public byte[] getGzipped(File file, String etag) throws IOException {
+    String key = file.getAbsolutePath();
+
+    synchronized (this) {
+      Entry entry = entries.get(key);
+
+      if (entry != null && entry.etag.equals(etag)) {
+        return entry.contents;
+      }
+    }
+
+    byte[] contents = gzip(file);
+
+    synchronized (this) {
+      Entry old = entries.remove(key);
+
+      if (old != null) {
+        size -= old.contents.length;
+      }
+
+      if (contents.length <= maxSize) {
+        entries.put(key, new Entry(etag, contents));
+        size += contents.length;
+
+        Iterator<Entry> iter = entries.values().iterator();
+
+        while (size > maxSize) {
+          size -= iter.next().contents.length;
+          iter.remove();
+        }
+      }
+    }
+
+    return contents;
+  }
+
+  private byte[] gzip(File file) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(file.length() / 4, 1 << 20));
+    GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+    InputStream in = new FileInputStream(file);
+
+    try {
+      byte[] buffer = new byte[8192];
+
+      int count = in.read(buffer);
+
+      while (count != -1) {
+        gzip.write(buffer, 0, count);
+
+        count = in.read(buffer);
+      }
+    } finally {
+      in.close();
+    }
+
+    gzip.close();
+
+    return out.toByteArray();
+  }
+}
@@ -15,41 +15,54 @@
 package com.github.sdbg.debug.core.util;
 
 import com.github.sdbg.debug.core.SDBGDebugCorePlugin;
+import com.github.sdbg.debug.core.internal.util.ResourceChangeManager;
 import com.github.sdbg.debug.core.model.IResourceResolver;
 import com.github.sdbg.utilities.NetUtils;
 import com.github.sdbg.utilities.Streams;
-import com.github.sdbg.utilities.Utilities;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.ArrayList;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
-import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.resources.ResourcesPlugin;
-import org.eclipse.core.runtime.CoreException;
 
 /**
  * A web server that serves up workspace resources.
  */
 public class ResourceServer implements IResourceResolver {
+  /**
+   * The maximum number of connections served at the same time; further connections wait in the
+   * queue of the pool. Browsers open about six connections per host, and keep them alive.
+   */
+  private static final int MAX_WORKERS = 16;
+
+  private static final AtomicInteger workerCount = new AtomicInteger();
+
   private ServerSocket serverSocket;
 
-  private ExecutorService threadPool;
+  private ThreadPoolExecutor threadPool;
+
+  private WorkspaceResourceIndex resourceIndex = new WorkspaceResourceIndex();
 
   private Set<String> previousAgents = new HashSet<String>();
 
@@ -68,8 +81,28 @@ public class ResourceServer implements IResourceResolver {
    * @throws IOException
    */
   public ResourceServer(int port) throws IOException {
-    serverSocket = new ServerSocket(port);
-    threadPool = Executors.newCachedThreadPool();
+    // Sockets accepted from a channel have channels themselves, which files can be transferred to
+    // without copying them through the heap.
+    serverSocket = ServerSocketChannel.open().socket();
+    serverSocket.bind(new InetSocketAddress(port));
+    threadPool = new ThreadPoolExecutor(
+        MAX_WORKERS,
+        MAX_WORKERS,
+        60,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Web Server Worker "
+                + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    threadPool.allowCoreThreadTimeOut(true);
+
+    ResourceChangeManager.getManager().addChangeParticipant(resourceIndex);
 
     new Thread(new Runnable() {
       @Override
@@ -92,10 +125,10 @@ public class ResourceServer implements IResourceResolver {
 
   @Override
   public String getUrlForFile(File file) {
-    IFile[] files = ResourcesPlugin.getWorkspace().getRoot().findFilesForLocationURI(file.toURI());
+    IFile resource = resourceIndex.getFileForLocation(file);
 
-    if (files.length > 0) {
-      return getUrlForResource(files[0]);
+    if (resource != null) {
+      return getUrlForResource(resource);
     } else {
       return null;
     }
@@ -140,13 +173,17 @@ public class ResourceServer implements IResourceResolver {
     } catch (IOException exception) {
       SDBGDebugCorePlugin.logError(exception);
     }
+
+    threadPool.shutdown();
+
+    ResourceChangeManager.removeChangeParticipant(resourceIndex);
   }
 
   protected String getAvailableAppsContent() throws IOException {
     String template = Streams.loadAndClose(new InputStreamReader(
         ResourceServer.class.getResourceAsStream("template.html")));
 
-    List<IFile> files = getAllExecutableFiles();
+    List<IFile> files = resourceIndex.getExecutableFiles();
 
     // Sort by project name, then html file name
     Collections.sort(files, new Comparator<IFile>() {
@@ -184,6 +221,21 @@ public class ResourceServer implements IResourceResolver {
     return template;
   }
 
+  /**
+   * Returns true if accepted connections are waiting for a worker; idle keep-alive connections
+   * should then be closed to make room for them.
+   */
+  protected boolean hasWaitingConnections() {
+    return !threadPool.getQueue().isEmpty();
+  }
+
+  /**
+   * Returns the workspace file at the given location in the file system, or null.
+   */
+  protected IFile getFileForLocation(File file) {
+    return resourceIndex.getFileForLocation(file);
+  }
+
   protected void loadingContentFrom(String hostAddress, String userAgent) {
     if (!previousAgents.contains(userAgent)) {
       previousAgents.add(userAgent);
@@ -195,39 +247,6 @@ public class ResourceServer implements IResourceResolver {
     }
   }
 
-  private List<IFile> getAllExecutableFiles() {
-    final List<IFile> files = new ArrayList<IFile>();
-
-    for (IProject project : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
-//&&&      
-//      if (DartProjectNature.hasDartNature(project)) {
-      try {
-        project.accept(new IResourceVisitor() {
-          @Override
-          public boolean visit(IResource resource) throws CoreException {
-            if (resource instanceof IFile) {
-              IFile file = (IFile) resource;
-
-              if (Utilities.isHtmlLikeFileName(file.getName())) {
-                files.add(file);
-              } else if ("crx".equals(file.getFileExtension())) {
-                files.add(file);
-              }
-            }
-
-            return true;
-          }
-        });
-      } catch (CoreException e) {
-
-      }
-//&&&        
-//      }
-    }
-
-    return files;
-  }
-
   private String getPathFor(IFile file) throws IOException {
     String url = getUrlForResource(file);
 
@@ -268,7 +287,13 @@ public class ResourceServer implements IResourceResolver {
       while (true) {
         Socket socket = serverSocket.accept();
 
-        threadPool.execute(new ResourceServerHandler(this, socket));
+        try {
+          threadPool.execute(new ResourceServerHandler(this, socket));
+        } catch (RejectedExecutionException e) {
+          // The pool was shut down by the shutdown() call.
+          socket.close();
+          break;
+        }
       }
     } catch (IOException e) {
       // The server socket was closed by the shutdown() call.
@@ -17,34 +17,44 @@ package com.github.sdbg.debug.core.util;
 import com.github.sdbg.debug.core.SDBGDebugCorePlugin;
 import com.github.sdbg.utilities.Streams;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.text.DateFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
@@ -84,7 +94,7 @@ class ResourceServerHandler implements Runnable {
     public Map<String, String> headers = new LinkedHashMap<String, String>();
 
     public int getContentLength() {
-      String len = headers.get(CONTENT_LENGTH);
+      String len = getHeaderKey(CONTENT_LENGTH);
 
       try {
         return len == null ? -1 : Integer.parseInt(len);
@@ -115,30 +125,37 @@ class ResourceServerHandler implements Runnable {
       return null;
     }
 
-    public List<int[]> getRanges() {
-      // Range: bytes=0-99,500-1499,4000-
-      if (headers.containsKey(RANGE)) {
-        String rangeStr = getHeaderKey(RANGE);
+    /**
+     * Returns the requested byte ranges as {first, last} pairs, or null if the whole document
+     * was requested. An open range has a last byte of -1; a suffix range ("bytes=-500") has a
+     * first byte of -1 and the length of the suffix as its last byte.
+     */
+    public List<long[]> getRanges() {
+      // Range: bytes=0-99,500-1499,4000-,-500
+      String rangeStr = getHeaderKey(RANGE);
 
+      if (rangeStr != null) {
         if (rangeStr.startsWith("bytes=")) {
           rangeStr = rangeStr.substring("bytes=".length());
 
           String[] strs = rangeStr.split(",");
 
-          List<int[]> result = new ArrayList<int[]>();
+          List<long[]> result = new ArrayList<long[]>();
 
           for (String str : strs) {
+            str = str.trim();
+
             int index = str.indexOf('-');
 
             try {
               if (index == 0) {
-                result.add(new int[] {0, Integer.parseInt(str.substring(1))});
+                result.add(new long[] {-1, Long.parseLong(str.substring(1))});
               } else if (index == str.length() - 1) {
-                result.add(new int[] {Integer.parseInt(str.substring(0, index)), -1});
+                result.add(new long[] {Long.parseLong(str.substring(0, index)), -1});
               } else if (index != -1) {
-                result.add(new int[] {
-                    Integer.parseInt(str.substring(0, index)),
-                    Integer.parseInt(str.substring(index + 1))});
+                result.add(new long[] {
+                    Long.parseLong(str.substring(0, index)),
+                    Long.parseLong(str.substring(index + 1))});
               }
             } catch (NumberFormatException nfe) {
 
@@ -169,24 +186,68 @@ class ResourceServerHandler implements Runnable {
   }
 
   private static class HttpResponse {
+    /**
+     * A part of a response body: either bytes, or a region of a file which is sent to the socket
+     * without copying it through the heap.
+     */
+    public static class BodyPart {
+      public final byte[] bytes;
+
+      public final FileChannel file;
+      public final long position;
+      public final long count;
+
+      public BodyPart(byte[] bytes) {
+        this.bytes = bytes;
+        this.file = null;
+        this.position = 0;
+        this.count = bytes.length;
+      }
+
+      public BodyPart(FileChannel file, long position, long count) {
+        this.bytes = null;
+        this.file = file;
+        this.position = position;
+        this.count = count;
+      }
+    }
+
     public static final int OK = 200; // "OK"
     public static final int PARTIAL_CONTENT = 206; // "Partial Content"
     public static final int REDIRECT = 302; // "Found"
+    public static final int NOT_MODIFIED = 304; // "Not Modified"
     public static final int NOT_FOUND = 404; // "Not Found"
     public static final int UNAUTHORIZED = 401; // "Unauthorized"
+    public static final int RANGE_NOT_SATISFIABLE = 416; // "Requested Range Not Satisfiable"
 
     public static final DateFormat RFC_1123_DATE_FORMAT = new SimpleDateFormat(
         "EEE, dd MMM yyyy HH:mm:ss z",
         Locale.US);
 
+    static {
+      // HTTP dates are always in GMT.
+      RFC_1123_DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("GMT"));
+    }
+
     public int responseCode = OK;
     public String responseText = "OK";
 
     public Map<String, String> headers = new LinkedHashMap<String, String>();
 
-    // one or the other needs to be null
+    /**
+     * Set if the request could not be read completely, so the connection cannot be reused.
+     */
+    public boolean closeConnection;
+
+    // only one of these may be non-null
     public String responseBodyText;
     public InputStream responseBodyStream;
+    public List<BodyPart> responseBodyParts;
+
+    /**
+     * The file the body parts are read from; closed once the response is sent.
+     */
+    public FileChannel responseBodyFile;
 
     @Override
     public String toString() {
@@ -200,6 +261,19 @@ class ResourceServerHandler implements Runnable {
   private static final String ACCEPT_RANGES = "Accept-Ranges";
   private static final String CONTENT_RANGE = "Content-Range";
   private static final String LAST_MODIFIED = "Last-Modified";
+  private static final String CONNECTION = "Connection";
+  private static final String TRANSFER_ENCODING = "Transfer-Encoding";
+  private static final String ETAG = "ETag";
+  private static final String IF_NONE_MATCH = "If-None-Match";
+  private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+  private static final String ACCEPT_ENCODING = "Accept-Encoding";
+  private static final String CONTENT_ENCODING = "Content-Encoding";
+  private static final String VARY = "Vary";
+
+  private static final String ENCODING_BROTLI = "br";
+  private static final String ENCODING_GZIP = "gzip";
+
+  private static final String HTTP_1_1 = "HTTP/1.1";
 
   private static final String ISO_8859_1 = "ISO-8859-1";
   private static final String US_ASCII = "US-ASCII";
@@ -214,6 +288,7 @@ class ResourceServerHandler implements Runnable {
   private static final String TYPE_JS = "text/javascript";
   private static final String TYPE_DART = "application/dart";
   private static final String TYPE_XML = "text/xml";
+  private static final String TYPE_JSON = "application/json";
 
   private static final String TYPE_JPEG = "image/jpeg";
   private static final String TYPE_GIF = "image/gif";
@@ -229,6 +304,8 @@ class ResourceServerHandler implements Runnable {
     contentMappings.put("css", TYPE_CSS);
     contentMappings.put("js", TYPE_JS);
     contentMappings.put("xml", TYPE_XML);
+    contentMappings.put("json", TYPE_JSON);
+    contentMappings.put("map", TYPE_JSON);
 
     contentMappings.put("dart", TYPE_DART);
 
@@ -242,6 +319,32 @@ class ResourceServerHandler implements Runnable {
 
   private static final String CRLF = "\r\n";
 
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Smaller files are not worth compressing on the fly.
+   */
+  private static final int MIN_GZIP_SIZE = 1024;
+
+  private static final CompressedResourceCache compressedCache = new CompressedResourceCache(
+      32 * 1024 * 1024);
+
+  /**
+   * How long an idle connection is kept open for the next request, in milliseconds.
+   */
+  private static final int KEEP_ALIVE_TIMEOUT = 5000;
+
+  /**
+   * How often a worker waiting for the next request on an idle connection checks whether other
+   * connections are waiting for a worker, in milliseconds.
+   */
+  private static final int IDLE_POLL_INTERVAL = 100;
+
+  /**
+   * The number of requests served over one connection before it is closed.
+   */
+  private static final int MAX_KEEP_ALIVE_REQUESTS = 1000;
+
   private static byte[] AGENT_CONTENT;
 
   /**
@@ -305,23 +408,42 @@ class ResourceServerHandler implements Runnable {
   @Override
   public void run() {
     try {
-      DataInputStream in = new DataInputStream(socket.getInputStream());
+      socket.setTcpNoDelay(true);
+      socket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          socket.getInputStream(),
+          BUFFER_SIZE));
+      OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+
+      // Serve requests until the client closes the connection or asks us to; pipelined requests
+      // are read from the buffered input in order, and their responses are flushed together.
+      for (int count = 1;; count++) {
+        HttpHeader header = awaitRequest(in) ? parseHeader(in) : null;
+
+        if (header == null) {
+          if (count == 1) {
+            trace("Resource server: socket closed early");
+          }
 
-      HttpHeader header = parseHeader(in);
+          break;
+        }
+
+        if (!isAllowableConnection(socket, header)) {
+          break;
+        }
 
-      if (header == null) {
-        trace("Resource server: socket closed early");
-        safeClose(socket);
-      } else if (isAllowableConnection(socket, header)) {
         HttpResponse response;
 
         if (HttpHeader.METHOD_GET.equals(header.method)
             || HttpHeader.METHOD_HEAD.equals(header.method)) {
+          skipBody(in, header);
           response = createGETResponse(header);
         } else if (HttpHeader.METHOD_POST.equals(header.method)) {
           response = createPOSTResponse(header, in);
         } else {
           response = createErrorResponse("Request type " + header.method + " not supported.");
+          response.closeConnection = true;
         }
 
         trace("Resource server: " + header);
@@ -331,12 +453,28 @@ class ResourceServerHandler implements Runnable {
           }
         }
 
-        sendResponse(response);
-      } else {
-        // do nothing
+        boolean keepAlive = !response.closeConnection && count < MAX_KEEP_ALIVE_REQUESTS
+            && isKeepAlive(header);
+
+        if (!sendResponse(header, response, out, keepAlive)) {
+          break;
+        }
+
+        if (in.available() == 0) {
+          out.flush();
+
+          // Give the worker to a waiting connection rather than waiting for this one.
+          if (resourceServer.hasWaitingConnections()) {
+            break;
+          }
+        }
       }
 
+      out.flush();
       socket.close();
+    } catch (SocketTimeoutException ste) {
+      // An idle keep-alive connection timed out.
+      safeClose(socket);
     } catch (IOException ioe) {
       safeClose(socket);
 
@@ -346,17 +484,90 @@ class ResourceServerHandler implements Runnable {
         SDBGDebugCorePlugin.logError(ioe);
       }
     } catch (Throwable t) {
+      safeClose(socket);
+
       SDBGDebugCorePlugin.logError(t);
     }
   }
 
+  /**
+   * Returns true if the client's Accept-Encoding header allows the given content coding.
+   */
+  private boolean acceptsEncoding(HttpHeader header, String encoding) {
+    String accepted = header.getHeaderKey(ACCEPT_ENCODING);
+
+    if (accepted == null) {
+      return false;
+    }
+
+    // Accept-Encoding: gzip, deflate;q=0.5, br
+    for (String coding : accepted.split(",")) {
+      String[] params = coding.split(";");
+
+      if (params[0].trim().equalsIgnoreCase(encoding)) {
+        for (int i = 1; i < params.length; i++) {
+          String param = params[i].trim();
+
+          if (param.startsWith("q=")) {
+            try {
+              return Double.parseDouble(param.substring(2)) > 0;
+            } catch (NumberFormatException nfe) {
+              return false;
+            }
+          }
+        }
+
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   private HttpResponse addStandardResponseHeaders(HttpResponse response) {
     //&&&response.headers.put("Server", "Dart Editor v" + DartCore.getVersion());
     response.headers.put("Server", "Script Debugger v0");
-    response.headers.put("Connection", "close");
     return response;
   }
 
+  /**
+   * Waits until the next request starts arriving on this connection. Returns false if the client
+   * closed the connection, if it stayed idle for {@link #KEEP_ALIVE_TIMEOUT}, or if other
+   * connections are waiting for a worker meanwhile; an idle connection (e.g. one a browser opened
+   * speculatively) then does not keep them waiting for the whole timeout.
+   */
+  private boolean awaitRequest(DataInputStream in) throws IOException {
+    if (in.available() > 0) {
+      return true;
+    }
+
+    long deadline = System.currentTimeMillis() + KEEP_ALIVE_TIMEOUT;
+
+    socket.setSoTimeout(IDLE_POLL_INTERVAL);
+
+    try {
+      while (true) {
+        in.mark(1);
+
+        try {
+          if (in.read() == -1) {
+            return false;
+          }
+
+          in.reset();
+
+          return true;
+        } catch (SocketTimeoutException e) {
+          if (resourceServer.hasWaitingConnections() || System.currentTimeMillis() >= deadline) {
+            return false;
+          }
+        }
+      }
+    } finally {
+      socket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+    }
+  }
+
   /**
    * Restrict the files which are legal to serve.
    * 
@@ -436,10 +647,15 @@ class ResourceServerHandler implements Runnable {
 
     HttpResponse response = new HttpResponse();
 
+    long lastModified = javaFile.lastModified();
+    String etag = getEntityTag(javaFile, lastModified);
+
     try {
       // Last-Modified: Wed, 08 Jan 2003 23:11:55 GMT
-      Date date = new Date(javaFile.lastModified());
-      response.headers.put(LAST_MODIFIED, HttpResponse.RFC_1123_DATE_FORMAT.format(date));
+      Date date = new Date(lastModified);
+      synchronized (HttpResponse.RFC_1123_DATE_FORMAT) {
+        response.headers.put(LAST_MODIFIED, HttpResponse.RFC_1123_DATE_FORMAT.format(date));
+      }
     } catch (ArrayIndexOutOfBoundsException ex) {
       // This happens occasionally on Windows. 
 
@@ -454,43 +670,95 @@ class ResourceServerHandler implements Runnable {
     // Cache-control: no-cache
     response.headers.put(CACHE_CONTROL, "no-cache");
 
-    // Content-Length: 438
-    if (javaFile != null) {
-      long length = javaFile.length();
+    // The body depends on the encodings the client accepts.
+    response.headers.put(VARY, ACCEPT_ENCODING);
 
-//      if (javaScriptContent != null) {
-//        length = javaScriptContent.length;
-//      }
+    // The client revalidates on every load; an unchanged file costs it just the headers.
+    String cachedTag = getMatchingEntityTag(header, etag);
+
+    if (cachedTag != null || isNotModifiedSince(header, lastModified)) {
+      response.responseCode = HttpResponse.NOT_MODIFIED;
+      response.responseText = "Not Modified";
 
-      response.headers.put(CONTENT_LENGTH, Long.toString(length));
+      if (cachedTag != null) {
+        response.headers.put(ETAG, cachedTag);
+      }
+
+      return addStandardResponseHeaders(response);
     }
 
-    if (!headOnly) {
-//      if (javaScriptContent != null) {
-//        response.responseBodyStream = new ByteArrayInputStream(javaScriptContent);
-//      } else {
-      List<int[]> ranges = header.getRanges();
+    List<long[]> ranges = header.getRanges();
 
-      if (ranges != null) {
-        byte[] rangeData = readRangeData(javaFile, ranges);
+    // Ranges are served from the file itself, so only whole files are sent compressed.
+    if (ranges == null) {
+      File compressedFile = null;
+      String encoding = null;
 
-        response.responseBodyStream = new ByteArrayInputStream(rangeData);
+      if (acceptsEncoding(header, ENCODING_BROTLI)) {
+        compressedFile = getPrecompressedFile(javaFile, ".br");
+        encoding = ENCODING_BROTLI;
+      }
 
-        response.responseCode = HttpResponse.PARTIAL_CONTENT;
-        response.responseText = "Partial Content";
+      if (compressedFile == null && acceptsEncoding(header, ENCODING_GZIP)) {
+        compressedFile = getPrecompressedFile(javaFile, ".gz");
+        encoding = ENCODING_GZIP;
+      }
 
-        response.headers.put(CONTENT_LENGTH, Long.toString(rangeData.length));
-        // Content-Range: bytes X-Y/Z
-        int[] range = ranges.get(0);
-        response.headers.put(CONTENT_RANGE, "bytes " + range[0] + "-" + range[1] + "/"
-            + rangeData.length);
-      } else {
-        response.responseBodyStream = new FileInputStream(javaFile);
+      if (compressedFile != null) {
+        // Serve the precompressed sibling, e.g. main.js.gz for main.js.
+        response.headers.put(CONTENT_ENCODING, encoding);
+        response.headers.put(ETAG, getEncodedEntityTag(etag, encoding));
+        response.headers.put(CONTENT_LENGTH, Long.toString(compressedFile.length()));
+
+        if (!headOnly) {
+          FileChannel file = new FileInputStream(compressedFile).getChannel();
+
+          response.responseBodyFile = file;
+          response.responseBodyParts = Collections.singletonList(new HttpResponse.BodyPart(
+              file,
+              0,
+              file.size()));
+        }
+
+        return addStandardResponseHeaders(response);
       }
 
-      // Indicate that we support requesting a subset of the document.
-      response.headers.put(ACCEPT_RANGES, "bytes");
-//      }
+      if (!headOnly && ENCODING_GZIP.equals(encoding) && isCompressible(contentType)
+          && javaFile.length() >= MIN_GZIP_SIZE) {
+        byte[] contents = compressedCache.getGzipped(javaFile, etag);
+
+        response.headers.put(CONTENT_ENCODING, ENCODING_GZIP);
+        response.headers.put(ETAG, getEncodedEntityTag(etag, ENCODING_GZIP));
+        response.responseBodyParts = Collections.singletonList(new HttpResponse.BodyPart(
+            contents));
+
+        return addStandardResponseHeaders(response);
+      }
+    }
+
+    response.headers.put(ETAG, etag);
+
+    // Content-Length: 438
+    response.headers.put(CONTENT_LENGTH, Long.toString(javaFile.length()));
+
+    // Indicate that we support requesting a subset of the document.
+    response.headers.put(ACCEPT_RANGES, "bytes");
+
+    if (!headOnly) {
+      // The file is sent from its channel, straight to the socket where possible.
+      FileChannel file = new FileInputStream(javaFile).getChannel();
+      long length = file.size();
+
+      response.responseBodyFile = file;
+
+      if (ranges != null) {
+        serveRanges(response, ranges, length, contentType);
+      } else {
+        response.responseBodyParts = Collections.singletonList(new HttpResponse.BodyPart(
+            file,
+            0,
+            length));
+      }
     }
 
     addStandardResponseHeaders(response);
@@ -522,8 +790,11 @@ class ResourceServerHandler implements Runnable {
 
     int length = header.getContentLength();
 
-    if (length > MAX_POST) {
-      return createErrorResponse("Invalid POST length");
+    if (length < 0 || length > MAX_POST) {
+      // The body is left unread, so the connection cannot be used for another request.
+      HttpResponse response = createErrorResponse("Invalid POST length");
+      response.closeConnection = true;
+      return response;
     }
 
     byte[] data = new byte[length];
@@ -632,6 +903,36 @@ class ResourceServerHandler implements Runnable {
     return TYPE_OCTET;
   }
 
+  /**
+   * Returns the tag of the given encoding of a representation, e.g. "123-abc-gzip".
+   */
+  private String getEncodedEntityTag(String etag, String encoding) {
+    return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+  }
+
+  /**
+   * Returns a strong entity tag for the unencoded contents of the given file. It is derived from
+   * the modification stamp of the workspace file, if there is one, and from the file's time stamp
+   * and length, so that edits made outside the workspace change it too.
+   */
+  private String getEntityTag(File file, long lastModified) {
+    long stamp = IResource.NULL_STAMP;
+
+    try {
+      IFile resource = resourceServer.getFileForLocation(file);
+
+      if (resource != null) {
+        stamp = resource.getModificationStamp();
+      }
+    } catch (Throwable t) {
+      // Fall back on the file system's time stamp.
+
+    }
+
+    return "\"" + Long.toHexString(stamp) + "-" + Long.toHexString(lastModified) + "-"
+        + Long.toHexString(file.length()) + "\"";
+  }
+
   private String getFileExtension(String name) {
     int index = name.lastIndexOf('.');
 
@@ -642,6 +943,54 @@ class ResourceServerHandler implements Runnable {
     }
   }
 
+  /**
+   * Returns the tag in the client's If-None-Match header which matches the given entity tag or one
+   * of its encodings, or null.
+   */
+  private String getMatchingEntityTag(HttpHeader header, String etag) {
+    String ifNoneMatch = header.getHeaderKey(IF_NONE_MATCH);
+
+    if (ifNoneMatch == null) {
+      return null;
+    }
+
+    String encodedPrefix = etag.substring(0, etag.length() - 1) + "-";
+
+    // If-None-Match: "123-abc-4d2", W/"123-abc-4d2-gzip"
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+
+      if (tag.equals("*")) {
+        return etag;
+      }
+
+      if (tag.equals(etag) || (tag.startsWith(encodedPrefix) && tag.endsWith("\""))) {
+        return tag;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the compressed sibling of the given file with the given extension, unless it is
+   * missing or older than the file.
+   */
+  private File getPrecompressedFile(File file, String extension) {
+    File compressedFile = new File(file.getPath() + extension);
+
+    if (compressedFile.isFile() && compressedFile.lastModified() >= file.lastModified()
+        && canServeFile(compressedFile)) {
+      return compressedFile;
+    }
+
+    return null;
+  }
+
   private void handleLoggingPost(String data) throws IOException {
     try {
       JSONObject obj = new JSONObject(data);
@@ -712,6 +1061,12 @@ class ResourceServerHandler implements Runnable {
     return false;
   }
 
+  private boolean isCompressible(String contentType) {
+    return contentType.startsWith("text/") || contentType.startsWith(TYPE_DART)
+        || contentType.contains("javascript") || contentType.contains("json")
+        || contentType.contains("xml");
+  }
+
   private boolean isConnectionReset(IOException ioe) {
     // ignore java.net.SocketException: Connection reset
     // ignore java.net.SocketException: Broken pipe
@@ -731,6 +1086,25 @@ class ResourceServerHandler implements Runnable {
     return false;
   }
 
+  /**
+   * Returns true if the client wants the connection kept open after the response: by default for
+   * HTTP/1.1, and only on request for HTTP/1.0.
+   */
+  private boolean isKeepAlive(HttpHeader header) {
+    if (header.getHeaderKey(TRANSFER_ENCODING) != null) {
+      // We do not read chunked request bodies, so we would not find the next request.
+      return false;
+    }
+
+    String connection = header.getHeaderKey(CONNECTION);
+
+    if (HTTP_1_1.equals(header.version)) {
+      return connection == null || !connection.toLowerCase().contains("close");
+    } else {
+      return connection != null && connection.toLowerCase().contains("keep-alive");
+    }
+  }
+
   private boolean isLocalAddress(InetAddress address) {
     return address.isAnyLocalAddress() || address.isLoopbackAddress();
   }
@@ -739,6 +1113,31 @@ class ResourceServerHandler implements Runnable {
 //    return javaFile.getName().endsWith(".dart.js");
 //  }
 
+  /**
+   * Returns true if the client's If-Modified-Since date is no earlier than the given time; the
+   * header is ignored if the client also sent If-None-Match.
+   */
+  private boolean isNotModifiedSince(HttpHeader header, long lastModified) {
+    String ifModifiedSince = header.getHeaderKey(IF_MODIFIED_SINCE);
+
+    if (ifModifiedSince == null || header.getHeaderKey(IF_NONE_MATCH) != null) {
+      return false;
+    }
+
+    try {
+      Date date;
+
+      synchronized (HttpResponse.RFC_1123_DATE_FORMAT) {
+        date = HttpResponse.RFC_1123_DATE_FORMAT.parse(ifModifiedSince);
+      }
+
+      // HTTP dates have a resolution of one second.
+      return lastModified / 1000 <= date.getTime() / 1000;
+    } catch (ParseException e) {
+      return false;
+    }
+  }
+
   private boolean isSpecialResource(String path) {
     for (String[] resourceInfo : embeddedResources) {
       if (resourceInfo[0].equals(path)) {
@@ -801,8 +1200,7 @@ class ResourceServerHandler implements Runnable {
   }
 
   private IResource locateMappedFile(File file) {
-    IResource resource = ResourcesPlugin.getWorkspace().getRoot().getFileForLocation(
-        Path.fromOSString(file.getAbsolutePath()));
+    IResource resource = resourceServer.getFileForLocation(file);
 
     if (resource instanceof IFile) {
       IFile resourceFile = (IFile) resource;
@@ -868,38 +1266,6 @@ class ResourceServerHandler implements Runnable {
     return header;
   }
 
-  private byte[] readRangeData(File file, List<int[]> ranges) throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-    RandomAccessFile f = new RandomAccessFile(file, "r");
-
-    int maxLength = (int) f.length() - 1;
-
-    for (int[] range : ranges) {
-      if (range[1] > maxLength || range[1] == -1) {
-        range[1] = maxLength;
-      }
-
-      if (range[0] >= range[1]) {
-        continue;
-      }
-
-      f.seek(range[0]);
-
-      int count = range[1] - range[0] + 1;
-
-      byte[] temp = new byte[count];
-
-      f.readFully(temp);
-
-      out.write(temp);
-    }
-
-    f.close();
-
-    return out.toByteArray();
-  }
-
   private void safeClose(Socket socket) {
     try {
       socket.close();
@@ -908,40 +1274,85 @@ class ResourceServerHandler implements Runnable {
     }
   }
 
-  private void sendResponse(HttpResponse response) throws IOException {
-    OutputStream out = socket.getOutputStream();
+  /**
+   * Writes the response, framing its body by its Content-Length or, if that is not known, by
+   * chunked encoding; HTTP/1.0 clients get the end of such a body marked by closing the
+   * connection. The output is not flushed.
+   * 
+   * @return whether the connection can be used for another request
+   */
+  private boolean sendResponse(HttpHeader header, HttpResponse response, OutputStream out,
+      boolean keepAlive) throws IOException {
+    byte[] bodyText = response.responseBodyText != null
+        ? response.responseBodyText.getBytes(US_ASCII) : null;
+    boolean chunked = false;
+
+    String length = response.headers.get(CONTENT_LENGTH);
 
-    StringBuilder builder = new StringBuilder();
+    if (bodyText != null) {
+      response.headers.put(CONTENT_LENGTH, Integer.toString(bodyText.length));
+    } else if (response.responseBodyParts != null) {
+      long partsLength = 0;
 
-    // HTTP/1.1 200 OK
-    builder.append("HTTP/1.1 " + response.responseCode + " " + response.responseText + CRLF);
+      for (HttpResponse.BodyPart part : response.responseBodyParts) {
+        partsLength += part.count;
+      }
 
-    for (String key : response.headers.keySet()) {
-      builder.append(key + ": " + response.headers.get(key) + CRLF);
+      response.headers.put(CONTENT_LENGTH, Long.toString(partsLength));
+    } else if (length == null || length.startsWith("-")) {
+      if (response.responseBodyStream == null) {
+        // A 304 describes the cached body, so it must not claim an empty one.
+        if (response.responseCode != HttpResponse.NOT_MODIFIED) {
+          response.headers.put(CONTENT_LENGTH, "0");
+        }
+      } else if (HTTP_1_1.equals(header.version)) {
+        response.headers.remove(CONTENT_LENGTH);
+        response.headers.put(TRANSFER_ENCODING, "chunked");
+        chunked = true;
+      } else {
+        response.headers.remove(CONTENT_LENGTH);
+        keepAlive = false;
+      }
     }
 
-    builder.append(CRLF);
+    response.headers.put(CONNECTION, keepAlive ? "keep-alive" : "close");
 
-    out.write(builder.toString().getBytes(ISO_8859_1));
+    try {
+      StringBuilder builder = new StringBuilder();
+
+      // HTTP/1.1 200 OK
+      builder.append("HTTP/1.1 " + response.responseCode + " " + response.responseText + CRLF);
 
-    if (response.responseBodyText != null) {
-      out.write(response.responseBodyText.getBytes(US_ASCII));
-    } else if (response.responseBodyStream != null) {
-      byte[] buffer = new byte[2048];
+      for (String key : response.headers.keySet()) {
+        builder.append(key + ": " + response.headers.get(key) + CRLF);
+      }
 
-      int count = response.responseBodyStream.read(buffer);
+      builder.append(CRLF);
 
-      while (count != -1) {
-        out.write(buffer, 0, count);
+      out.write(builder.toString().getBytes(ISO_8859_1));
 
-        count = response.responseBodyStream.read(buffer);
+      if (!HttpHeader.METHOD_HEAD.equals(header.method)) {
+        if (bodyText != null) {
+          out.write(bodyText);
+        } else if (response.responseBodyParts != null) {
+          for (HttpResponse.BodyPart part : response.responseBodyParts) {
+            writeBodyPart(part, out);
+          }
+        } else if (response.responseBodyStream != null) {
+          writeBody(response.responseBodyStream, out, chunked);
+        }
+      }
+    } finally {
+      if (response.responseBodyStream != null) {
+        response.responseBodyStream.close();
       }
 
-      response.responseBodyStream.close();
+      if (response.responseBodyFile != null) {
+        response.responseBodyFile.close();
+      }
     }
 
-    out.flush();
-    out.close();
+    return keepAlive;
   }
 
   private HttpResponse serveAvailableApps(HttpHeader header) throws IOException {
@@ -985,6 +1396,79 @@ class ResourceServerHandler implements Runnable {
     return null;
   }
 
+  /**
+   * Sets up a 206 response with the satisfiable ones of the given ranges of the response's file:
+   * a single range is sent as is, several as a multipart/byteranges body.
+   */
+  private void serveRanges(HttpResponse response, List<long[]> ranges, long length,
+      String contentType) throws UnsupportedEncodingException {
+    List<long[]> satisfiable = new ArrayList<long[]>();
+
+    for (long[] range : ranges) {
+      long first = range[0];
+      long last = range[1];
+
+      if (first == -1) {
+        first = Math.max(0, length - last);
+        last = length - 1;
+      } else if (last == -1 || last >= length) {
+        last = length - 1;
+      }
+
+      if (first <= last) {
+        satisfiable.add(new long[] {first, last});
+      }
+    }
+
+    if (satisfiable.isEmpty()) {
+      response.responseCode = HttpResponse.RANGE_NOT_SATISFIABLE;
+      response.responseText = "Requested Range Not Satisfiable";
+
+      // Content-Range: bytes */Z
+      response.headers.put(CONTENT_RANGE, "bytes */" + length);
+      response.responseBodyParts = Collections.emptyList();
+
+      return;
+    }
+
+    response.responseCode = HttpResponse.PARTIAL_CONTENT;
+    response.responseText = "Partial Content";
+
+    List<HttpResponse.BodyPart> parts = new ArrayList<HttpResponse.BodyPart>();
+
+    if (satisfiable.size() == 1) {
+      long[] range = satisfiable.get(0);
+
+      // Content-Range: bytes X-Y/Z
+      response.headers.put(CONTENT_RANGE, "bytes " + range[0] + "-" + range[1] + "/" + length);
+      parts.add(new HttpResponse.BodyPart(
+          response.responseBodyFile,
+          range[0],
+          range[1] - range[0] + 1));
+    } else {
+      String boundary = UUID.randomUUID().toString();
+
+      response.headers.put(CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+
+      for (long[] range : satisfiable) {
+        String partHeader = CRLF + "--" + boundary + CRLF + CONTENT_TYPE + ": " + contentType
+            + CRLF + CONTENT_RANGE + ": bytes " + range[0] + "-" + range[1] + "/" + length + CRLF
+            + CRLF;
+
+        parts.add(new HttpResponse.BodyPart(partHeader.getBytes(ISO_8859_1)));
+        parts.add(new HttpResponse.BodyPart(
+            response.responseBodyFile,
+            range[0],
+            range[1] - range[0] + 1));
+      }
+
+      parts.add(new HttpResponse.BodyPart(
+          (CRLF + "--" + boundary + "--" + CRLF).getBytes(ISO_8859_1)));
+    }
+
+    response.responseBodyParts = parts;
+  }
+
   private String serverHtmlAsUtf8(String mimeType) {
     if (TYPE_HTML.equals(mimeType) || TYPE_DART.equals(mimeType)) {
       return mimeType + "; charset=utf-8";
@@ -993,6 +1477,23 @@ class ResourceServerHandler implements Runnable {
     }
   }
 
+  /**
+   * Skips the body of a request which we do not read, so the next request can be found.
+   */
+  private void skipBody(DataInputStream in, HttpHeader header) throws IOException {
+    int length = header.getContentLength();
+
+    while (length > 0) {
+      int skipped = in.skipBytes(length);
+
+      if (skipped <= 0) {
+        break;
+      }
+
+      length -= skipped;
+    }
+  }
+
   private String stripQuotes(String str) {
     if (str.length() > 1 && str.startsWith("\"") && str.endsWith("\"")) {
       str = str.substring(1, str.length() - 1);
@@ -1009,4 +1510,76 @@ class ResourceServerHandler implements Runnable {
   private void trace(String message) {
     Trace.trace(Trace.RESOURCE_SERVING, message);
   }
+
+  private void writeBody(InputStream in, OutputStream out, boolean chunked) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+
+    int count = in.read(buffer);
+
+    while (count != -1) {
+      if (chunked) {
+        if (count > 0) {
+          out.write((Integer.toHexString(count) + CRLF).getBytes(US_ASCII));
+          out.write(buffer, 0, count);
+          out.write(CRLF.getBytes(US_ASCII));
+        }
+      } else {
+        out.write(buffer, 0, count);
+      }
+
+      count = in.read(buffer);
+    }
+
+    if (chunked) {
+      out.write(("0" + CRLF + CRLF).getBytes(US_ASCII));
+    }
+  }
+
+  /**
+   * Writes a part of a body. Large file regions are transferred from the file to the socket's
+   * channel by the operating system (sendfile); this needs the buffered output to be flushed first,
+   * so small regions are copied into the buffer instead.
+   */
+  private void writeBodyPart(HttpResponse.BodyPart part, OutputStream out) throws IOException {
+    if (part.bytes != null) {
+      out.write(part.bytes);
+      return;
+    }
+
+    SocketChannel channel = socket.getChannel();
+    long position = part.position;
+    long remaining = part.count;
+
+    if (channel != null && remaining >= BUFFER_SIZE) {
+      out.flush();
+
+      while (remaining > 0) {
+        long count = part.file.transferTo(position, remaining, channel);
+
+        if (count <= 0) {
+          throw new EOFException("File truncated while serving it");
+        }
+
+        position += count;
+        remaining -= count;
+      }
+    } else {
+      byte[] buffer = new byte[(int) Math.min(remaining, BUFFER_SIZE)];
+
+      while (remaining > 0) {
+        int count = part.file.read(
+            ByteBuffer.wrap(buffer, 0, (int) Math.min(remaining, buffer.length)),
+            position);
+
+        if (count == -1) {
+          throw new EOFException("File truncated while serving it");
+        }
+
+        out.write(buffer, 0, count);
+
+        position += count;
+        remaining -= count;
+      }
+    }
+  }
 }
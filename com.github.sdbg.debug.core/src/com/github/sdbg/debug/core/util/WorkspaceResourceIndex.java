@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2013, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.sdbg.debug.core.util;
+
+import com.github.sdbg.debug.core.internal.util.ResourceChangeParticipant;
+import com.github.sdbg.utilities.Utilities;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * The workspace files the resource server looks up on every request: the workspace files at given
+ * file system locations, and the pages listed on its index page. The index is filled as files are
+ * looked up, and kept up to date from the resource change events of
+ * {@link com.github.sdbg.debug.core.internal.util.ResourceChangeManager} instead of searching or
+ * walking the workspace again.
+ */
+class WorkspaceResourceIndex implements ResourceChangeParticipant {
+  private Map<IPath, IFile> locationToFileMap = new HashMap<IPath, IFile>();
+
+  private Map<IFile, IPath> fileToLocationMap = new HashMap<IFile, IPath>();
+
+  /**
+   * The html-like files and Chrome extensions of the workspace, or null until they are first asked
+   * for.
+   */
+  private Set<IFile> executableFiles;
+
+  /**
+   * Counts the changes to the executable files, to tell whether any were missed while the
+   * workspace was walked.
+   */
+  private int changeCount;
+
+  public WorkspaceResourceIndex() {
+
+  }
+
+  /**
+   * Returns the html-like files and Chrome extensions of all the open projects.
+   */
+  public List<IFile> getExecutableFiles() {
+    int startCount;
+
+    synchronized (this) {
+      if (executableFiles != null) {
+        return new ArrayList<IFile>(executableFiles);
+      }
+
+      startCount = changeCount;
+    }
+
+    Set<IFile> files = findExecutableFiles();
+
+    synchronized (this) {
+      // Keep the result only if no change could have been missed by the walk.
+      if (executableFiles == null && changeCount == startCount) {
+        executableFiles = files;
+      }
+    }
+
+    return new ArrayList<IFile>(files);
+  }
+
+  /**
+   * Returns the workspace file at the given location in the file system, or null.
+   */
+  public IFile getFileForLocation(File file) {
+    IPath location = Path.fromOSString(file.getAbsolutePath());
+
+    synchronized (this) {
+      IFile resource = locationToFileMap.get(location);
+
+      if (resource != null && resource.exists()) {
+        return resource;
+      }
+    }
+
+    IFile[] files = ResourcesPlugin.getWorkspace().getRoot().findFilesForLocationURI(file.toURI());
+
+    if (files.length == 0) {
+      return null;
+    }
+
+    IFile resource = files[0];
+
+    if (resource.exists()) {
+      synchronized (this) {
+        IPath oldLocation = fileToLocationMap.put(resource, location);
+
+        if (oldLocation != null) {
+          locationToFileMap.remove(oldLocation);
+        }
+
+        locationToFileMap.put(location, resource);
+      }
+    }
+
+    return resource;
+  }
+
+  @Override
+  public synchronized void handleFileAdded(IFile file) {
+    if (isExecutable(file)) {
+      changeCount++;
+
+      if (executableFiles != null) {
+        executableFiles.add(file);
+      }
+    }
+  }
+
+  @Override
+  public void handleFileChanged(IFile file) {
+
+  }
+
+  @Override
+  public synchronized void handleFileRemoved(IFile file) {
+    IPath location = fileToLocationMap.remove(file);
+
+    if (location != null) {
+      locationToFileMap.remove(location);
+    }
+
+    if (isExecutable(file)) {
+      changeCount++;
+
+      if (executableFiles != null) {
+        executableFiles.remove(file);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void handleProjectChanged(IProject project) {
+    // The files of a project which was opened or closed are not reported, so start over.
+    changeCount++;
+    locationToFileMap.clear();
+    fileToLocationMap.clear();
+    executableFiles = null;
+  }
+
+  private Set<IFile> findExecutableFiles() {
+    final Set<IFile> files = new LinkedHashSet<IFile>();
+
+    for (IProject project : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
+//&&&
+//      if (DartProjectNature.hasDartNature(project)) {
+      try {
+        project.accept(new IResourceVisitor() {
+          @Override
+          public boolean visit(IResource resource) throws CoreException {
+            if (resource instanceof IFile && isExecutable((IFile) resource)) {
+              files.add((IFile) resource);
+            }
+
+            return true;
+          }
+        });
+      } catch (CoreException e) {
+
+      }
+//&&&
+//      }
+    }
+
+    return files;
+  }
+
+  private boolean isExecutable(IFile file) {
+    return Utilities.isHtmlLikeFileName(file.getName()) || "crx".equals(file.getFileExtension());
+  }
+}
@@ -4,14 +4,20 @@
 
 package de.roderick.weberknecht;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -29,6 +35,8 @@ public class WebSocket
     static final byte OPCODE_CLOSE = 8;
     static final byte OPCODE_PING = 9;
     static final byte OPCODE_PONG = 10;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long WRITER_DRAIN_TIMEOUT_MILLIS = 1000L;
     private URI url;
     private String host;
     private int port;
@@ -39,6 +47,7 @@ public class WebSocket
     private DataInputStream input;
     private PrintStream output;
     private WebSocketReceiver receiver;
+    private WebSocketWriter writer;
     private WebSocketHandshake handshake;
     private final Random random;
     
@@ -54,6 +63,7 @@ public class WebSocket
         this.input = null;
         this.output = null;
         this.receiver = null;
+        this.writer = null;
         this.handshake = null;
         this.random = new Random();
         this.host = host;
@@ -78,6 +88,7 @@ public class WebSocket
         this.input = null;
         this.output = null;
         this.receiver = null;
+        this.writer = null;
         this.handshake = null;
         this.random = new Random();
         this.url = url;
@@ -92,6 +103,15 @@ public class WebSocket
         if (this.receiver.isRunning()) {
             this.receiver.stopit();
         }
+        if (this.writer.isRunning() && Thread.currentThread() != this.writer) {
+            try {
+                this.writer.join(WRITER_DRAIN_TIMEOUT_MILLIS);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.writer.stopit();
         this.closeStreams();
         this.eventHandler.onClose();
     }
@@ -133,7 +153,10 @@ public class WebSocket
                 headers.put(keyValue[0].toLowerCase(), keyValue[1]);
             }
             this.handshake.verifyServerHandshakeHeaders(headers);
-            (this.receiver = new WebSocketReceiver(this.input, this)).start();
+            final SocketChannel socketChannel = this.socket.getChannel();
+            final ReadableByteChannel channel = (socketChannel != null) ? socketChannel : Channels.newChannel(this.input);
+            (this.receiver = new WebSocketReceiver(channel, this)).start();
+            (this.writer = new WebSocketWriter(socketChannel, (socketChannel != null) ? null : new BufferedOutputStream(this.output, WRITE_BUFFER_SIZE), this)).start();
             this.connected = true;
             this.eventHandler.onOpen();
         }
@@ -160,16 +183,11 @@ public class WebSocket
         }
     }
     
-    public synchronized void send(final String data) throws WebSocketException {
+    public void send(final String data) throws WebSocketException {
         if (!this.connected) {
             throw new WebSocketException("error while sending text data: not connected");
         }
-        try {
-            this.sendFrame((byte)1, true, data.getBytes("UTF-8"));
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
+        this.sendFrame((byte)1, true, data.getBytes(StandardCharsets.UTF_8));
     }
     
     public void setEventHandler(final WebSocketEventHandler eventHandler) {
@@ -197,11 +215,12 @@ public class WebSocket
                 port = 80;
             }
             try {
-                socket = new Socket(host, port);
+                socket = SocketChannel.open(new InetSocketAddress(host, port)).socket();
+                socket.setTcpNoDelay(true);
                 return socket;
             }
-            catch (UnknownHostException uhe) {
-                throw new WebSocketException("unknown host: " + host, uhe);
+            catch (UnresolvedAddressException uae) {
+                throw new WebSocketException("unknown host: " + host, uae);
             }
             catch (IOException ioe) {
                 throw new WebSocketException("error while creating socket to " + ((this.url == null) ? this.path : this.url), ioe);
@@ -226,80 +245,88 @@ public class WebSocket
         throw new WebSocketException("unsupported protocol: " + scheme);
     }
     
-    private byte[] generateMask() {
-        final byte[] mask = new byte[4];
-        this.random.nextBytes(mask);
-        return mask;
-    }
-    
-    private byte[] intToByteArray(final int number) {
-        final byte[] bytes = ByteBuffer.allocate(4).putInt(number).array();
-        return bytes;
+    synchronized void sendPong(final byte[] data) {
+        if (!this.connected) {
+            return;
+        }
+        try {
+            this.sendFrame((byte)10, true, data);
+        }
+        catch (WebSocketException e) {
+            e.printStackTrace();
+        }
     }
     
     private synchronized void sendCloseHandshake() throws WebSocketException {
         if (!this.connected) {
             throw new WebSocketException("error while sending close handshake: not connected");
         }
-        if (!this.connected) {
-            throw new WebSocketException("error while sending close");
-        }
         try {
             this.sendFrame((byte)8, true, new byte[0]);
+            this.writer.finish();
         }
-        catch (IOException e) {
+        catch (WebSocketException e) {
             e.printStackTrace();
         }
         this.connected = false;
     }
     
-    private synchronized void sendFrame(final byte opcode, final boolean masking, final byte[] data) throws WebSocketException, IOException {
+    /**
+     * Builds a complete frame in a single buffer and hands it to the writer thread. This is not
+     * synchronized: concurrent senders only meet on the writer's queue.
+     */
+    private void sendFrame(final byte opcode, final boolean masking, final byte[] data) throws WebSocketException {
+        final int length = data.length;
         int headerLength = 2;
+        if (length > 65535) {
+            headerLength += 8;
+        }
+        else if (length >= 126) {
+            headerLength += 2;
+        }
         if (masking) {
             headerLength += 4;
         }
-        final ByteArrayOutputStream frame = new ByteArrayOutputStream(data.length + headerLength);
-        final byte fin = -128;
-        final byte startByte = (byte)(fin | opcode);
-        frame.write(startByte);
-        int length = data.length;
-        int length_field = 0;
+        final ByteBuffer frame = ByteBuffer.allocate(headerLength + length);
+        frame.put((byte)(0x80 | opcode));
+        final int maskBit = masking ? 0x80 : 0;
         if (length < 126) {
-            if (masking) {
-                length |= 0x80;
-            }
-            frame.write((byte)length);
+            frame.put((byte)(maskBit | length));
         }
         else if (length <= 65535) {
-            length_field = 126;
-            if (masking) {
-                length_field |= 0x80;
-            }
-            frame.write((byte)length_field);
-            final byte[] lengthBytes = this.intToByteArray(length);
-            frame.write(lengthBytes[2]);
-            frame.write(lengthBytes[3]);
+            frame.put((byte)(maskBit | 126));
+            frame.putShort((short)length);
         }
         else {
-            length_field = 127;
-            if (masking) {
-                length_field |= 0x80;
-            }
-            frame.write((byte)length_field);
-            frame.write(new byte[] { 0, 0, 0, 0 });
-            frame.write(this.intToByteArray(length));
+            frame.put((byte)(maskBit | 127));
+            frame.putLong(length);
         }
-        byte[] mask = null;
+        int mask = 0;
         if (masking) {
-            mask = this.generateMask();
-            frame.write(mask);
-            for (int i = 0; i < data.length; ++i) {
-                final int n = i;
-                data[n] ^= mask[i % 4];
-            }
+            mask = this.random.nextInt();
+            frame.putInt(mask);
+        }
+        final int payloadStart = frame.position();
+        frame.put(data);
+        if (masking) {
+            applyMask(frame, payloadStart, length, mask);
+        }
+        frame.flip();
+        this.writer.enqueue(frame);
+    }
+    
+    /**
+     * XORs <code>length</code> bytes starting at absolute index <code>start</code> with the
+     * (big-endian) frame mask, four bytes at a time. Masking and unmasking are the same operation.
+     */
+    static void applyMask(final ByteBuffer buffer, final int start, final int length, final int mask) {
+        final int end = start + length;
+        int i = start;
+        for (; i + 4 <= end; i += 4) {
+            buffer.putInt(i, buffer.getInt(i) ^ mask);
+        }
+        for (int shift = 24; i < end; ++i, shift -= 8) {
+            buffer.put(i, (byte)(buffer.get(i) ^ (mask >>> shift)));
         }
-        frame.write(data);
-        this.output.write(frame.toByteArray());
-        this.output.flush();
     }
 }
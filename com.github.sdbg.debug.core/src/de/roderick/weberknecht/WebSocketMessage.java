@@ -1,29 +1,42 @@
-// 
+//
 // Decompiled by Procyon v0.5.36
-// 
+//
 
 package de.roderick.weberknecht;
 
-import java.io.UnsupportedEncodingException;
+import java.io.CharArrayReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
 
 public class WebSocketMessage
 {
-    private Byte[] message;
-    
-    public WebSocketMessage(final Byte[] message) {
-        this.message = message;
+    private CharSequence text;
+
+    public WebSocketMessage(final CharSequence text) {
+        this.text = text;
     }
-    
-    public String getText() {
-        final byte[] message = new byte[this.message.length];
-        for (int i = 0; i < this.message.length; ++i) {
-            message[i] = this.message[i];
-        }
-        try {
-            return new String(message, "UTF-8");
-        }
-        catch (UnsupportedEncodingException uee) {
-            return null;
+
+    /**
+     * Returns the decoded message text. The returned sequence may be backed by a buffer the
+     * receiver reuses for the next message; call {@link #getText()} to keep a copy.
+     */
+    public CharSequence getCharSequence() {
+        return this.text;
+    }
+
+    /**
+     * Returns a reader over the message text that does not copy the underlying characters.
+     */
+    public Reader getReader() {
+        if (this.text instanceof CharBuffer && ((CharBuffer)this.text).hasArray()) {
+            final CharBuffer buffer = (CharBuffer)this.text;
+            return new CharArrayReader(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
         }
+        return new StringReader(this.text.toString());
+    }
+
+    public String getText() {
+        return this.text.toString();
     }
 }
@@ -1,73 +1,257 @@
-// 
+//
 // Decompiled by Procyon v0.5.36
-// 
+//
 
 package de.roderick.weberknecht;
 
-import java.util.List;
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.io.DataInputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Reads WebSocket frames from a channel into reusable direct buffers.
+ * <p>
+ * Fragmented messages are reassembled from their continuation frames, masked frames are unmasked
+ * in place a word at a time, and text payloads are decoded straight into a reusable
+ * {@link CharBuffer}. The {@link WebSocketMessage} handed to the event handler is therefore only
+ * valid for the duration of the {@link WebSocketEventHandler#onMessage(WebSocketMessage)} call.
+ */
 public class WebSocketReceiver extends Thread
 {
-    private DataInputStream input;
-    private WebSocket websocket;
-    private WebSocketEventHandler eventHandler;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_MESSAGE_SIZE = 64 * 1024;
+
+    /**
+     * Buffers grown beyond this size (e.g. for a huge getScriptSource reply) are dropped once the
+     * message has been dispatched, so that a single large message does not pin memory forever.
+     */
+    private static final int MAX_RETAINED_MESSAGE_SIZE = 4 * 1024 * 1024;
+
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    private final ReadableByteChannel channel;
+    private final WebSocket websocket;
+    private final WebSocketEventHandler eventHandler;
+    private final ByteBuffer readBuffer;
+    private final ByteBuffer controlBuffer;
+    private final CharsetDecoder decoder;
+    private ByteBuffer messageBuffer;
+    private CharBuffer textBuffer;
+    private byte messageOpcode;
     private volatile boolean stop;
-    
-    public WebSocketReceiver(final DataInputStream input, final WebSocket websocket) {
-        this.input = null;
-        this.websocket = null;
-        this.eventHandler = null;
+
+    public WebSocketReceiver(final ReadableByteChannel channel, final WebSocket websocket) {
+        super("WebSocket receiver");
         this.stop = false;
-        this.input = input;
+        this.channel = channel;
         this.websocket = websocket;
         this.eventHandler = websocket.getEventHandler();
+        this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        this.readBuffer.flip();
+        this.controlBuffer = ByteBuffer.allocate(MAX_CONTROL_PAYLOAD);
+        this.messageBuffer = ByteBuffer.allocateDirect(INITIAL_MESSAGE_SIZE);
+        this.textBuffer = CharBuffer.allocate(INITIAL_MESSAGE_SIZE);
+        this.decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.messageOpcode = -1;
     }
-    
+
     public boolean isRunning() {
         return !this.stop;
     }
-    
+
     @Override
     public void run() {
-        final List<Byte> messageBytes = new ArrayList<Byte>();
         while (!this.stop) {
             try {
-                final byte b = this.input.readByte();
-                final byte opcode = (byte)(b & 0xF);
-                final byte length = this.input.readByte();
-                long payload_length = 0L;
-                if (length < 126) {
-                    payload_length = length;
-                }
-                else if (length == 126) {
-                    payload_length = ((0xFF & this.input.readByte()) << 8 | (0xFF & this.input.readByte()));
-                }
-                else if (length == 127) {
-                    payload_length = this.input.readLong();
-                }
-                for (int i = 0; i < payload_length; ++i) {
-                    messageBytes.add(this.input.readByte());
-                }
-                final Byte[] message = messageBytes.toArray(new Byte[messageBytes.size()]);
-                final WebSocketMessage ws_message = new WebSocketMessage(message);
-                this.eventHandler.onMessage(ws_message);
-                messageBytes.clear();
+                this.readFrame();
             }
             catch (IOException ioe) {
                 this.handleError();
             }
         }
     }
-    
+
     public void stopit() {
         this.stop = true;
     }
-    
+
     private void handleError() {
         this.stopit();
         this.websocket.handleReceiverError();
     }
+
+    private void readFrame() throws IOException {
+        this.fill(2);
+        final int b0 = this.readBuffer.get() & 0xFF;
+        final int b1 = this.readBuffer.get() & 0xFF;
+        final boolean fin = (b0 & 0x80) != 0;
+        final byte opcode = (byte)(b0 & 0xF);
+        final boolean masked = (b1 & 0x80) != 0;
+        long length = b1 & 0x7F;
+        if (length == 126) {
+            this.fill(2);
+            length = this.readBuffer.getShort() & 0xFFFF;
+        }
+        else if (length == 127) {
+            this.fill(8);
+            length = this.readBuffer.getLong();
+        }
+        int mask = 0;
+        if (masked) {
+            this.fill(4);
+            mask = this.readBuffer.getInt();
+        }
+        if (length < 0L || length > Integer.MAX_VALUE - 8) {
+            throw new IOException("unsupported websocket frame length: " + length);
+        }
+        if ((opcode & 0x8) != 0) {
+            this.readControlFrame(opcode, (int)length, masked, mask);
+            return;
+        }
+        if (opcode != 0) {
+            this.messageOpcode = opcode;
+            this.messageBuffer.clear();
+        }
+        else if (this.messageOpcode == -1) {
+            throw new IOException("unexpected websocket continuation frame");
+        }
+        final int start = this.messageBuffer.position();
+        this.ensureMessageCapacity((int)length);
+        this.readPayload(this.messageBuffer, (int)length);
+        if (masked) {
+            WebSocket.applyMask(this.messageBuffer, start, (int)length, mask);
+        }
+        if (fin) {
+            this.dispatchMessage();
+        }
+    }
+
+    private void readControlFrame(final byte opcode, final int length, final boolean masked, final int mask) throws IOException {
+        if (length > MAX_CONTROL_PAYLOAD) {
+            throw new IOException("websocket control frame too long: " + length);
+        }
+        this.controlBuffer.clear();
+        this.readPayload(this.controlBuffer, length);
+        if (masked) {
+            WebSocket.applyMask(this.controlBuffer, 0, length, mask);
+        }
+        switch (opcode) {
+            case WebSocket.OPCODE_CLOSE: {
+                this.handleError();
+                break;
+            }
+            case WebSocket.OPCODE_PING: {
+                final byte[] data = new byte[length];
+                this.controlBuffer.flip();
+                this.controlBuffer.get(data);
+                this.websocket.sendPong(data);
+                this.eventHandler.onPing();
+                break;
+            }
+            case WebSocket.OPCODE_PONG: {
+                this.eventHandler.onPong();
+                break;
+            }
+        }
+    }
+
+    private void dispatchMessage() {
+        this.messageBuffer.flip();
+        final int length = this.messageBuffer.remaining();
+        if (this.textBuffer.capacity() < length) {
+            this.textBuffer = CharBuffer.allocate(length);
+        }
+        this.textBuffer.clear();
+        this.decoder.reset();
+        this.decoder.decode(this.messageBuffer, this.textBuffer, true);
+        this.decoder.flush(this.textBuffer);
+        this.textBuffer.flip();
+        this.messageOpcode = -1;
+        try {
+            this.eventHandler.onMessage(new WebSocketMessage(this.textBuffer));
+        }
+        finally {
+            if (this.messageBuffer.capacity() > MAX_RETAINED_MESSAGE_SIZE) {
+                this.messageBuffer = ByteBuffer.allocateDirect(INITIAL_MESSAGE_SIZE);
+            }
+            if (this.textBuffer.capacity() > MAX_RETAINED_MESSAGE_SIZE) {
+                this.textBuffer = CharBuffer.allocate(INITIAL_MESSAGE_SIZE);
+            }
+            this.messageBuffer.clear();
+        }
+    }
+
+    /**
+     * Makes sure at least <code>count</code> (at most {@link #READ_BUFFER_SIZE}) bytes are
+     * available in the read buffer.
+     */
+    private void fill(final int count) throws IOException {
+        if (this.readBuffer.remaining() >= count) {
+            return;
+        }
+        this.readBuffer.compact();
+        try {
+            while (this.readBuffer.position() < count) {
+                if (this.channel.read(this.readBuffer) < 0) {
+                    throw new EOFException("websocket connection closed");
+                }
+            }
+        }
+        finally {
+            this.readBuffer.flip();
+        }
+    }
+
+    /**
+     * Copies <code>length</code> payload bytes into <code>target</code>. Bytes already buffered are
+     * drained first; the rest of a large payload is read from the channel straight into the target.
+     */
+    private void readPayload(final ByteBuffer target, final int length) throws IOException {
+        int remaining = length;
+        if (this.readBuffer.hasRemaining()) {
+            final int chunk = Math.min(remaining, this.readBuffer.remaining());
+            final int limit = this.readBuffer.limit();
+            this.readBuffer.limit(this.readBuffer.position() + chunk);
+            target.put(this.readBuffer);
+            this.readBuffer.limit(limit);
+            remaining -= chunk;
+        }
+        if (remaining == 0) {
+            return;
+        }
+        if (remaining < READ_BUFFER_SIZE / 2) {
+            this.fill(remaining);
+            this.readPayload(target, remaining);
+            return;
+        }
+        final int limit = target.limit();
+        target.limit(target.position() + remaining);
+        try {
+            while (target.hasRemaining()) {
+                if (this.channel.read(target) < 0) {
+                    throw new EOFException("websocket connection closed");
+                }
+            }
+        }
+        finally {
+            target.limit(limit);
+        }
+    }
+
+    private void ensureMessageCapacity(final int length) {
+        if (this.messageBuffer.remaining() >= length) {
+            return;
+        }
+        final long required = (long)this.messageBuffer.position() + length;
+        final int capacity = (int)Math.min(Integer.MAX_VALUE - 8, Math.max(required, this.messageBuffer.capacity() * 2L));
+        final ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+        this.messageBuffer.flip();
+        grown.put(this.messageBuffer);
+        this.messageBuffer = grown;
+    }
 }
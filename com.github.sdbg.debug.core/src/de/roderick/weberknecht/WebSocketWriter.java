@@ -0,0 +1,151 @@
+//
+// Decompiled by Procyon v0.5.36
+//
+
+package de.roderick.weberknecht;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes WebSocket frames queued by any number of sender threads.
+ * <p>
+ * Senders only build their frame and put it on a bounded queue; this thread drains whatever has
+ * accumulated and writes it with a single gathering write, so bursts of requests (e.g. setting
+ * hundreds of breakpoints) neither contend on a socket monitor nor cost one flush per frame.
+ */
+public class WebSocketWriter extends Thread
+{
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int MAX_BATCH = 64;
+    private static final long OFFER_TIMEOUT_SECONDS = 30L;
+
+    /** Queued after the close frame; the writer exits once everything before it has been written. */
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final GatheringByteChannel channel;
+    private final OutputStream output;
+    private final WebSocket websocket;
+    private final BlockingQueue<ByteBuffer> queue;
+    private volatile boolean stop;
+
+    /**
+     * @param channel the socket channel, or <code>null</code> if the socket has none (wss)
+     * @param output the (buffered) socket output stream, used when there is no channel
+     */
+    public WebSocketWriter(final GatheringByteChannel channel, final OutputStream output, final WebSocket websocket) {
+        super("WebSocket writer");
+        this.stop = false;
+        this.channel = channel;
+        this.output = output;
+        this.websocket = websocket;
+        this.queue = new ArrayBlockingQueue<ByteBuffer>(QUEUE_CAPACITY);
+        this.setDaemon(true);
+    }
+
+    public boolean isRunning() {
+        return !this.stop;
+    }
+
+    /**
+     * Queues a complete frame for writing, waiting for room if the queue is full.
+     */
+    public void enqueue(final ByteBuffer frame) throws WebSocketException {
+        if (this.stop) {
+            throw new WebSocketException("error while sending: writer stopped");
+        }
+        try {
+            if (!this.queue.offer(frame, OFFER_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new WebSocketException("error while sending: send queue full");
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new WebSocketException("error while sending: interrupted", ie);
+        }
+    }
+
+    /**
+     * Lets the writer finish the frames queued so far and then exit.
+     */
+    public void finish() {
+        if (!this.queue.offer(END_OF_STREAM)) {
+            this.stopit();
+        }
+    }
+
+    public void stopit() {
+        this.stop = true;
+        this.interrupt();
+    }
+
+    @Override
+    public void run() {
+        final List<ByteBuffer> batch = new ArrayList<ByteBuffer>(MAX_BATCH);
+        try {
+            while (!this.stop) {
+                batch.add(this.queue.take());
+                this.queue.drainTo(batch, MAX_BATCH - 1);
+                final int end = indexOfEndOfStream(batch);
+                if (end != -1) {
+                    this.write(batch.subList(0, end));
+                    this.stop = true;
+                }
+                else {
+                    this.write(batch);
+                }
+                batch.clear();
+            }
+        }
+        catch (InterruptedException ie) {
+            this.stop = true;
+        }
+        catch (IOException ioe) {
+            this.stop = true;
+            this.websocket.handleReceiverError();
+        }
+    }
+
+    /**
+     * Compares by identity: {@link ByteBuffer#equals(Object)} compares the remaining bytes, so any
+     * empty frame would be taken for the sentinel.
+     */
+    private static int indexOfEndOfStream(final List<ByteBuffer> frames) {
+        for (int i = 0; i < frames.size(); ++i) {
+            if (frames.get(i) == END_OF_STREAM) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void write(final List<ByteBuffer> frames) throws IOException {
+        if (frames.isEmpty()) {
+            return;
+        }
+        if (this.channel != null) {
+            final ByteBuffer[] buffers = frames.toArray(new ByteBuffer[frames.size()]);
+            final ByteBuffer last = buffers[buffers.length - 1];
+            int first = 0;
+            while (last.hasRemaining()) {
+                this.channel.write(buffers, first, buffers.length - first);
+                while (!buffers[first].hasRemaining() && first < buffers.length - 1) {
+                    ++first;
+                }
+            }
+        }
+        else {
+            for (final ByteBuffer frame : frames) {
+                this.output.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            }
+            this.output.flush();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2012, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.sdbg.debug.ui.internal.presentation;
+
+import com.github.sdbg.debug.core.model.ISDBGVariableContainer;
+import com.github.sdbg.debug.ui.internal.SDBGDebugUIPlugin;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.debug.core.model.IVariable;
+import org.eclipse.debug.internal.ui.viewers.model.provisional.IChildrenCountUpdate;
+import org.eclipse.debug.internal.ui.viewers.model.provisional.IChildrenUpdate;
+import org.eclipse.debug.internal.ui.viewers.model.provisional.IViewerUpdate;
+
+/**
+ * Completes viewer updates from the variables of an {@link ISDBGVariableContainer} once they
+ * arrive, instead of parking a job thread until then. A viewer update which is cancelled meanwhile
+ * cancels the fetch.
+ */
+@SuppressWarnings("restriction")
+class AsyncVariableUpdates {
+
+  /**
+   * How often pending updates are checked for cancellation; viewer updates don't notify about it.
+   */
+  private static final long CANCEL_POLL_MILLIS = 100;
+
+  private static final ScheduledExecutorService cancelWatcher =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "SDBG variable update watcher");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  /**
+   * Starts the given update; returns false if there is no container to take the variables from.
+   */
+  static boolean update(final IChildrenCountUpdate update, ISDBGVariableContainer container) {
+    if (container == null) {
+      return false;
+    }
+
+    CompletableFuture<IVariable[]> variables = watch(update, container.getVariablesAsync());
+
+    variables.whenComplete(new BiConsumer<IVariable[], Throwable>() {
+      @Override
+      public void accept(IVariable[] variables, Throwable t) {
+        if (!update.isCanceled()) {
+          if (t != null) {
+            setError(update, t);
+          } else {
+            update.setChildCount(variables.length);
+          }
+        }
+
+        update.done();
+      }
+    });
+
+    return true;
+  }
+
+  /**
+   * Starts the given update; returns false if there is no container to take the variables from.
+   */
+  static boolean update(final IChildrenUpdate update, ISDBGVariableContainer container) {
+    if (container == null) {
+      return false;
+    }
+
+    CompletableFuture<IVariable[]> variables = watch(update, container.getVariablesAsync());
+
+    variables.whenComplete(new BiConsumer<IVariable[], Throwable>() {
+      @Override
+      public void accept(IVariable[] variables, Throwable t) {
+        if (!update.isCanceled()) {
+          if (t != null) {
+            setError(update, t);
+          } else {
+            int end = Math.min(update.getOffset() + update.getLength(), variables.length);
+
+            for (int i = update.getOffset(); i < end; i++) {
+              update.setChild(variables[i], i);
+            }
+          }
+        }
+
+        update.done();
+      }
+    });
+
+    return true;
+  }
+
+  private static void setError(IViewerUpdate update, Throwable t) {
+    update.setStatus(new Status(IStatus.ERROR, SDBGDebugUIPlugin.PLUGIN_ID, t.toString(), t));
+  }
+
+  /**
+   * Cancels the future if the update is cancelled before it completes.
+   */
+  private static <T> CompletableFuture<T> watch(final IViewerUpdate update,
+      final CompletableFuture<T> future) {
+    final ScheduledFuture<?> watch = cancelWatcher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        if (update.isCanceled()) {
+          future.cancel(false);
+        }
+      }
+    }, CANCEL_POLL_MILLIS, CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+    future.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T result, Throwable t) {
+        watch.cancel(false);
+      }
+    });
+
+    return future;
+  }
+
+  private AsyncVariableUpdates() {
+
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2012, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.sdbg.debug.ui.internal.presentation;
+
+import com.github.sdbg.debug.core.model.ISDBGVariableContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.debug.internal.ui.model.elements.StackFrameContentProvider;
+import org.eclipse.debug.internal.ui.viewers.model.provisional.IChildrenCountUpdate;
+import org.eclipse.debug.internal.ui.viewers.model.provisional.IChildrenUpdate;
+import org.eclipse.debug.internal.ui.viewers.model.provisional.IPresentationContext;
+
+/**
+ * A content provider for SDBG stack frames which does not block while the variables of a frame are
+ * fetched from the browser.
+ */
+@SuppressWarnings("restriction")
+public class SDBGStackFrameContentProvider extends StackFrameContentProvider {
+
+  public SDBGStackFrameContentProvider() {
+
+  }
+
+  @Override
+  public void update(IChildrenCountUpdate[] updates) {
+    List<IChildrenCountUpdate> others = new ArrayList<IChildrenCountUpdate>();
+
+    for (IChildrenCountUpdate update : updates) {
+      if (!AsyncVariableUpdates.update(update, getContainer(update.getElement(),
+          update.getPresentationContext()))) {
+        others.add(update);
+      }
+    }
+
+    if (!others.isEmpty()) {
+      super.update(others.toArray(new IChildrenCountUpdate[others.size()]));
+    }
+  }
+
+  @Override
+  public void update(IChildrenUpdate[] updates) {
+    List<IChildrenUpdate> others = new ArrayList<IChildrenUpdate>();
+
+    for (IChildrenUpdate update : updates) {
+      if (!AsyncVariableUpdates.update(update, getContainer(update.getElement(),
+          update.getPresentationContext()))) {
+        others.add(update);
+      }
+    }
+
+    if (!others.isEmpty()) {
+      super.update(others.toArray(new IChildrenUpdate[others.size()]));
+    }
+  }
+
+  private ISDBGVariableContainer getContainer(Object element, IPresentationContext context) {
+    if (element instanceof ISDBGVariableContainer && supportsContext(context)) {
+      return (ISDBGVariableContainer) element;
+    } else {
+      return null;
+    }
+  }
+
+}